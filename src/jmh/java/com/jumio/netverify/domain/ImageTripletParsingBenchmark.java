@@ -0,0 +1,87 @@
+/*
+ * Jumio Inc.
+ *
+ * Copyright (C) 2018
+ * All rights reserved.
+ */
+package com.jumio.netverify.domain;
+
+import com.jumio.netverify.ConfigurationContext;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures grouping image file names into image triplets, i.e. matching the name pattern and classifying each image,
+ * for an image folder with many unique IDs. The file names are shuffled, as directory listings are not sorted.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ImageTripletParsingBenchmark {
+
+    @Param({"1000", "100000"})
+    private int uniqueIds;
+
+    private ConfigurationContext configuration;
+
+    private ImageNameClassifier classifier;
+
+    private List<Path> imagePaths;
+
+    @Setup
+    public void setUp() throws IOException {
+        configuration = new ConfigurationContext().load();
+        classifier = new ImageNameClassifier(configuration);
+        imagePaths = new ArrayList<>(3 * uniqueIds);
+        Random random = new Random(42);
+        for (int i = 0; i < uniqueIds; i++) {
+            String uniqueId = new UUID(random.nextLong(), random.nextLong()).toString();
+            imagePaths.add(Paths.get(configuration.getImagesFolder(), uniqueId + "_front.jpg"));
+            imagePaths.add(Paths.get(configuration.getImagesFolder(), uniqueId + "_back.jpg"));
+            imagePaths.add(Paths.get(configuration.getImagesFolder(), uniqueId + "_face.png"));
+        }
+        Collections.shuffle(imagePaths, random);
+    }
+
+    @Benchmark
+    public Map<String, ImageTriplet> appendToImageTriplets() {
+        ImageTripletRepository repository = new ImageTripletRepository(configuration);
+        Map<String, ImageTriplet> imageTriplets = new HashMap<>();
+        for (Path imagePath : imagePaths) {
+            repository.appendToImageTriplets(imagePath, imageTriplets);
+        }
+        return imageTriplets;
+    }
+
+    @Benchmark
+    public ImageTriplet update() throws DuplicateImageException, UnknownClassifierException {
+        ImageTriplet imageTriplet = new ImageTriplet("7f3c0e4a-2b1d-4c8e-9a6f-5d2e1b0c9a8f");
+        update(imageTriplet, "7f3c0e4a-2b1d-4c8e-9a6f-5d2e1b0c9a8f_front.jpg");
+        update(imageTriplet, "7f3c0e4a-2b1d-4c8e-9a6f-5d2e1b0c9a8f_back.jpg");
+        update(imageTriplet, "7f3c0e4a-2b1d-4c8e-9a6f-5d2e1b0c9a8f_face.png");
+        return imageTriplet;
+    }
+
+    private void update(ImageTriplet imageTriplet, String fileName)
+            throws DuplicateImageException, UnknownClassifierException {
+        ImageNameClassifier.ImageName imageName = classifier.parse(fileName);
+        imageTriplet.update("jumio/" + fileName, classifier.classify(imageName.getClassifier()));
+    }
+}
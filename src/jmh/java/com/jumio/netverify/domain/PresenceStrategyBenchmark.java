@@ -0,0 +1,70 @@
+/*
+ * Jumio Inc.
+ *
+ * Copyright (C) 2018
+ * All rights reserved.
+ */
+package com.jumio.netverify.domain;
+
+import com.jumio.netverify.ConfigurationContext;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures validating image triplets against a presence strategy. The image triplets have random combinations of
+ * images, so the branches are as unpredictable as in a folder of mixed uploads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PresenceStrategyBenchmark {
+
+    private static final int IMAGE_TRIPLETS = 1024;
+
+    @Param({"ID_ONLY", "ID_AND_FACE", "ID_AND_BACK", "ALL"})
+    private String strategy;
+
+    private PresenceStrategy.Validator validator;
+
+    private ImageTriplet[] imageTriplets;
+
+    @Setup
+    public void setUp() throws IOException, DuplicateImageException, UnknownClassifierException {
+        ImageNameClassifier classifier = new ImageNameClassifier(new ConfigurationContext().load());
+        validator = PresenceStrategy.build(strategy);
+        imageTriplets = new ImageTriplet[IMAGE_TRIPLETS];
+        Random random = new Random(42);
+        for (int i = 0; i < IMAGE_TRIPLETS; i++) {
+            imageTriplets[i] = new ImageTriplet(String.valueOf(i));
+            imageTriplets[i].update(i + "_front.jpg", classifier.classify("front.jpg"));
+            if (random.nextBoolean()) {
+                imageTriplets[i].update(i + "_back.jpg", classifier.classify("back.jpg"));
+            }
+            if (random.nextBoolean()) {
+                imageTriplets[i].update(i + "_face.jpg", classifier.classify("face.jpg"));
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(IMAGE_TRIPLETS)
+    public int validate() {
+        int conforming = 0;
+        for (ImageTriplet imageTriplet : imageTriplets) {
+            if (imageTriplet.conformsTo(validator)) {
+                conforming++;
+            }
+        }
+        return conforming;
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * Jumio Inc.
+ *
+ * Copyright (C) 2018
+ * All rights reserved.
+ */
+package com.jumio.netverify.metrics;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * Measures the cost of recording a span, which is paid about ten times per upload. Run with several threads to see
+ * the contention on the ring buffer index.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Threads(4)
+public class TracerBenchmark {
+
+    @Param({"false", "true"})
+    private boolean enabled;
+
+    private Tracer tracer;
+
+    @Setup
+    public void setUp() {
+        tracer = new Tracer();
+        if (enabled) {
+            tracer.enable(262144);
+        }
+    }
+
+    @Benchmark
+    public void span() {
+        tracer.span("request", "7f3c0e4a-2b1d-4c8e-9a6f-5d2e1b0c9a8f", System.nanoTime());
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Jumio Inc.
+ *
+ * Copyright (C) 2018
+ * All rights reserved.
+ */
+package com.jumio.netverify.rest;
+
+import com.jumio.netverify.ConfigurationContext;
+import com.jumio.netverify.domain.ImageTriplet;
+import com.jumio.netverify.domain.ImageTripletRepository;
+import com.jumio.netverify.journal.SubmissionJournal;
+import com.jumio.netverify.metrics.LatencyHistogram;
+import com.jumio.netverify.metrics.MetricsRegistry;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.springframework.web.client.RestTemplate;
+
+/**
+ * Drives the real upload path against a {@link NetverifyStubServer} and reports throughput and latency percentiles.
+ * <p>
+ * Generates synthetic image triplets with random content in a temporary folder and uploads them with the regular
+ * configuration. Each triplet has the images required by {@code images.presenceStrategy}. Arguments are
+ * {@code key=value} pairs. The load test options are
+ * <ul>
+ * <li>{@code triplets}: number of image triplets, default 1000,</li>
+ * <li>{@code imageSizeKb}: size of each image, default 500,</li>
+ * <li>{@code latency}: latency distribution of the stub, one of {@code CONSTANT}, {@code UNIFORM},
+ * {@code EXPONENTIAL} and {@code LOG_NORMAL}, default {@code LOG_NORMAL},</li>
+ * <li>{@code latencyMillis}: mean latency of the stub, default 100,</li>
+ * <li>{@code errorRate}: share of requests answered with HTTP 500, default 0,</li>
+ * <li>{@code throttleRate}: share of requests answered with HTTP 429, default 0.</li>
+ * </ul>
+ * All other pairs override settings of {@code config.properties}, e.g. {@code upload.concurrency=8}.
+ */
+public final class LoadTest {
+
+    private static final Map<String, String> DEFAULT_OPTIONS = new HashMap<>();
+
+    static {
+        DEFAULT_OPTIONS.put("triplets", "1000");
+        DEFAULT_OPTIONS.put("imageSizeKb", "500");
+        DEFAULT_OPTIONS.put("latency", NetverifyStubServer.LatencyDistribution.LOG_NORMAL.name());
+        DEFAULT_OPTIONS.put("latencyMillis", "100");
+        DEFAULT_OPTIONS.put("errorRate", "0");
+        DEFAULT_OPTIONS.put("throttleRate", "0");
+    }
+
+    private LoadTest() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>(DEFAULT_OPTIONS);
+        List<String> settings = new ArrayList<>();
+        for (String arg : args) {
+            String key = arg.split("=", 2)[0];
+            if (DEFAULT_OPTIONS.containsKey(key)) {
+                options.put(key, arg.substring(key.length() + 1));
+            } else {
+                settings.add(arg);
+            }
+        }
+        int triplets = Integer.parseInt(options.get("triplets"));
+        int imageSizeKb = Integer.parseInt(options.get("imageSizeKb"));
+        Path workFolder = Files.createTempDirectory("clinv-loadtest");
+        try (NetverifyStubServer stub = new NetverifyStubServer()
+                .withLatency(NetverifyStubServer.LatencyDistribution.valueOf(options.get("latency")),
+                        Double.parseDouble(options.get("latencyMillis")))
+                .withFailures(Double.parseDouble(options.get("errorRate")),
+                        Double.parseDouble(options.get("throttleRate")))) {
+            settings.add(0, "api.serverUrl=" + stub.getUrl());
+            settings.add(0, "api.token=loadtest");
+            settings.add(0, "api.secret=loadtest");
+            settings.add(0, "images.folder=" + workFolder.resolve("images"));
+            settings.add(0, "images.successFolder=" + workFolder.resolve("success"));
+            settings.add(0, "images.failureFolder=" + workFolder.resolve("failure"));
+            ConfigurationContext configuration = new ConfigurationContext().load(settings);
+            generateImages(configuration, triplets, imageSizeKb);
+
+            MetricsRegistry metrics = new MetricsRegistry();
+            if (configuration.getTraceFile() != null) {
+                metrics.getTracer().enable(configuration.getTraceBufferSize());
+            }
+            ImageTripletRepository repository = new ImageTripletRepository(configuration);
+            repository.createDirectories();
+            RestTemplate restTemplate = RestTemplateBuilder.buildRestTemplate(configuration, metrics);
+            NetverifyApiFacade facade = new NetverifyApiFacade(configuration, repository, restTemplate,
+                    SubmissionJournal.disabled(), metrics);
+            long startNanos = System.nanoTime();
+            try (Stream<ImageTriplet> imageTriplets = repository.streamAll()) {
+                facade.sendApiRequests(imageTriplets);
+            }
+            long elapsedNanos = System.nanoTime() - startNanos;
+
+            report(options, configuration, metrics, stub, elapsedNanos);
+            if (configuration.getTraceFile() != null) {
+                metrics.getTracer().export(Paths.get(configuration.getTraceFile()));
+            }
+        } finally {
+            deleteRecursively(workFolder);
+        }
+        System.exit(0);
+    }
+
+    private static void generateImages(ConfigurationContext configuration, int triplets, int imageSizeKb)
+            throws IOException {
+        Path imagesFolder = Files.createDirectories(new File(configuration.getImagesFolder()).toPath());
+        String presenceStrategy = configuration.getImagesPresenceStrategy();
+        List<String> suffixes = new ArrayList<>();
+        suffixes.add(configuration.getImagesFrontSuffix());
+        if (presenceStrategy.equals("ALL") || presenceStrategy.equals("ID_AND_BACK")) {
+            suffixes.add(configuration.getImagesBackSuffix());
+        }
+        if (presenceStrategy.equals("ALL") || presenceStrategy.equals("ID_AND_FACE")) {
+            suffixes.add(configuration.getImagesFaceSuffix());
+        }
+        byte[] image = new byte[imageSizeKb * 1024];
+        Random random = new Random(42);
+        for (int i = 0; i < triplets; i++) {
+            for (String suffix : suffixes) {
+                random.nextBytes(image);
+                String name = String.format("%08d_%s%s", i, suffix, ConfigurationContext.JPEG_IMAGE);
+                Files.write(imagesFolder.resolve(name), image);
+            }
+        }
+    }
+
+    private static void report(Map<String, String> options, ConfigurationContext configuration,
+            MetricsRegistry metrics, NetverifyStubServer stub, long elapsedNanos) {
+        double elapsedSeconds = (double) elapsedNanos / TimeUnit.SECONDS.toNanos(1);
+        long uploads = metrics.counter("uploads.succeeded").sum() + metrics.counter("uploads.failed").sum();
+        double megabytes = metrics.counter("bytes.images").sum() / (1024.0 * 1024.0);
+        LatencyHistogram latency = metrics.histogram("latency.request");
+        System.out.println();
+        System.out.println("Load test " + options + ", upload.concurrency=" + configuration.getUploadConcurrency());
+        System.out.printf("Elapsed:     %.2f s%n", elapsedSeconds);
+        System.out.printf("Throughput:  %.1f triplets/s, %.1f MB/s of images%n", uploads / elapsedSeconds,
+                megabytes / elapsedSeconds);
+        System.out.printf("Latency:     p50=%.1fms p90=%.1fms p99=%.1fms max=%.1fms%n",
+                millis(latency.getPercentileNanos(0.5)), millis(latency.getPercentileNanos(0.9)),
+                millis(latency.getPercentileNanos(0.99)), millis(latency.getMaxNanos()));
+        System.out.printf("Uploads:     %d succeeded, %d failed%n", metrics.counter("uploads.succeeded").sum(),
+                metrics.counter("uploads.failed").sum());
+        System.out.printf("Stub server: %d requests, %d accepted, %d invalid, %d errors and %d throttles injected%n",
+                stub.getRequests(), stub.getAccepted(), stub.getInvalid(), stub.getInjectedErrors(),
+                stub.getInjectedThrottles());
+        System.out.println(metrics.summary());
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+
+    private static void deleteRecursively(Path folder) throws IOException {
+        try (Stream<Path> paths = Files.walk(folder)) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Jumio Inc.
+ *
+ * Copyright (C) 2018
+ * All rights reserved.
+ */
+package com.jumio.netverify.rest;
+
+import com.google.gson.Gson;
+import com.jumio.netverify.ConfigurationContext;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Base64;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.util.MimeTypeUtils;
+
+/**
+ * Measures writing a request body with a single image at realistic image sizes.
+ * <p>
+ * {@link #streamed()} uses the converter registered by {@link RestTemplateBuilder}, which encodes the image while
+ * writing. {@link #inMemory()} is the baseline of encoding the whole image into a string and serializing the request
+ * with Gson. Both write into a stream that discards the bytes, so only the encoding and serialization are measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class RequestSerializationBenchmark {
+
+    @Param({"200", "1000", "10000"})
+    private int imageSizeKb;
+
+    private Path image;
+
+    private PerformNetverifyRequestConverter converter;
+
+    private Gson gson;
+
+    @Setup
+    public void setUp() throws IOException {
+        byte[] imageData = new byte[imageSizeKb * 1024];
+        new Random(42).nextBytes(imageData);
+        image = Files.createTempFile("benchmark", ".jpg");
+        Files.write(image, imageData);
+
+        ConfigurationContext configuration = new ConfigurationContext().load();
+        for (HttpMessageConverter<?> messageConverter :
+                RestTemplateBuilder.buildRestTemplate(configuration).getMessageConverters()) {
+            if (messageConverter instanceof PerformNetverifyRequestConverter) {
+                converter = (PerformNetverifyRequestConverter) messageConverter;
+            }
+        }
+        gson = RestTemplateBuilder.buildGson();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(image);
+    }
+
+    @Benchmark
+    public long streamed() throws IOException {
+        PerformNetverifyRequest request = buildRequest();
+        request.setFrontsideImageFile(image);
+        DiscardingOutputMessage outputMessage = new DiscardingOutputMessage();
+        converter.write(request, MediaType.APPLICATION_JSON, outputMessage);
+        return outputMessage.body.count;
+    }
+
+    @Benchmark
+    public long inMemory() throws IOException {
+        PerformNetverifyRequest request = buildRequest();
+        request.setFrontsideImage(Base64.getEncoder().encodeToString(Files.readAllBytes(image)));
+        DiscardingOutputMessage outputMessage = new DiscardingOutputMessage();
+        outputMessage.getBody().write(gson.toJson(request).getBytes(StandardCharsets.UTF_8));
+        return outputMessage.body.count;
+    }
+
+    private static PerformNetverifyRequest buildRequest() {
+        PerformNetverifyRequest request = new PerformNetverifyRequest();
+        request.setMerchantIdScanReference("7f3c0e4a-2b1d-4c8e-9a6f-5d2e1b0c9a8f");
+        request.setFrontsideImageMimeType(MimeTypeUtils.IMAGE_JPEG_VALUE);
+        request.setEnabledFields("idNumber,idFirstName,idLastName,idDob,idExpiry,idUsState,idPersonalNumber");
+        return request;
+    }
+
+    private static final class DiscardingOutputMessage implements HttpOutputMessage {
+
+        private final HttpHeaders headers = new HttpHeaders();
+
+        private final CountingOutputStream body = new CountingOutputStream();
+
+        @Override
+        public OutputStream getBody() {
+            return body;
+        }
+
+        @Override
+        public HttpHeaders getHeaders() {
+            return headers;
+        }
+    }
+
+    private static final class CountingOutputStream extends OutputStream {
+
+        private long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
@@ -6,10 +6,15 @@
  */
 package com.jumio.netverify;
 
+import com.jumio.netverify.domain.ArchiveLayout;
+import com.jumio.netverify.domain.ShardStrategy;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Paths;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Properties;
@@ -34,18 +39,64 @@ public final class ConfigurationContext {
 
     private static final String DEFAULT_PROPERTIES_FILE = "config.properties";
 
+    private static final String API_ADAPTIVE_CONCURRENCY = "api.adaptiveConcurrency";
+
     private static final String API_CALLBACK_URL = "api.callbackUrl";
 
+    private static final String API_CIRCUIT_BREAKER_FAILURE_THRESHOLD = "api.circuitBreaker.failureThreshold";
+
+    private static final String API_CIRCUIT_BREAKER_OPEN_TIME = "api.circuitBreaker.openTime";
+
+    private static final String API_COMPRESS_REQUESTS = "api.compressRequests";
+
     private static final String API_ENABLED_FIELDS = "api.enabledFields";
 
     private static final String API_MERCHANT_REPORTING_CRITERIA = "api.merchantReportingCriteria";
 
+    private static final String API_RATE_LIMIT = "api.rateLimit";
+
+    private static final String API_RETRY_BUDGET_RATIO = "api.retry.budgetRatio";
+
+    private static final String API_RETRY_INITIAL_BACKOFF = "api.retry.initialBackoff";
+
+    private static final String API_RETRY_MAX_ATTEMPTS = "api.retry.maxAttempts";
+
+    private static final String API_RETRY_MAX_BACKOFF = "api.retry.maxBackoff";
+
     private static final String API_SECRET = "api.secret";
 
     private static final String API_SERVER_URL = "api.serverUrl";
 
     private static final String API_TOKEN = "api.token";
 
+    private static final String CLAIM_ENABLED = "claim.enabled";
+
+    private static final String CLAIM_FOLDER = "claim.folder";
+
+    private static final String CLAIM_INSTANCE_ID = "claim.instanceId";
+
+    private static final String CLAIM_LEASE_TIME = "claim.leaseTime";
+
+    private static final String DEDUP_INDEX_FILE = "dedup.indexFile";
+
+    private static final String HTTP_CONNECT_TIMEOUT = "http.connectTimeout";
+
+    private static final String HTTP_CONNECTION_REQUEST_TIMEOUT = "http.connectionRequestTimeout";
+
+    private static final String HTTP_IDLE_CONNECTION_TIMEOUT = "http.idleConnectionTimeout";
+
+    private static final String HTTP_KEEP_ALIVE_TIMEOUT = "http.keepAliveTimeout";
+
+    private static final String HTTP_MAX_CONNECTIONS = "http.maxConnections";
+
+    private static final String HTTP_MAX_CONNECTIONS_PER_ROUTE = "http.maxConnectionsPerRoute";
+
+    private static final String HTTP_READ_TIMEOUT = "http.readTimeout";
+
+    private static final String IMAGES_ARCHIVE_HASH_PREFIX_LENGTH = "images.archiveHashPrefixLength";
+
+    private static final String IMAGES_ARCHIVE_LAYOUT = "images.archiveLayout";
+
     private static final String IMAGES_BACK_SUFFIX = "images.backSuffix";
 
     private static final String IMAGES_FACE_SUFFIX = "images.faceSuffix";
@@ -60,8 +111,58 @@ public final class ConfigurationContext {
 
     private static final String IMAGES_PRESENCE_STRATEGY = "images.presenceStrategy";
 
+    private static final String IMAGES_SCAN_CACHE_FILE = "images.scanCacheFile";
+
+    private static final String IMAGES_STREAMING_SCAN = "images.streamingScan";
+
     private static final String IMAGES_SUCCESS_FOLDER = "images.successFolder";
 
+    private static final String IMAGES_TRANSFORM_ENABLED = "images.transform.enabled";
+
+    private static final String IMAGES_TRANSFORM_JPEG_QUALITY = "images.transform.jpegQuality";
+
+    private static final String IMAGES_TRANSFORM_MAX_BYTES = "images.transform.maxBytes";
+
+    private static final String IMAGES_TRANSFORM_MAX_DIMENSION = "images.transform.maxDimension";
+
+    private static final String JOURNAL_FILE = "journal.file";
+
+    private static final String JOURNAL_RESUME = "journal.resume";
+
+    private static final String JOURNAL_SYNC_EVERY = "journal.syncEvery";
+
+    private static final String MANIFEST_FILE = "manifest.file";
+
+    private static final String METRICS_REPORT_INTERVAL = "metrics.reportInterval";
+
+    private static final String MOVER_BATCH_SIZE = "mover.batchSize";
+
+    private static final String MOVER_QUEUE_CAPACITY = "mover.queueCapacity";
+
+    private static final String PIPELINE_MAX_BYTES_IN_FLIGHT = "pipeline.maxBytesInFlight";
+
+    private static final String PIPELINE_PREPARE_THREADS = "pipeline.prepareThreads";
+
+    private static final String PIPELINE_QUEUE_CAPACITY = "pipeline.queueCapacity";
+
+    private static final String SHARD_COUNT = "shard.count";
+
+    private static final String SHARD_INDEX = "shard.index";
+
+    private static final String SHARD_STRATEGY = "shard.strategy";
+
+    private static final String TRACE_BUFFER_SIZE = "trace.bufferSize";
+
+    private static final String TRACE_FILE = "trace.file";
+
+    private static final String UPLOAD_CONCURRENCY = "upload.concurrency";
+
+    private static final String WATCH_ENABLED = "watch.enabled";
+
+    private static final String WATCH_RECONCILE_INTERVAL = "watch.reconcileInterval";
+
+    private static final String WATCH_SETTLE_TIME = "watch.settleTime";
+
     private Properties properties;
 
     public ConfigurationContext() {
@@ -145,10 +246,56 @@ public final class ConfigurationContext {
         return nullIfNoText(properties.getProperty(IMAGES_PRESENCE_STRATEGY));
     }
 
+    public String getImagesScanCacheFile() {
+        return nullIfNoText(properties.getProperty(IMAGES_SCAN_CACHE_FILE));
+    }
+
+    public boolean isImagesStreamingScan() {
+        return booleanValue(IMAGES_STREAMING_SCAN, false);
+    }
+
+    public ArchiveLayout getImagesArchiveLayout() {
+        String configurationValue = nullIfNoText(properties.getProperty(IMAGES_ARCHIVE_LAYOUT));
+        if (configurationValue == null) {
+            return ArchiveLayout.FLAT;
+        }
+        try {
+            return ArchiveLayout.valueOf(configurationValue.trim());
+        } catch (IllegalArgumentException iae) {
+            logger.warn("Invalid value: {} for setting: {}. Using default: {}", configurationValue,
+                    IMAGES_ARCHIVE_LAYOUT, ArchiveLayout.FLAT);
+            return ArchiveLayout.FLAT;
+        }
+    }
+
+    public int getImagesArchiveHashPrefixLength() {
+        return intValue(IMAGES_ARCHIVE_HASH_PREFIX_LENGTH, 2);
+    }
+
+    public boolean isImagesTransformEnabled() {
+        return booleanValue(IMAGES_TRANSFORM_ENABLED, false);
+    }
+
+    public int getImagesTransformMaxDimension() {
+        return intValue(IMAGES_TRANSFORM_MAX_DIMENSION, 2500);
+    }
+
+    public int getImagesTransformMaxBytes() {
+        return intValue(IMAGES_TRANSFORM_MAX_BYTES, 2000000);
+    }
+
+    public double getImagesTransformJpegQuality() {
+        return doubleValue(IMAGES_TRANSFORM_JPEG_QUALITY, 0.85);
+    }
+
     public String getApiCallbackUrl() {
         return nullIfNoText(properties.getProperty(API_CALLBACK_URL));
     }
 
+    public boolean isApiCompressRequests() {
+        return booleanValue(API_COMPRESS_REQUESTS, false);
+    }
+
     public String getApiEnabledFields() {
         return nullIfNoText(properties.getProperty(API_ENABLED_FIELDS));
     }
@@ -161,6 +308,38 @@ public final class ConfigurationContext {
         return nullIfNoText(properties.getProperty(API_MERCHANT_REPORTING_CRITERIA));
     }
 
+    public double getApiRateLimit() {
+        return doubleValue(API_RATE_LIMIT, 0);
+    }
+
+    public boolean isApiAdaptiveConcurrency() {
+        return booleanValue(API_ADAPTIVE_CONCURRENCY, true);
+    }
+
+    public int getApiRetryMaxAttempts() {
+        return intValue(API_RETRY_MAX_ATTEMPTS, 5);
+    }
+
+    public int getApiRetryInitialBackoff() {
+        return intValue(API_RETRY_INITIAL_BACKOFF, 500);
+    }
+
+    public int getApiRetryMaxBackoff() {
+        return intValue(API_RETRY_MAX_BACKOFF, 30000);
+    }
+
+    public double getApiRetryBudgetRatio() {
+        return doubleValue(API_RETRY_BUDGET_RATIO, 0.2);
+    }
+
+    public int getApiCircuitBreakerFailureThreshold() {
+        return intValue(API_CIRCUIT_BREAKER_FAILURE_THRESHOLD, 10);
+    }
+
+    public int getApiCircuitBreakerOpenTime() {
+        return intValue(API_CIRCUIT_BREAKER_OPEN_TIME, 30000);
+    }
+
     public String getApiToken() {
         return nullIfNoText(properties.getProperty(API_TOKEN));
     }
@@ -169,6 +348,202 @@ public final class ConfigurationContext {
         return nullIfNoText(properties.getProperty(API_SECRET));
     }
 
+    public int getHttpMaxConnections() {
+        return intValue(HTTP_MAX_CONNECTIONS, 20);
+    }
+
+    public int getHttpMaxConnectionsPerRoute() {
+        return intValue(HTTP_MAX_CONNECTIONS_PER_ROUTE, 20);
+    }
+
+    public int getHttpConnectTimeout() {
+        return intValue(HTTP_CONNECT_TIMEOUT, 10000);
+    }
+
+    public int getHttpReadTimeout() {
+        return intValue(HTTP_READ_TIMEOUT, 60000);
+    }
+
+    public int getHttpConnectionRequestTimeout() {
+        return intValue(HTTP_CONNECTION_REQUEST_TIMEOUT, 30000);
+    }
+
+    public int getHttpKeepAliveTimeout() {
+        return intValue(HTTP_KEEP_ALIVE_TIMEOUT, 30000);
+    }
+
+    public int getHttpIdleConnectionTimeout() {
+        return intValue(HTTP_IDLE_CONNECTION_TIMEOUT, 30000);
+    }
+
+    public int getUploadConcurrency() {
+        return intValue(UPLOAD_CONCURRENCY, 1);
+    }
+
+    public String getJournalFile() {
+        return nullIfNoText(properties.getProperty(JOURNAL_FILE));
+    }
+
+    public boolean isJournalResume() {
+        return booleanValue(JOURNAL_RESUME, false);
+    }
+
+    public int getJournalSyncEvery() {
+        return intValue(JOURNAL_SYNC_EVERY, 100);
+    }
+
+    public String getDedupIndexFile() {
+        return nullIfNoText(properties.getProperty(DEDUP_INDEX_FILE));
+    }
+
+    public String getManifestFile() {
+        return nullIfNoText(properties.getProperty(MANIFEST_FILE));
+    }
+
+    public int getMetricsReportInterval() {
+        return intValue(METRICS_REPORT_INTERVAL, 0);
+    }
+
+    public String getTraceFile() {
+        return nullIfNoText(properties.getProperty(TRACE_FILE));
+    }
+
+    public int getTraceBufferSize() {
+        return intValue(TRACE_BUFFER_SIZE, 262144);
+    }
+
+    public int getPipelinePrepareThreads() {
+        return intValue(PIPELINE_PREPARE_THREADS, Runtime.getRuntime().availableProcessors());
+    }
+
+    public int getPipelineQueueCapacity() {
+        return intValue(PIPELINE_QUEUE_CAPACITY, 2 * Math.max(1, getUploadConcurrency()));
+    }
+
+    public long getPipelineMaxBytesInFlight() {
+        return longValue(PIPELINE_MAX_BYTES_IN_FLIGHT, Runtime.getRuntime().maxMemory() / 4);
+    }
+
+    public int getMoverQueueCapacity() {
+        return intValue(MOVER_QUEUE_CAPACITY, 1000);
+    }
+
+    public int getMoverBatchSize() {
+        return intValue(MOVER_BATCH_SIZE, 100);
+    }
+
+    public int getShardIndex() {
+        return intValue(SHARD_INDEX, 0);
+    }
+
+    public int getShardCount() {
+        return intValue(SHARD_COUNT, 1);
+    }
+
+    /**
+     * Unlike most settings, an invalid shard strategy doesn't fall back to the default. Instances disagreeing on the
+     * strategy would submit some image triplets twice and others never.
+     *
+     * @return See above.
+     * @throws IllegalArgumentException If the value is not a shard strategy.
+     */
+    public ShardStrategy getShardStrategy() {
+        String configurationValue = nullIfNoText(properties.getProperty(SHARD_STRATEGY));
+        if (configurationValue == null) {
+            return ShardStrategy.MODULO;
+        }
+        try {
+            return ShardStrategy.valueOf(configurationValue.trim());
+        } catch (IllegalArgumentException iae) {
+            throw new IllegalArgumentException("Invalid value: " + configurationValue + " for setting: " +
+                    SHARD_STRATEGY + ". Possible values are: " + Arrays.toString(ShardStrategy.values()), iae);
+        }
+    }
+
+    public boolean isClaimEnabled() {
+        return booleanValue(CLAIM_ENABLED, false);
+    }
+
+    public String getClaimFolder() {
+        String configurationValue = nullIfNoText(properties.getProperty(CLAIM_FOLDER));
+        if (configurationValue != null || getImagesFolder() == null) {
+            return configurationValue;
+        }
+        return Paths.get(getImagesFolder(), "claimed").toString();
+    }
+
+    /**
+     * @return The configured instance ID or the process ID and host name, with all characters that may not be safe
+     * in a directory name replaced.
+     */
+    public String getClaimInstanceId() {
+        String configurationValue = nullIfNoText(properties.getProperty(CLAIM_INSTANCE_ID));
+        if (configurationValue == null) {
+            configurationValue = ManagementFactory.getRuntimeMXBean().getName();
+        }
+        return configurationValue.trim().replaceAll("[^A-Za-z0-9._-]", "_");
+    }
+
+    public int getClaimLeaseTime() {
+        return intValue(CLAIM_LEASE_TIME, 60000);
+    }
+
+    public boolean isWatchEnabled() {
+        return booleanValue(WATCH_ENABLED, false);
+    }
+
+    public int getWatchSettleTime() {
+        return intValue(WATCH_SETTLE_TIME, 2000);
+    }
+
+    public int getWatchReconcileInterval() {
+        return intValue(WATCH_RECONCILE_INTERVAL, 60000);
+    }
+
+    private boolean booleanValue(String key, boolean defaultValue) {
+        String configurationValue = nullIfNoText(properties.getProperty(key));
+        return configurationValue == null ? defaultValue : Boolean.parseBoolean(configurationValue.trim());
+    }
+
+    private int intValue(String key, int defaultValue) {
+        String configurationValue = nullIfNoText(properties.getProperty(key));
+        if (configurationValue == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(configurationValue.trim());
+        } catch (NumberFormatException nfe) {
+            logger.warn("Invalid value: {} for setting: {}. Using default: {}", configurationValue, key, defaultValue);
+            return defaultValue;
+        }
+    }
+
+    private long longValue(String key, long defaultValue) {
+        String configurationValue = nullIfNoText(properties.getProperty(key));
+        if (configurationValue == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(configurationValue.trim());
+        } catch (NumberFormatException nfe) {
+            logger.warn("Invalid value: {} for setting: {}. Using default: {}", configurationValue, key, defaultValue);
+            return defaultValue;
+        }
+    }
+
+    private double doubleValue(String key, double defaultValue) {
+        String configurationValue = nullIfNoText(properties.getProperty(key));
+        if (configurationValue == null) {
+            return defaultValue;
+        }
+        try {
+            return Double.parseDouble(configurationValue.trim());
+        } catch (NumberFormatException nfe) {
+            logger.warn("Invalid value: {} for setting: {}. Using default: {}", configurationValue, key, defaultValue);
+            return defaultValue;
+        }
+    }
+
     private String nullIfNoText(String configurationValue) {
         return StringUtils.hasText(configurationValue) ? configurationValue : null;
     }
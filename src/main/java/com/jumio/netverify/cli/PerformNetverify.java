@@ -7,16 +7,25 @@
 package com.jumio.netverify.cli;
 
 import com.jumio.netverify.ConfigurationContext;
+import com.jumio.netverify.domain.ClaimLease;
+import com.jumio.netverify.domain.ImageFolderWatcher;
 import com.jumio.netverify.domain.ImageTriplet;
 import com.jumio.netverify.domain.ImageTripletRepository;
+import com.jumio.netverify.journal.ContentIndex;
+import com.jumio.netverify.journal.SubmissionJournal;
+import com.jumio.netverify.metrics.MetricsRegistry;
 import com.jumio.netverify.rest.NetverifyApiFacade;
 import com.jumio.netverify.rest.RestTemplateBuilder;
 import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.util.StringUtils;
 import org.springframework.web.client.RestTemplate;
 
@@ -27,21 +36,104 @@ final class PerformNetverify {
 
     private static final Logger logger = LoggerFactory.getLogger(PerformNetverify.class);
 
+    private static final String RESUME_FLAG = "--resume";
+
+    private static final String WATCH_FLAG = "--watch";
+
     public static void main(String[] args) {
         // Load the configuration
-        ConfigurationContext configuration = loadConfiguration(Arrays.asList(args), new ConfigurationContext());
+        ConfigurationContext configuration = loadConfiguration(parseArguments(args), new ConfigurationContext());
         verifyApiCredentialsPresent(configuration);
 
         // Create destination folders
-        ImageTripletRepository repository = new ImageTripletRepository(configuration);
+        ImageTripletRepository repository = createRepository(configuration);
         createRequiredDirectories(repository);
 
-        // Find image triplets in the image folder
-        List<ImageTriplet> imageTriplets = loadImages(repository);
+        MetricsRegistry metrics = new MetricsRegistry();
+        metrics.startReporting(configuration.getMetricsReportInterval());
+        if (configuration.getTraceFile() != null) {
+            metrics.getTracer().enable(configuration.getTraceBufferSize());
+        }
+        RestTemplate restTemplate = RestTemplateBuilder.buildRestTemplate(configuration, metrics);
+        try (SubmissionJournal journal = openJournal(configuration);
+             ContentIndex contentIndex = openContentIndex(configuration);
+             ClaimLease claimLease = openClaimLease(configuration, repository)) {
+            NetverifyApiFacade facade = new NetverifyApiFacade(configuration, repository, restTemplate, journal,
+                    contentIndex, metrics);
+            if (configuration.getManifestFile() != null) {
+                // Send requests to the API for the image triplets listed in the manifest
+                try (Stream<ImageTriplet> imageTriplets = streamManifest(repository)) {
+                    facade.sendApiRequests(imageTriplets);
+                }
+            } else if (configuration.isWatchEnabled()) {
+                // Send requests to the API whenever new images arrive, until the tool is stopped
+                watchImages(configuration, repository, facade);
+            } else if (configuration.isImagesStreamingScan()) {
+                // Send requests to the API while the image folder is being scanned
+                try (Stream<ImageTriplet> imageTriplets = streamImages(repository)) {
+                    facade.sendApiRequests(imageTriplets);
+                }
+            } else {
+                // Find image triplets in the image folder
+                List<ImageTriplet> imageTriplets = loadImages(repository);
+
+                // Send requests to the API
+                facade.sendApiRequests(imageTriplets);
+            }
+        } catch (IOException ioe) {
+            logger.error("Error closing journal, content index or claim lease: {}", ioe.getMessage());
+        } finally {
+            closeConnections(restTemplate);
+            metrics.close();
+            logger.info(metrics.summary());
+            exportTrace(configuration, metrics);
+        }
+    }
 
-        // Send requests to the API
-        RestTemplate restTemplate = RestTemplateBuilder.buildRestTemplate(configuration);
-        new NetverifyApiFacade(configuration, repository, restTemplate).sendApiRequests(imageTriplets);
+    /**
+     * Closes the pooled HTTP connections of the REST template.
+     *
+     * @param restTemplate The REST template built for this run.
+     */
+    static void closeConnections(RestTemplate restTemplate) {
+        if (restTemplate.getRequestFactory() instanceof DisposableBean) {
+            try {
+                ((DisposableBean) restTemplate.getRequestFactory()).destroy();
+            } catch (Exception e) {
+                logger.warn("Error closing HTTP connections: {}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Writes the recorded spans to the configured trace file, if any.
+     *
+     * @param configuration The configuration context providing the trace file.
+     * @param metrics The metrics registry holding the tracer.
+     */
+    static void exportTrace(ConfigurationContext configuration, MetricsRegistry metrics) {
+        if (configuration.getTraceFile() == null) {
+            return;
+        }
+        try {
+            metrics.getTracer().export(Paths.get(configuration.getTraceFile()));
+        } catch (IOException ioe) {
+            logger.error("Error writing trace: {}", ioe.getMessage());
+        }
+    }
+
+    /**
+     * Translates CLI flags into property values. {@code --resume} is short for {@code journal.resume=true},
+     * {@code --watch} for {@code watch.enabled=true}.
+     *
+     * @param args The raw CLI arguments.
+     * @return A list of property values.
+     */
+    static List<String> parseArguments(String[] args) {
+        return Arrays.stream(args)
+                .map(arg -> RESUME_FLAG.equals(arg) ? "journal.resume=true" : arg)
+                .map(arg -> WATCH_FLAG.equals(arg) ? "watch.enabled=true" : arg)
+                .collect(Collectors.toList());
     }
 
     /**
@@ -76,6 +168,22 @@ final class PerformNetverify {
         }
     }
 
+    /**
+     * Creates the image repository. In case of invalid image or shard settings, the application exits.
+     *
+     * @param configuration The configuration context providing the image and shard settings.
+     * @return The image repository.
+     */
+    static ImageTripletRepository createRepository(ConfigurationContext configuration) {
+        try {
+            return new ImageTripletRepository(configuration);
+        } catch (IllegalArgumentException iae) {
+            logger.error("Invalid configuration: {}", iae.getMessage());
+            System.exit(255);
+            return null;
+        }
+    }
+
     /**
      * Creates directories (e.g. for failed API request) required during the lifetime of the CLI tool. In case of an I/O
      * error, the application exits.
@@ -91,6 +199,91 @@ final class PerformNetverify {
         }
     }
 
+    /**
+     * Opens the submission journal, loading previous submissions when resuming. In case of an I/O error, the
+     * application exits.
+     *
+     * @param configuration The configuration context providing the journal settings.
+     * @return An open submission journal.
+     */
+    static SubmissionJournal openJournal(ConfigurationContext configuration) {
+        try {
+            return SubmissionJournal.open(configuration);
+        } catch (IOException ioe) {
+            logger.error("Error opening journal: {}", ioe.getMessage());
+            System.exit(255);
+        }
+        return SubmissionJournal.disabled();
+    }
+
+    /**
+     * Opens the content index, loading the records of earlier submissions. In case of an I/O error, the application
+     * exits.
+     *
+     * @param configuration The configuration context providing the index settings.
+     * @return An open content index.
+     */
+    static ContentIndex openContentIndex(ConfigurationContext configuration) {
+        try {
+            return ContentIndex.open(configuration);
+        } catch (IOException ioe) {
+            logger.error("Error opening content index: {}", ioe.getMessage());
+            System.exit(255);
+        }
+        return ContentIndex.disabled();
+    }
+
+    /**
+     * Takes the lease on this instance's claim directory, if claiming is enabled. In case of an I/O error, the
+     * application exits.
+     *
+     * @param configuration The configuration context providing the claim settings.
+     * @param repository The image repository claiming the image triplets.
+     * @return The lease, or {@code null} if claiming is disabled.
+     */
+    static ClaimLease openClaimLease(ConfigurationContext configuration, ImageTripletRepository repository) {
+        if (!configuration.isClaimEnabled()) {
+            return null;
+        }
+        try {
+            return new ClaimLease(configuration, repository);
+        } catch (IOException ioe) {
+            logger.error("Error opening claim directory: {}", ioe.getMessage());
+            System.exit(255);
+        }
+        return null;
+    }
+
+    /**
+     * Watches the images folder until the JVM is shut down, e.g. by Ctrl+C. All image triplets are queued into one
+     * upload session, so the pipeline isn't started again for every batch. The shutdown waits until the queued
+     * requests are completed. In case of an I/O error, the application exits.
+     *
+     * @param configuration The configuration context providing the watch settings.
+     * @param repository The image repository that parses the images.
+     * @param facade The facade sending the requests.
+     */
+    static void watchImages(ConfigurationContext configuration, ImageTripletRepository repository,
+            NetverifyApiFacade facade) {
+        ImageFolderWatcher watcher = new ImageFolderWatcher(configuration, repository);
+        Thread watchingThread = Thread.currentThread();
+        Thread shutdownHook = new Thread(() -> {
+            try {
+                watcher.close();
+                watchingThread.join();
+            } catch (IOException | InterruptedException e) {
+                logger.error("Error stopping to watch images: {}", e.getMessage());
+            }
+        });
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+        try (NetverifyApiFacade.UploadSession session = facade.openSession()) {
+            watcher.run(imageTriplets -> imageTriplets.forEach(session::submit));
+        } catch (IOException ioe) {
+            logger.error("Error watching {}", ioe.getMessage());
+            System.exit(255);
+        }
+    }
+
     /**
      * Tries to open the required images folder. In case of an I/O error, the application exits.
      *
@@ -106,4 +299,36 @@ final class PerformNetverify {
         }
         return Collections.emptyList();
     }
+
+    /**
+     * Tries to open the configured manifest. In case of an I/O error, the application exits.
+     *
+     * @param repository The image repository that reads the manifest.
+     * @return A stream of image triplets from the manifest, which has to be closed after use.
+     */
+    static Stream<ImageTriplet> streamManifest(ImageTripletRepository repository) {
+        try {
+            return repository.streamManifest();
+        } catch (IOException ioe) {
+            logger.error("Error opening manifest {}", ioe.getMessage());
+            System.exit(255);
+        }
+        return Stream.empty();
+    }
+
+    /**
+     * Tries to open the required images folder for a streaming scan. In case of an I/O error, the application exits.
+     *
+     * @param repository The image repository that loads the images.
+     * @return A stream of image triplets from the images folder, which has to be closed after use.
+     */
+    static Stream<ImageTriplet> streamImages(ImageTripletRepository repository) {
+        try {
+            return repository.streamAll();
+        } catch (IOException ioe) {
+            logger.error("Error opening {}", ioe.getMessage());
+            System.exit(255);
+        }
+        return Stream.empty();
+    }
 }
@@ -0,0 +1,73 @@
+/*
+ * Jumio Inc.
+ *
+ * Copyright (C) 2018
+ * All rights reserved.
+ */
+package com.jumio.netverify.domain;
+
+import com.jumio.netverify.util.Hashing;
+import java.nio.file.Path;
+import java.time.LocalDate;
+
+/**
+ * Layout of the success and failure folders.
+ * <p>
+ * Partitioned layouts keep the number of entries per directory bounded, so moving images and listing the folders
+ * doesn't get slower as the archive grows. The hash partition is derived from the unique image triplet ID, so all
+ * images of a triplet end up in the same directory.
+ */
+public enum ArchiveLayout {
+
+    /**
+     * All images directly in the destination folder, e.g. {@code success/}.
+     */
+    FLAT(false, false),
+
+    /**
+     * One directory per day, e.g. {@code success/2018/03/28/}.
+     */
+    DATE(true, false),
+
+    /**
+     * A fixed number of directories selected by a hash, e.g. {@code success/a7/}.
+     */
+    HASH(false, true),
+
+    /**
+     * Hash directories within day directories, e.g. {@code success/2018/03/28/a7/}.
+     */
+    DATE_HASH(true, true);
+
+    private final boolean byDate;
+
+    private final boolean byHash;
+
+    ArchiveLayout(boolean byDate, boolean byHash) {
+        this.byDate = byDate;
+        this.byHash = byHash;
+    }
+
+    /**
+     * Resolves the directory an image triplet is moved to.
+     *
+     * @param destination The success or failure folder.
+     * @param uniqueId The unique image triplet ID.
+     * @param date The date of the move.
+     * @param hashPrefixLength The number of hexadecimal digits of the hash directory names, between 1 and 16.
+     * @return The destination folder itself or a directory below it.
+     */
+    public Path resolve(Path destination, String uniqueId, LocalDate date, int hashPrefixLength) {
+        Path directory = destination;
+        if (byDate) {
+            directory = directory.resolve(String.format("%04d", date.getYear()))
+                    .resolve(String.format("%02d", date.getMonthValue()))
+                    .resolve(String.format("%02d", date.getDayOfMonth()));
+        }
+        if (byHash) {
+            String hash = String.format("%016x", Hashing.hash64(uniqueId));
+            directory = directory.resolve(hash.substring(0, Math.min(16, Math.max(1, hashPrefixLength))));
+        }
+        return directory;
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Jumio Inc.
+ *
+ * Copyright (C) 2018
+ * All rights reserved.
+ */
+package com.jumio.netverify.domain;
+
+import com.jumio.netverify.ConfigurationContext;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.Assert;
+
+/**
+ * Holds this instance's lease on its claim directory while image triplets are claimed, see
+ * {@link ImageTripletRepository#claim(ImageTriplet)}.
+ * <p>
+ * When opened, images left in the claim directory by a previous run with the same instance ID and images of instances
+ * whose lease expired are returned to the image folder. A background thread then renews the lease three times per
+ * {@code claim.leaseTime} and keeps returning the images of expired instances, so a long running instance picks up
+ * the work of instances that died in the meantime.
+ */
+public final class ClaimLease implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(ClaimLease.class);
+
+    private final ImageTripletRepository repository;
+
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * @param configuration The configuration context providing the claim settings.
+     * @param repository The image repository claiming the image triplets.
+     */
+    public ClaimLease(ConfigurationContext configuration, ImageTripletRepository repository) throws IOException {
+        Assert.notNull(configuration, "Configuration context cannot be null!");
+        Assert.notNull(repository, "Image repository cannot be null!");
+        this.repository = repository;
+        repository.requeueOwnClaims();
+        repository.renewLease();
+        repository.requeueStaleClaims();
+        long renewInterval = Math.max(1, configuration.getClaimLeaseTime() / 3);
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "claim-lease");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::renew, renewInterval, renewInterval, TimeUnit.MILLISECONDS);
+        logger.info("Claiming image triplets as instance {}", configuration.getClaimInstanceId());
+    }
+
+    private void renew() {
+        try {
+            repository.renewLease();
+            repository.requeueStaleClaims();
+        } catch (IOException | RuntimeException e) {
+            logger.error("Error renewing claim lease: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Stops renewing the lease and releases it. Has to be called after all claimed image triplets have been moved.
+     */
+    @Override
+    public void close() throws IOException {
+        scheduler.shutdownNow();
+        try {
+            scheduler.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+        repository.releaseLease();
+    }
+}
@@ -0,0 +1,271 @@
+/*
+ * Jumio Inc.
+ *
+ * Copyright (C) 2018
+ * All rights reserved.
+ */
+package com.jumio.netverify.domain;
+
+import com.jumio.netverify.ConfigurationContext;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.Assert;
+
+/**
+ * Watches the image folder and hands off image triplets as soon as they are complete.
+ * <p>
+ * New and modified images are reported by a {@link WatchService}. An image triplet is handed off once none of its
+ * images has changed for {@code watch.settleTime} milliseconds and it conforms to the presence strategy, so images
+ * still being copied are not sent. An image triplet that doesn't conform once it has settled is reported and dropped
+ * from memory. When another image with its ID arrives, all images with that ID are checked again. The same applies to
+ * image triplets skipped because of an invalid image.
+ * <p>
+ * As file system events are not reliable on every file system (e.g. NFS), the whole folder is scanned again every
+ * {@code watch.reconcileInterval} milliseconds and after an event overflow. Images seen before are recognized by their
+ * path, so images that could not be moved away after their upload are not sent twice. Image triplets waiting for
+ * images that have been removed in the meantime are dropped, their remaining images are checked again.
+ * <p>
+ * Between events the watching thread is blocked, so an idle watcher doesn't use any CPU.
+ */
+public final class ImageFolderWatcher implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(ImageFolderWatcher.class);
+
+    private final ImageTripletRepository repository;
+
+    private final Path imagesFolder;
+
+    private final PathMatcher imageMatcher;
+
+    private final PresenceStrategy.Validator presenceStrategy;
+
+    private final long settleNanos;
+
+    private final long reconcileNanos;
+
+    private final Map<String, ImageTriplet> pendingImageTriplets = new HashMap<>();
+
+    private final Map<String, Long> lastChangeNanos = new HashMap<>();
+
+    private final Map<Path, String> knownImages = new HashMap<>();
+
+    private final Set<String> droppedUniqueIds = new HashSet<>();
+
+    private boolean reconcileRequested;
+
+    private volatile WatchService watchService;
+
+    private volatile boolean closed;
+
+    public ImageFolderWatcher(ConfigurationContext configuration, ImageTripletRepository repository) {
+        Assert.notNull(configuration, "Configuration context cannot be null!");
+        Assert.notNull(repository, "Image repository cannot be null!");
+        this.repository = repository;
+        imagesFolder = Paths.get(configuration.getImagesFolder());
+        imageMatcher = FileSystems.getDefault().getPathMatcher("glob:*.{jpg,png}");
+        presenceStrategy = PresenceStrategy.build(configuration.getImagesPresenceStrategy());
+        settleNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, configuration.getWatchSettleTime()));
+        reconcileNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1000, configuration.getWatchReconcileInterval()));
+    }
+
+    /**
+     * Watches the image folder until {@link #close()} is called or the thread is interrupted. Image triplets found
+     * before are handed off after the initial scan.
+     *
+     * @param consumer Receives each batch of complete image triplets on the watching thread. No events are processed
+     * meanwhile, so the consumer should only queue the image triplets. Their images are expected to be moved out of
+     * the image folder eventually, images seen before are not handed off again while they are still there.
+     */
+    public void run(Consumer<List<ImageTriplet>> consumer) throws IOException {
+        try (WatchService service = imagesFolder.getFileSystem().newWatchService()) {
+            watchService = service;
+            if (closed) {
+                return;
+            }
+            imagesFolder.register(service, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+            logger.info("Watching {} for new images", imagesFolder);
+            reconcile();
+            long nextReconcileNanos = System.nanoTime() + reconcileNanos;
+            while (!closed) {
+                List<ImageTriplet> settledImageTriplets = collectSettledImageTriplets();
+                if (!settledImageTriplets.isEmpty()) {
+                    consumer.accept(settledImageTriplets);
+                }
+                long now = System.nanoTime();
+                if (reconcileRequested || now - nextReconcileNanos >= 0) {
+                    reconcile();
+                    nextReconcileNanos = now + reconcileNanos;
+                }
+                WatchKey key = reconcileRequested ? service.poll() :
+                        service.poll(timeoutNanos(now, nextReconcileNanos), TimeUnit.NANOSECONDS);
+                if (key != null) {
+                    processEvents(key);
+                }
+            }
+        } catch (ClosedWatchServiceException e) {
+            // Closed by another thread
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+        logger.info("Stopped watching {}", imagesFolder);
+    }
+
+    /**
+     * Stops watching. Can be called from any thread, a batch being handed off is completed first.
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        WatchService service = watchService;
+        if (service != null) {
+            service.close();
+        }
+    }
+
+    private void processEvents(WatchKey key) {
+        boolean overflow = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                overflow = true;
+                continue;
+            }
+            Path imagePath = imagesFolder.resolve((Path) event.context());
+            if (imageMatcher.matches(imagePath.getFileName())) {
+                onImageChanged(imagePath, event.kind() == StandardWatchEventKinds.ENTRY_CREATE);
+            }
+        }
+        key.reset();
+        if (overflow) {
+            logger.warn("Missed file system events in {}. Scanning the whole folder.", imagesFolder);
+            reconcile();
+        }
+    }
+
+    private void onImageChanged(Path imagePath, boolean created) {
+        String uniqueId = knownImages.get(imagePath);
+        if (uniqueId != null && pendingImageTriplets.containsKey(uniqueId)) {
+            lastChangeNanos.put(uniqueId, System.nanoTime());
+            return;
+        }
+        if (created || !knownImages.containsKey(imagePath)) {
+            uniqueId = repository.parseUniqueId(imagePath);
+            if (uniqueId != null && (droppedUniqueIds.contains(uniqueId) || repository.isInvalidUniqueId(uniqueId))) {
+                logger.info("New image {} with skipped ID {}. Checking all of its images again.", imagePath, uniqueId);
+                forget(Collections.singleton(uniqueId));
+                reconcileRequested = true;
+            }
+            ImageTriplet imageTriplet = repository.appendToImageTriplets(imagePath, pendingImageTriplets);
+            knownImages.put(imagePath, uniqueId);
+            if (imageTriplet != null) {
+                lastChangeNanos.put(imageTriplet.getUniqueId(), System.nanoTime());
+            }
+        }
+    }
+
+    /**
+     * Scans the whole image folder for images missed by the watch service and forgets images that are gone. Image
+     * triplets that are waiting or skipped are dropped if one of their images is gone, their remaining images are
+     * picked up again by the scan.
+     */
+    private void reconcile() {
+        reconcileRequested = false;
+        Set<String> changedUniqueIds = new HashSet<>();
+        Iterator<Map.Entry<Path, String>> images = knownImages.entrySet().iterator();
+        while (images.hasNext()) {
+            Map.Entry<Path, String> image = images.next();
+            if (!Files.exists(image.getKey())) {
+                images.remove();
+                String uniqueId = image.getValue();
+                if (uniqueId != null && (pendingImageTriplets.containsKey(uniqueId) ||
+                        droppedUniqueIds.contains(uniqueId) || repository.isInvalidUniqueId(uniqueId))) {
+                    changedUniqueIds.add(uniqueId);
+                }
+            }
+        }
+        if (!changedUniqueIds.isEmpty()) {
+            logger.info("Images of {} waiting or skipped IDs are gone. Checking their other images again.",
+                    changedUniqueIds.size());
+            forget(changedUniqueIds);
+        }
+        try (DirectoryStream<Path> imagePaths = repository.newImageDirectoryStream()) {
+            for (Path imagePath : imagePaths) {
+                if (!knownImages.containsKey(imagePath)) {
+                    onImageChanged(imagePath, true);
+                }
+            }
+        } catch (IOException | DirectoryIteratorException e) {
+            logger.error("Error scanning {}: {}", imagesFolder, e.getMessage());
+        }
+    }
+
+    /**
+     * Drops everything known about image triplets, so their images are added again by the next scan.
+     */
+    private void forget(Set<String> uniqueIds) {
+        for (String uniqueId : uniqueIds) {
+            pendingImageTriplets.remove(uniqueId);
+            lastChangeNanos.remove(uniqueId);
+            droppedUniqueIds.remove(uniqueId);
+            repository.forgetInvalidUniqueId(uniqueId);
+        }
+        knownImages.values().removeIf(uniqueIds::contains);
+    }
+
+    private List<ImageTriplet> collectSettledImageTriplets() {
+        long now = System.nanoTime();
+        List<ImageTriplet> settledImageTriplets = new ArrayList<>();
+        Iterator<Map.Entry<String, Long>> changes = lastChangeNanos.entrySet().iterator();
+        while (changes.hasNext()) {
+            Map.Entry<String, Long> change = changes.next();
+            ImageTriplet imageTriplet = pendingImageTriplets.get(change.getKey());
+            if (imageTriplet == null) {
+                changes.remove();
+            } else if (now - change.getValue() >= settleNanos) {
+                changes.remove();
+                pendingImageTriplets.remove(change.getKey());
+                if (imageTriplet.conformsTo(presenceStrategy)) {
+                    settledImageTriplets.add(imageTriplet);
+                } else {
+                    logger.warn("Failed image presence check: {} for {}. Waiting for more images.", presenceStrategy,
+                            change.getKey());
+                    droppedUniqueIds.add(change.getKey());
+                }
+            }
+        }
+        return settledImageTriplets;
+    }
+
+    private long timeoutNanos(long now, long nextReconcileNanos) {
+        long deadline = nextReconcileNanos;
+        for (long changeNanos : lastChangeNanos.values()) {
+            if (changeNanos + settleNanos - deadline < 0) {
+                deadline = changeNanos + settleNanos;
+            }
+        }
+        return Math.max(1, deadline - now);
+    }
+}
@@ -0,0 +1,356 @@
+/*
+ * Jumio Inc.
+ *
+ * Copyright (C) 2018
+ * All rights reserved.
+ */
+package com.jumio.netverify.domain;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.jumio.netverify.util.Hashing;
+import com.jumio.netverify.util.LongHashSet;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.StringUtils;
+
+/**
+ * Reads image triplets from a manifest instead of scanning the image folder.
+ * <p>
+ * A manifest lists one image triplet per record, with its unique ID, the paths of its images and optionally applicant
+ * data sent with the request. Relative image paths are resolved against the image folder. Two formats are supported:
+ * <ul>
+ * <li>CSV (RFC 4180) with a header row naming the columns. Fields may be quoted,</li>
+ * <li>JSON lines, i.e. one JSON object per line, if the file name ends with {@code .jsonl} or {@code .ndjson}.</li>
+ * </ul>
+ * The supported columns or members are {@code uniqueId}, {@code frontImage}, {@code backImage}, {@code faceImage}
+ * and the applicant data fields in {@link #APPLICANT_FIELDS}. Empty values are ignored.
+ * <p>
+ * The manifest is read record by record while the image triplets are consumed, so apart from a 64-bit hash per unique
+ * ID, the memory used doesn't depend on its size. Invalid records are logged and skipped, as are records repeating the
+ * unique ID of an earlier record.
+ */
+final class ImageManifest {
+
+    private static final Logger logger = LoggerFactory.getLogger(ImageManifest.class);
+
+    static final String UNIQUE_ID = "uniqueId";
+
+    static final String FRONT_IMAGE = "frontImage";
+
+    static final String BACK_IMAGE = "backImage";
+
+    static final String FACE_IMAGE = "faceImage";
+
+    /**
+     * The fields of the API request that can be provided per image triplet.
+     */
+    static final Set<String> APPLICANT_FIELDS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+            "customerId", "firstName", "lastName", "dob", "country", "usState", "idType", "number", "expiry",
+            "personalNumber", "additionalInformation", "merchantReportingCriteria")));
+
+    private static final Set<String> COLUMNS = columns();
+
+    private ImageManifest() {
+    }
+
+    /**
+     * Opens a manifest for reading. The returned stream has to be closed to release the file.
+     *
+     * @param manifestFile The CSV or JSON lines file.
+     * @param imagesFolder The folder relative image paths are resolved against.
+     * @param filter Selects the unique IDs to read, e.g. those of a shard.
+     * @return A lazily populated stream of image triplets.
+     * @throws IOException If the file cannot be opened or the CSV header names unsupported columns.
+     */
+    static Stream<ImageTriplet> stream(Path manifestFile, Path imagesFolder, Predicate<String> filter)
+            throws IOException {
+        String fileName = String.valueOf(manifestFile.getFileName());
+        boolean jsonLines = fileName.endsWith(".jsonl") || fileName.endsWith(".ndjson");
+        BufferedReader reader = Files.newBufferedReader(manifestFile, StandardCharsets.UTF_8);
+        RecordReader records;
+        try {
+            records = jsonLines ? new JsonLinesReader(reader) : new CsvReader(reader);
+        } catch (IOException | RuntimeException e) {
+            reader.close();
+            throw e;
+        }
+        logger.info("Reading image triplets from {}", manifestFile);
+        return StreamSupport.stream(new ImageTripletSpliterator(records, imagesFolder, filter), false)
+                .onClose(() -> {
+                    try {
+                        reader.close();
+                    } catch (IOException ioe) {
+                        throw new UncheckedIOException(ioe);
+                    }
+                });
+    }
+
+    /**
+     * Builds an image triplet from a record.
+     *
+     * @return The image triplet or {@code null} if the record is invalid.
+     */
+    static ImageTriplet toImageTriplet(Map<String, String> record, long recordNumber, Path imagesFolder) {
+        String uniqueId = record.get(UNIQUE_ID);
+        if (!StringUtils.hasText(uniqueId)) {
+            logger.warn("Skipping manifest record {}. Missing {}", recordNumber, UNIQUE_ID);
+            return null;
+        }
+        ImageTriplet imageTriplet = new ImageTriplet(uniqueId.trim());
+        Map<String, String> applicantData = new LinkedHashMap<>();
+        try {
+            for (Map.Entry<String, String> field : record.entrySet()) {
+                String value = field.getValue();
+                if (!StringUtils.hasText(value)) {
+                    continue;
+                }
+                switch (field.getKey()) {
+                    case UNIQUE_ID:
+                        break;
+                    case FRONT_IMAGE:
+                        imageTriplet.update(resolve(imagesFolder, value), ImageNameClassifier.Role.ID_FRONT);
+                        break;
+                    case BACK_IMAGE:
+                        imageTriplet.update(resolve(imagesFolder, value), ImageNameClassifier.Role.ID_BACK);
+                        break;
+                    case FACE_IMAGE:
+                        imageTriplet.update(resolve(imagesFolder, value), ImageNameClassifier.Role.FACE);
+                        break;
+                    default:
+                        if (!APPLICANT_FIELDS.contains(field.getKey())) {
+                            logger.warn("Skipping manifest record {}. Unknown field: {}", recordNumber, field.getKey());
+                            return null;
+                        }
+                        applicantData.put(field.getKey(), value.trim());
+                }
+            }
+        } catch (DuplicateImageException | UnknownClassifierException e) {
+            throw new IllegalStateException(e);
+        }
+        imageTriplet.setApplicantData(applicantData);
+        return imageTriplet;
+    }
+
+    private static String resolve(Path imagesFolder, String imagePath) {
+        return imagesFolder.resolve(imagePath.trim()).toString();
+    }
+
+    private static Set<String> columns() {
+        Set<String> columns = new HashSet<>(APPLICANT_FIELDS);
+        columns.addAll(Arrays.asList(UNIQUE_ID, FRONT_IMAGE, BACK_IMAGE, FACE_IMAGE));
+        return columns;
+    }
+
+    /**
+     * Reads a manifest record by record.
+     */
+    private interface RecordReader {
+
+        /**
+         * @return The next record by column name, or {@code null} at the end of the manifest.
+         */
+        Map<String, String> next() throws IOException;
+    }
+
+    /**
+     * Reads CSV records with a streaming state machine, so quoted fields may contain separators and line breaks.
+     */
+    static final class CsvReader implements RecordReader {
+
+        private final BufferedReader reader;
+
+        private final List<String> header;
+
+        CsvReader(BufferedReader reader) throws IOException {
+            this.reader = reader;
+            List<String> header = readFields();
+            if (header == null) {
+                throw new IOException("Empty manifest. A header row is required.");
+            }
+            header.set(0, header.get(0).replace("\uFEFF", ""));
+            for (int i = 0; i < header.size(); i++) {
+                header.set(i, header.get(i).trim());
+                if (!COLUMNS.contains(header.get(i))) {
+                    throw new IOException("Unknown manifest column: " + header.get(i));
+                }
+            }
+            if (!header.contains(UNIQUE_ID)) {
+                throw new IOException("Missing manifest column: " + UNIQUE_ID);
+            }
+            this.header = header;
+        }
+
+        @Override
+        public Map<String, String> next() throws IOException {
+            List<String> fields;
+            do {
+                fields = readFields();
+            } while (fields != null && fields.size() == 1 && fields.get(0).isEmpty());
+            if (fields == null) {
+                return null;
+            }
+            Map<String, String> record = new LinkedHashMap<>();
+            for (int i = 0; i < header.size() && i < fields.size(); i++) {
+                record.put(header.get(i), fields.get(i));
+            }
+            return record;
+        }
+
+        /**
+         * Reads the fields of the next line. Line breaks within quoted fields are part of the field.
+         *
+         * @return The fields or {@code null} at the end of the file.
+         */
+        List<String> readFields() throws IOException {
+            List<String> fields = new ArrayList<>();
+            StringBuilder field = new StringBuilder();
+            boolean quoted = false;
+            boolean fieldQuoted = false;
+            int c = reader.read();
+            if (c == -1) {
+                return null;
+            }
+            for (; c != -1; c = reader.read()) {
+                if (quoted) {
+                    if (c != '"') {
+                        field.append((char) c);
+                        continue;
+                    }
+                    reader.mark(1);
+                    if (reader.read() == '"') {
+                        field.append('"');
+                    } else {
+                        reader.reset();
+                        quoted = false;
+                    }
+                } else if (c == '"' && field.length() == 0 && !fieldQuoted) {
+                    quoted = true;
+                    fieldQuoted = true;
+                } else if (c == ',') {
+                    fields.add(field.toString());
+                    field.setLength(0);
+                    fieldQuoted = false;
+                } else if (c == '\n') {
+                    break;
+                } else if (c != '\r') {
+                    field.append((char) c);
+                }
+            }
+            if (quoted) {
+                throw new IOException("Unterminated quoted field in manifest");
+            }
+            fields.add(field.toString());
+            return fields;
+        }
+    }
+
+    /**
+     * Reads one JSON object per line. Only string, number and boolean members are supported.
+     */
+    static final class JsonLinesReader implements RecordReader {
+
+        private final BufferedReader reader;
+
+        private final JsonParser parser = new JsonParser();
+
+        JsonLinesReader(BufferedReader reader) {
+            this.reader = reader;
+        }
+
+        @Override
+        public Map<String, String> next() throws IOException {
+            String line;
+            do {
+                line = reader.readLine();
+            } while (line != null && line.trim().isEmpty());
+            if (line == null) {
+                return null;
+            }
+            Map<String, String> record = new LinkedHashMap<>();
+            try {
+                JsonObject object = parser.parse(line).getAsJsonObject();
+                for (Map.Entry<String, JsonElement> member : object.entrySet()) {
+                    if (!member.getValue().isJsonNull()) {
+                        record.put(member.getKey(), member.getValue().getAsJsonPrimitive().getAsString());
+                    }
+                }
+            } catch (JsonParseException | IllegalStateException e) {
+                logger.warn("Skipping invalid manifest line: {}", e.getMessage());
+                record.clear();
+            }
+            return record;
+        }
+    }
+
+    /**
+     * Turns records into image triplets while the manifest is read.
+     */
+    private static final class ImageTripletSpliterator extends Spliterators.AbstractSpliterator<ImageTriplet> {
+
+        private final RecordReader records;
+
+        private final Path imagesFolder;
+
+        private final Predicate<String> filter;
+
+        private final LongHashSet uniqueIds = new LongHashSet();
+
+        private long recordNumber;
+
+        ImageTripletSpliterator(RecordReader records, Path imagesFolder, Predicate<String> filter) {
+            super(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL);
+            this.records = records;
+            this.imagesFolder = imagesFolder;
+            this.filter = filter;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super ImageTriplet> action) {
+            try {
+                Map<String, String> record;
+                while ((record = records.next()) != null) {
+                    recordNumber++;
+                    ImageTriplet imageTriplet = record.isEmpty() ? null :
+                            toImageTriplet(record, recordNumber, imagesFolder);
+                    if (imageTriplet == null || !filter.test(imageTriplet.getUniqueId())) {
+                        continue;
+                    }
+                    if (!uniqueIds.add(Hashing.hash64(imageTriplet.getUniqueId()))) {
+                        logger.warn("Skipping manifest record {}. Duplicate {}: {}", recordNumber, UNIQUE_ID,
+                                imageTriplet.getUniqueId());
+                        continue;
+                    }
+                    action.accept(imageTriplet);
+                    return true;
+                }
+                return false;
+            } catch (IOException ioe) {
+                throw new UncheckedIOException("Error reading manifest: " + ioe.getMessage(), ioe);
+            }
+        }
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ * Jumio Inc.
+ *
+ * Copyright (C) 2018
+ * All rights reserved.
+ */
+package com.jumio.netverify.domain;
+
+import com.jumio.netverify.ConfigurationContext;
+import com.jumio.netverify.metrics.Tracer;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.LongAdder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.Assert;
+
+/**
+ * Moves images to the success and failure folders on a dedicated thread, so callers don't wait for the file system.
+ * <p>
+ * Moves are queued in a bounded queue of {@code mover.queueCapacity} image triplets. Callers only block while the
+ * queue is full. The mover thread takes up to {@code mover.batchSize} image triplets at a time and moves them grouped
+ * by destination directory, keeping their order within each directory.
+ * <p>
+ * {@link #flush()} is a durability barrier: it returns once all image triplets queued before have been moved and the
+ * affected directories have been forced to disk. Closing the mover flushes it.
+ */
+public final class ImageMover implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(ImageMover.class);
+
+    private final ImageTripletRepository repository;
+
+    private final BlockingQueue<Move> queue;
+
+    private final int batchSize;
+
+    private final Thread thread;
+
+    private final Set<Path> modifiedDirectories = new HashSet<>();
+
+    private final LongAdder busyNanos = new LongAdder();
+
+    private final Tracer tracer;
+
+    private final long startNanos = System.nanoTime();
+
+    private volatile boolean closed;
+
+    public ImageMover(ConfigurationContext configuration, ImageTripletRepository repository) {
+        this(configuration, repository, new Tracer());
+    }
+
+    /**
+     * @param configuration The configuration context providing the mover settings.
+     * @param repository The image repository moving the images.
+     * @param tracer Records a span for each move and each flush.
+     */
+    public ImageMover(ConfigurationContext configuration, ImageTripletRepository repository, Tracer tracer) {
+        Assert.notNull(configuration, "Configuration context cannot be null!");
+        Assert.notNull(repository, "Image repository cannot be null!");
+        Assert.notNull(tracer, "Tracer cannot be null!");
+        this.repository = repository;
+        this.tracer = tracer;
+        queue = new ArrayBlockingQueue<>(Math.max(1, configuration.getMoverQueueCapacity()));
+        batchSize = Math.max(1, configuration.getMoverBatchSize());
+        thread = new Thread(this::run, "mover");
+        thread.start();
+    }
+
+    /**
+     * Queues the images of an image triplet to be moved.
+     *
+     * @param imageTriplet The moved image triplet.
+     * @param destination The success or failure folder.
+     * @throws InterruptedException If interrupted while waiting for space in the queue.
+     */
+    public void moveAll(ImageTriplet imageTriplet, String destination) throws InterruptedException {
+        Assert.state(!closed, "Image mover is closed!");
+        queue.put(new Move(imageTriplet, destination, null));
+    }
+
+    /**
+     * Waits until all image triplets queued so far have been moved and the moves have been forced to disk.
+     *
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    public void flush() throws InterruptedException {
+        if (!thread.isAlive()) {
+            return;
+        }
+        CountDownLatch flushed = new CountDownLatch(1);
+        queue.put(new Move(null, null, flushed));
+        flushed.await();
+    }
+
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * @return The share of time the mover thread has been busy since the mover was created, between 0 and 1.
+     */
+    public double getUtilization() {
+        long elapsedNanos = System.nanoTime() - startNanos;
+        return elapsedNanos <= 0 ? 0 : Math.min(1.0, (double) busyNanos.sum() / elapsedNanos);
+    }
+
+    /**
+     * Flushes the mover and stops its thread.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            flush();
+            thread.interrupt();
+            thread.join();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            thread.interrupt();
+            logger.error("Interrupted while waiting for images to be moved!");
+        }
+    }
+
+    private void run() {
+        List<Move> batch = new ArrayList<>(batchSize);
+        Map<Path, List<Move>> movesByDirectory = new LinkedHashMap<>();
+        try {
+            while (true) {
+                batch.add(queue.take());
+                queue.drainTo(batch, batchSize - 1);
+                long batchStartNanos = System.nanoTime();
+                for (Move move : batch) {
+                    if (move.flushed != null) {
+                        moveGroups(movesByDirectory);
+                        long syncStartNanos = System.nanoTime();
+                        syncModifiedDirectories();
+                        tracer.span("sync", null, syncStartNanos);
+                        move.flushed.countDown();
+                    } else {
+                        movesByDirectory.computeIfAbsent(
+                                repository.archiveDirectory(move.imageTriplet, move.destination),
+                                directory -> new ArrayList<>()).add(move);
+                    }
+                }
+                moveGroups(movesByDirectory);
+                batch.clear();
+                busyNanos.add(System.nanoTime() - batchStartNanos);
+            }
+        } catch (InterruptedException ie) {
+            // Stopped by close() after the final flush
+        }
+    }
+
+    private void moveGroups(Map<Path, List<Move>> movesByDirectory) {
+        for (Map.Entry<Path, List<Move>> group : movesByDirectory.entrySet()) {
+            for (Move move : group.getValue()) {
+                long moveStartNanos = System.nanoTime();
+                try {
+                    repository.moveAll(move.imageTriplet, move.destination);
+                    tracer.span("move", move.imageTriplet.getUniqueId(), moveStartNanos);
+                    addSourceDirectory(move.imageTriplet.getIdFrontImagePath());
+                } catch (RuntimeException e) {
+                    logger.error("Error moving images of {}: {}", move.imageTriplet.getUniqueId(), e.getMessage());
+                }
+            }
+            if (group.getKey() != null) {
+                modifiedDirectories.add(group.getKey());
+            }
+        }
+        movesByDirectory.clear();
+    }
+
+    private void addSourceDirectory(String imagePath) {
+        Path parent = imagePath == null ? null : Paths.get(imagePath).getParent();
+        if (parent != null) {
+            modifiedDirectories.add(parent);
+        }
+    }
+
+    /**
+     * Forces the directory entries of moved images to disk. Not every platform supports opening directories, there
+     * the moves are only as durable as the file system makes them.
+     */
+    private void syncModifiedDirectories() {
+        for (Path directory : modifiedDirectories) {
+            try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+                channel.force(true);
+            } catch (IOException ioe) {
+                logger.debug("Cannot sync directory {}: {}", directory, ioe.getMessage());
+            }
+        }
+        modifiedDirectories.clear();
+    }
+
+    private static final class Move {
+
+        private final ImageTriplet imageTriplet;
+
+        private final String destination;
+
+        private final CountDownLatch flushed;
+
+        Move(ImageTriplet imageTriplet, String destination, CountDownLatch flushed) {
+            this.imageTriplet = imageTriplet;
+            this.destination = destination;
+            this.flushed = flushed;
+        }
+    }
+}
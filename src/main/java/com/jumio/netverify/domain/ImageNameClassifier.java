@@ -0,0 +1,117 @@
+/*
+ * Jumio Inc.
+ *
+ * Copyright (C) 2018
+ * All rights reserved.
+ */
+package com.jumio.netverify.domain;
+
+import com.jumio.netverify.ConfigurationContext;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.springframework.util.Assert;
+
+/**
+ * Parses image names into the unique image triplet ID and the role of the image. Compiled once from the configuration,
+ * so parsing doesn't look up any settings.
+ * <p>
+ * Names matching the default pattern {@code (.+)_(.+)} are split at the last underscore without running the regex. The
+ * result is the same, the regex is only used for the rare names the split can't decide, e.g. names ending with an
+ * underscore. Custom patterns always use the regex.
+ */
+final class ImageNameClassifier {
+
+    static final String DEFAULT_NAME_PATTERN = "(.+)_(.+)";
+
+    private final Pattern namePattern;
+
+    private final boolean defaultNamePattern;
+
+    private final String frontSuffix;
+
+    private final String backSuffix;
+
+    private final String faceSuffix;
+
+    ImageNameClassifier(ConfigurationContext configuration) {
+        Assert.notNull(configuration, "Configuration context cannot be null!");
+        namePattern = Pattern.compile(configuration.getImagesNamePattern());
+        defaultNamePattern = DEFAULT_NAME_PATTERN.equals(configuration.getImagesNamePattern());
+        frontSuffix = configuration.getImagesFrontSuffix();
+        backSuffix = configuration.getImagesBackSuffix();
+        faceSuffix = configuration.getImagesFaceSuffix();
+    }
+
+    /**
+     * Splits an image name into the unique image triplet ID and the classifier.
+     *
+     * @param fileName The image file name.
+     * @return The parsed name or {@code null} if the name doesn't match the name pattern.
+     */
+    ImageName parse(String fileName) {
+        if (defaultNamePattern) {
+            int separator = fileName.lastIndexOf('_');
+            if (separator > 0 && separator < fileName.length() - 1 && !hasLineTerminator(fileName)) {
+                return new ImageName(fileName.substring(0, separator), fileName.substring(separator + 1));
+            }
+        }
+        Matcher matcher = namePattern.matcher(fileName);
+        return matcher.matches() ? new ImageName(matcher.group(1), matcher.group(2)) : null;
+    }
+
+    /**
+     * Tells which image of a triplet a classifier stands for. The suffixes are checked in the order front, back, face.
+     *
+     * @param classifier The classifier part of an image name, e.g. {@code front.jpg}.
+     * @return The role or {@code null} if the classifier contains none of the suffixes.
+     */
+    Role classify(String classifier) {
+        if (contains(classifier, frontSuffix)) {
+            return Role.ID_FRONT;
+        } else if (contains(classifier, backSuffix)) {
+            return Role.ID_BACK;
+        } else if (contains(classifier, faceSuffix)) {
+            return Role.FACE;
+        }
+        return null;
+    }
+
+    private static boolean contains(String classifier, String suffix) {
+        return suffix != null && classifier.contains(suffix);
+    }
+
+    /**
+     * The regex dot doesn't match line terminators, so names containing one are left to the regex.
+     */
+    private static boolean hasLineTerminator(String fileName) {
+        for (int i = 0; i < fileName.length(); i++) {
+            char c = fileName.charAt(i);
+            if (c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    enum Role {ID_FRONT, ID_BACK, FACE}
+
+    static final class ImageName {
+
+        private final String uniqueId;
+
+        private final String classifier;
+
+        ImageName(String uniqueId, String classifier) {
+            this.uniqueId = uniqueId;
+            this.classifier = classifier;
+        }
+
+        String getUniqueId() {
+            return uniqueId;
+        }
+
+        String getClassifier() {
+            return classifier;
+        }
+    }
+}
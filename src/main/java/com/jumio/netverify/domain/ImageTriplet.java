@@ -6,13 +6,17 @@
  */
 package com.jumio.netverify.domain;
 
-import com.jumio.netverify.ConfigurationContext;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import org.springframework.util.Assert;
 import org.springframework.util.StringUtils;
 
 /**
  * Container for image paths. Used during an API call as a data source. Currently overwriting already set image paths is
  * not supported.
+ * <p>
+ * Image triplets read from a manifest may also carry applicant data, i.e. values for fields of the API request.
  */
 public final class ImageTriplet {
 
@@ -24,22 +28,53 @@ public final class ImageTriplet {
 
     private String faceImagePath;
 
+    private Map<String, String> applicantData = Collections.emptyMap();
+
     ImageTriplet(String uniqueId) {
         Assert.notNull(uniqueId, "Unique image triplet ID cannot be null!");
         this.uniqueId = uniqueId;
     }
 
-    void update(String imagePath, String classifier, ConfigurationContext configuration)
+    /**
+     * Creates an image triplet from images that are not in the images folder, e.g. to submit it through the
+     * {@code NetverifyClient}.
+     *
+     * @param uniqueId The unique image triplet ID, sent as the merchant scan reference.
+     * @param idFrontImagePath The path of the ID front image.
+     * @param idBackImagePath The path of the ID back image or {@code null}.
+     * @param faceImagePath The path of the face image or {@code null}.
+     * @param applicantData The values of API request fields by field name, see {@link #getApplicantData()}. May be
+     * {@code null}.
+     * @return See above.
+     */
+    public static ImageTriplet of(String uniqueId, String idFrontImagePath, String idBackImagePath,
+            String faceImagePath, Map<String, String> applicantData) {
+        ImageTriplet imageTriplet = new ImageTriplet(uniqueId);
+        imageTriplet.idFrontImagePath = idFrontImagePath;
+        imageTriplet.idBackImagePath = idBackImagePath;
+        imageTriplet.faceImagePath = faceImagePath;
+        if (applicantData != null) {
+            imageTriplet.setApplicantData(new LinkedHashMap<>(applicantData));
+        }
+        return imageTriplet;
+    }
+
+    void update(String imagePath, ImageNameClassifier.Role role)
             throws DuplicateImageException, UnknownClassifierException {
-        if (classifier.contains(configuration.getImagesFrontSuffix())) {
-            setIdFrontImagePath(imagePath);
-        } else if (classifier.contains(configuration.getImagesBackSuffix())) {
-            setIdBackImagePath(imagePath);
-        } else if (classifier.contains(configuration.getImagesFaceSuffix())) {
-            setFaceImagePath(imagePath);
-        } else {
+        if (role == null) {
             throw new UnknownClassifierException("Found image with unknown classifier: " + imagePath);
         }
+        switch (role) {
+            case ID_FRONT:
+                setIdFrontImagePath(imagePath);
+                break;
+            case ID_BACK:
+                setIdBackImagePath(imagePath);
+                break;
+            case FACE:
+                setFaceImagePath(imagePath);
+                break;
+        }
     }
 
     public boolean conformsTo(PresenceStrategy.Validator presenceStrategy) {
@@ -83,6 +118,18 @@ public final class ImageTriplet {
         this.faceImagePath = faceImagePath;
     }
 
+    /**
+     * @return The values of API request fields by field name, e.g. {@code firstName}. Empty unless provided by a
+     * manifest or by the caller.
+     */
+    public Map<String, String> getApplicantData() {
+        return applicantData;
+    }
+
+    void setApplicantData(Map<String, String> applicantData) {
+        this.applicantData = Collections.unmodifiableMap(applicantData);
+    }
+
     boolean hasFaceImagePath() {
         return !StringUtils.isEmpty(faceImagePath);
     }
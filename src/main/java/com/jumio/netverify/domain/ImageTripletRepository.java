@@ -7,18 +7,37 @@
 package com.jumio.netverify.domain;
 
 import com.jumio.netverify.ConfigurationContext;
+import com.jumio.netverify.util.Hashing;
+import com.jumio.netverify.util.LongHashSet;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryNotEmptyException;
 import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
+import java.nio.file.PathMatcher;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.time.Clock;
+import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.util.Assert;
@@ -28,33 +47,105 @@ import org.springframework.util.StringUtils;
  * Repository of {@link ImageTriplet}s.
  * <p>
  * Provides basic CRUD-like operations. Backed by a file system.
+ * <p>
+ * If the image folder is sharded, only the image triplets assigned to the configured shard are found. Images of other
+ * shards are left untouched for the instances processing them.
+ * <p>
+ * If claiming is enabled, several instances can drain the same image folder. An image triplet is claimed by renaming
+ * its images into the instance's claim directory, see {@link #claim(ImageTriplet)}. Each instance renews a lease file
+ * in its claim directory, see {@link ClaimLease}. The images of instances whose lease expired are returned to the
+ * image folder.
+ * <p>
+ * Images listed in a manifest may share a file name, e.g. {@code 123/front.jpg} and {@code 456/front.jpg}. Below the
+ * claim directory they keep their path relative to the image folder, so they are returned to the same place. In the
+ * success and failure folders their file names are prefixed with the unique ID, unless they start with it already.
+ * <p>
+ * If a scan cache file is configured, {@link #findAll()} keeps the parsed image names between runs, see
+ * {@link ScanCache}.
  */
 public final class ImageTripletRepository {
 
     private static final Logger logger = LoggerFactory.getLogger(ImageTripletRepository.class);
 
+    private static final String IMAGE_GLOB = "*.{jpg,png}";
+
+    private static final String LEASE_FILE = ".lease";
+
     private final ConfigurationContext configuration;
 
-    private final Map<String, ImageTriplet> imageTriplets;
+    private final ImageNameClassifier imageNameClassifier;
+
+    private final Set<String> invalidUniqueIds;
+
+    private final ArchiveLayout archiveLayout;
+
+    private final int archiveHashPrefixLength;
+
+    private final Clock clock;
+
+    private final ShardStrategy shardStrategy;
+
+    private final int shardIndex;
+
+    private final int shardCount;
+
+    private final boolean claimEnabled;
+
+    private final Path claimFolder;
+
+    private final Path claimDirectory;
+
+    private final long leaseTimeMillis;
+
+    private final Path scanCacheFile;
+
+    private final boolean manifestEnabled;
+
+    private final Path absoluteImagesFolder;
 
-    private final Pattern imageNamePattern;
+    private final PathMatcher imageMatcher = FileSystems.getDefault().getPathMatcher("glob:" + IMAGE_GLOB);
 
-    private final List<String> invalidUniqueIds;
+    private final Set<Path> createdDirectories = ConcurrentHashMap.newKeySet();
 
     public ImageTripletRepository(ConfigurationContext configuration) {
+        this(configuration, Clock.systemDefaultZone());
+    }
+
+    ImageTripletRepository(ConfigurationContext configuration, Clock clock) {
         Assert.notNull(configuration, "Configuration context cannot be null!");
         this.configuration = configuration;
-        imageTriplets = new HashMap<>();
-        invalidUniqueIds = new ArrayList<>();
-        imageNamePattern = Pattern.compile(configuration.getImagesNamePattern());
+        this.clock = clock;
+        invalidUniqueIds = new HashSet<>();
+        imageNameClassifier = new ImageNameClassifier(configuration);
+        archiveLayout = configuration.getImagesArchiveLayout();
+        archiveHashPrefixLength = configuration.getImagesArchiveHashPrefixLength();
+        shardStrategy = configuration.getShardStrategy();
+        shardIndex = configuration.getShardIndex();
+        shardCount = configuration.getShardCount();
+        Assert.isTrue(shardCount > 0, "Shard count must be positive!");
+        Assert.isTrue(shardIndex >= 0 && shardIndex < shardCount, "Shard index must be less than the shard count!");
+        if (shardCount > 1) {
+            logger.info("Processing shard {} of {} using {} sharding", shardIndex, shardCount, shardStrategy);
+        }
+        claimEnabled = configuration.isClaimEnabled();
+        claimFolder = claimEnabled ? Paths.get(configuration.getClaimFolder()) : null;
+        claimDirectory = claimEnabled ? claimFolder.resolve(configuration.getClaimInstanceId()) : null;
+        leaseTimeMillis = configuration.getClaimLeaseTime();
+        String scanCache = configuration.getImagesScanCacheFile();
+        scanCacheFile = scanCache == null ? null : Paths.get(scanCache);
+        manifestEnabled = configuration.getManifestFile() != null;
+        absoluteImagesFolder = Paths.get(configuration.getImagesFolder()).toAbsolutePath().normalize();
     }
 
     public List<ImageTriplet> findAll() throws IOException {
         logger.info("Parsing image names in {}", configuration.getImagesFolder());
-        try (DirectoryStream<Path> imagePaths = Files.newDirectoryStream(Paths.get(configuration.getImagesFolder()),
-                "*.{jpg,png}")) {
+        if (scanCacheFile != null) {
+            return findAllCached();
+        }
+        Map<String, ImageTriplet> imageTriplets = new HashMap<>();
+        try (DirectoryStream<Path> imagePaths = newImageDirectoryStream()) {
             for (Path imagePath : imagePaths) {
-                appendToImageTriplets(imagePath);
+                appendToImageTriplets(imagePath, imageTriplets);
             }
         } catch (DirectoryIteratorException ex) {
             throw ex.getCause();
@@ -62,6 +153,134 @@ public final class ImageTripletRepository {
         return new ArrayList<>(imageTriplets.values());
     }
 
+    /**
+     * Like {@link #findAll()}, but only parses image names that are not in the scan cache yet. If the image folder
+     * hasn't changed since the cache was written, the cached image names are used without listing the folder.
+     */
+    private List<ImageTriplet> findAllCached() throws IOException {
+        Path imagesFolder = Paths.get(configuration.getImagesFolder());
+        ScanCache previousScan = ScanCache.load(scanCacheFile, scanCacheKey(imagesFolder));
+        long scanStartMillis = clock.millis();
+        long folderModifiedMillis = Files.getLastModifiedTime(imagesFolder).toMillis();
+        boolean unchanged = previousScan.isUnchanged(folderModifiedMillis);
+        Collection<String> imageNames;
+        if (unchanged) {
+            imageNames = previousScan.getImageNames();
+            invalidUniqueIds.addAll(previousScan.getRejectedUniqueIds());
+            logger.info("Image folder unchanged since the last scan, using {} cached image names", imageNames.size());
+        } else {
+            imageNames = new ArrayList<>();
+            try (DirectoryStream<Path> imagePaths = newImageDirectoryStream()) {
+                for (Path imagePath : imagePaths) {
+                    imageNames.add(imagePath.getFileName().toString());
+                }
+            } catch (DirectoryIteratorException ex) {
+                throw ex.getCause();
+            }
+        }
+        ScanCache scan = unchanged ? previousScan : new ScanCache(previousScan.getKey());
+        String folderPrefix = folderPrefix(imagesFolder);
+        Map<String, ImageTriplet> imageTriplets = new HashMap<>();
+        int parsed = 0;
+        for (String imageName : imageNames) {
+            ScanCache.Entry entry = previousScan.get(imageName);
+            if (entry == null) {
+                entry = parse(imageName);
+                parsed++;
+            }
+            if (!unchanged) {
+                scan.put(imageName, entry);
+            }
+            if (entry != ScanCache.Entry.UNPARSEABLE) {
+                appendToImageTriplets(folderPrefix + imageName, entry.getUniqueId(), entry.getRole(),
+                        imageTriplets, previousScan, scan);
+            }
+        }
+        logger.info("Parsed {} new image names, {} were cached", parsed, imageNames.size() - parsed);
+        if (!unchanged) {
+            scan.setFolderModified(folderModifiedMillis, scanStartMillis);
+            try {
+                scan.save(scanCacheFile);
+            } catch (IOException ioe) {
+                logger.warn("Error writing scan cache {}: {}", scanCacheFile, ioe.getMessage());
+            }
+        }
+        return new ArrayList<>(imageTriplets.values());
+    }
+
+    private ScanCache.Entry parse(String fileName) {
+        ImageNameClassifier.ImageName imageName = imageNameClassifier.parse(fileName);
+        if (imageName == null) {
+            logger.warn("Could not parse image name: {}", fileName);
+            return ScanCache.Entry.UNPARSEABLE;
+        }
+        return new ScanCache.Entry(imageName.getUniqueId(), imageNameClassifier.classify(imageName.getClassifier()));
+    }
+
+    /**
+     * Image paths are built by concatenating strings, as resolving hundreds of thousands of {@link Path}s and
+     * converting them back to strings costs more than the rest of a cached scan.
+     *
+     * @return The images folder as it is prefixed to the image names by {@link Path#resolve(String)}.
+     */
+    private static String folderPrefix(Path imagesFolder) {
+        String resolved = imagesFolder.resolve("_").toString();
+        return resolved.substring(0, resolved.length() - 1);
+    }
+
+    private String scanCacheKey(Path imagesFolder) {
+        return String.join("\n", imagesFolder.toAbsolutePath().normalize().toString(),
+                String.valueOf(configuration.getImagesNamePattern()),
+                String.valueOf(configuration.getImagesFrontSuffix()),
+                String.valueOf(configuration.getImagesBackSuffix()),
+                String.valueOf(configuration.getImagesFaceSuffix()));
+    }
+
+    /**
+     * Lazily scans the image folder. An image triplet is handed off as soon as it has all three images and conforms to
+     * the configured presence strategy, so it can be processed while the scan continues. No image found later can
+     * make it valid then. Only the other image triplets are kept in memory, plus a 64-bit hash of each handed off ID.
+     * These are handed off once the whole folder has been scanned, the same as {@link #findAll()} would return them.
+     * As only the {@code ALL} presence strategy accepts all three images, image triplets are only processed
+     * while the scan continues with that strategy.
+     * <p>
+     * Unlike {@link #findAll()}, an image found after its triplet has been handed off doesn't invalidate the triplet,
+     * as it may already be processed. The image is skipped with a warning instead, as are all further images with the
+     * same ID.
+     * <p>
+     * The returned stream has to be closed to release the underlying directory stream. An I/O error during the scan
+     * is thrown as a {@link DirectoryIteratorException}.
+     *
+     * @return A stream of image triplets from the images folder.
+     */
+    public Stream<ImageTriplet> streamAll() throws IOException {
+        logger.info("Streaming image names in {}", configuration.getImagesFolder());
+        PresenceStrategy.Validator presenceStrategy = PresenceStrategy.build(configuration.getImagesPresenceStrategy());
+        DirectoryStream<Path> imagePaths = newImageDirectoryStream();
+        return StreamSupport.stream(new ImageTripletSpliterator(imagePaths.iterator(), presenceStrategy), false)
+                .onClose(() -> {
+                    try {
+                        imagePaths.close();
+                    } catch (IOException ioe) {
+                        throw new UncheckedIOException(ioe);
+                    }
+                });
+    }
+
+    /**
+     * Lazily reads the image triplets listed in the configured manifest, without scanning the image folder. See
+     * {@link ImageManifest} for the supported formats.
+     * <p>
+     * The returned stream has to be closed to release the manifest file. An I/O error while reading is thrown as an
+     * {@link UncheckedIOException}.
+     *
+     * @return A stream of image triplets from the manifest.
+     */
+    public Stream<ImageTriplet> streamManifest() throws IOException {
+        return ImageManifest.stream(Paths.get(configuration.getManifestFile()),
+                Paths.get(configuration.getImagesFolder()), this::isInShard);
+    }
+
     public void createDirectories() throws IOException {
         Path successFolder = Paths.get(configuration.getImagesSuccessFolder());
         Path failureFolder = Paths.get(configuration.getImagesFailureFolder());
@@ -69,40 +288,375 @@ public final class ImageTripletRepository {
         createDirectory(failureFolder);
     }
 
+    /**
+     * Moves all images of an image triplet into the destination folder, or into a directory below it depending on
+     * the configured {@link ArchiveLayout}. Directories are created on demand. Created directories are remembered, so
+     * each move only costs a single rename as the archive grows.
+     *
+     * @param imageTriplet The moved image triplet.
+     * @param destination The success or failure folder.
+     */
     public void moveAll(ImageTriplet imageTriplet, String destination) {
         if (!StringUtils.hasText(destination)) {
             logger.warn("Skipping moving images for ID {}. Empty path provided!", imageTriplet.getUniqueId());
             return;
         }
-        Path destinationPath = Paths.get(destination);
+        Path destinationPath = archiveDirectory(imageTriplet, destination);
         try {
-            move(imageTriplet.getIdFrontImagePath(), destinationPath);
-            move(imageTriplet.getFaceImagePath(), destinationPath);
-            move(imageTriplet.getIdBackImagePath(), destinationPath);
+            createArchiveDirectory(destinationPath);
+            move(imageTriplet.getIdFrontImagePath(), destinationPath, imageTriplet.getUniqueId());
+            move(imageTriplet.getFaceImagePath(), destinationPath, imageTriplet.getUniqueId());
+            move(imageTriplet.getIdBackImagePath(), destinationPath, imageTriplet.getUniqueId());
         } catch (IOException ioe) {
             logger.error("Error when moving images to {} folder: {}", destinationPath, ioe.getMessage());
         }
     }
 
-    private void appendToImageTriplets(Path imagePath) {
+    /**
+     * Resolves the directory the images of an image triplet are moved to, according to the archive layout.
+     *
+     * @param imageTriplet The moved image triplet.
+     * @param destination The success or failure folder.
+     * @return The archive directory or {@code null} if the destination is empty.
+     */
+    public Path archiveDirectory(ImageTriplet imageTriplet, String destination) {
+        if (!StringUtils.hasText(destination)) {
+            return null;
+        }
+        return archiveLayout.resolve(Paths.get(destination), imageTriplet.getUniqueId(), LocalDate.now(clock),
+                archiveHashPrefixLength);
+    }
+
+    /**
+     * Claims an image triplet for this instance by atomically renaming its images into the claim directory, the ID
+     * front image first. Renaming a file only succeeds for one of several instances, so whoever renamed the ID front
+     * image owns the image triplet. The other images are only renamed by the owner. Images that disappeared in the
+     * meantime are missing from the claimed image triplet, so it must be checked against the presence strategy again.
+     *
+     * @param imageTriplet An image triplet found in the images folder.
+     * @return The image triplet with its images in the claim directory, the image triplet itself if claiming is
+     * disabled, or {@code null} if another instance claimed it first or an error occurred.
+     */
+    public ImageTriplet claim(ImageTriplet imageTriplet) {
+        if (!claimEnabled) {
+            return imageTriplet;
+        }
+        String uniqueId = imageTriplet.getUniqueId();
+        ImageTriplet claimedImageTriplet = new ImageTriplet(uniqueId);
+        claimedImageTriplet.setApplicantData(imageTriplet.getApplicantData());
+        try {
+            if (!createdDirectories.contains(claimDirectory)) {
+                Files.createDirectories(claimDirectory);
+                createdDirectories.add(claimDirectory);
+            }
+            if (!claimImage(imageTriplet.getIdFrontImagePath(), ImageNameClassifier.Role.ID_FRONT,
+                    claimedImageTriplet)) {
+                logger.debug("Image triplet {} was claimed by another instance", uniqueId);
+                return null;
+            }
+            if (!claimImage(imageTriplet.getIdBackImagePath(), ImageNameClassifier.Role.ID_BACK, claimedImageTriplet)) {
+                logger.warn("ID back image of claimed ID {} disappeared", uniqueId);
+            }
+            if (!claimImage(imageTriplet.getFaceImagePath(), ImageNameClassifier.Role.FACE, claimedImageTriplet)) {
+                logger.warn("Face image of claimed ID {} disappeared", uniqueId);
+            }
+        } catch (IOException ioe) {
+            logger.error("Error when claiming images for ID {}: {}", uniqueId, ioe.getMessage());
+            return null;
+        }
+        return claimedImageTriplet;
+    }
+
+    /**
+     * Renames an image into the claim directory.
+     *
+     * @return Whether the image was renamed, or there is no such image.
+     */
+    private boolean claimImage(String imagePath, ImageNameClassifier.Role role, ImageTriplet claimedImageTriplet)
+            throws IOException {
+        if (!StringUtils.hasText(imagePath)) {
+            return role != ImageNameClassifier.Role.ID_FRONT;
+        }
+        Path sourcePath = Paths.get(imagePath);
+        Path claimedPath = claimedPath(sourcePath, claimedImageTriplet.getUniqueId());
+        if (!claimedPath.getParent().equals(claimDirectory)) {
+            Files.createDirectories(claimedPath.getParent());
+        }
+        try {
+            claimedPath = Files.move(sourcePath, claimedPath, StandardCopyOption.ATOMIC_MOVE);
+            claimedImageTriplet.update(claimedPath.toString(), role);
+            return true;
+        } catch (NoSuchFileException nsfe) {
+            return false;
+        } catch (DuplicateImageException | UnknownClassifierException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Creates or renews the lease of this instance, by setting the modification time of the lease file in the claim
+     * directory.
+     */
+    public void renewLease() throws IOException {
+        if (!claimEnabled) {
+            return;
+        }
+        Files.createDirectories(claimDirectory);
+        Path leaseFile = claimDirectory.resolve(LEASE_FILE);
+        if (!Files.exists(leaseFile)) {
+            Files.createFile(leaseFile);
+        }
+        Files.setLastModifiedTime(leaseFile, FileTime.fromMillis(clock.millis()));
+    }
+
+    /**
+     * Deletes the lease file and the claim directory of this instance, unless images are left in it. These are then
+     * returned by other instances once the lease has expired.
+     */
+    public void releaseLease() throws IOException {
+        if (!claimEnabled || !Files.isDirectory(claimDirectory)) {
+            return;
+        }
+        if (deleteEmptySubdirectories(claimDirectory)) {
+            logger.warn("Images left in {}. They are returned once the lease has expired.", claimDirectory);
+            return;
+        }
+        deleteClaimDirectory(claimDirectory);
+    }
+
+    /**
+     * Returns the images claimed by instances whose lease has expired to the images folder, so they are picked up
+     * again. A lease expires if it wasn't renewed for {@code claim.leaseTime}, e.g. because the instance died.
+     *
+     * @return The number of returned images.
+     */
+    public int requeueStaleClaims() throws IOException {
+        if (!claimEnabled || !Files.isDirectory(claimFolder)) {
+            return 0;
+        }
+        int requeued = 0;
+        try (DirectoryStream<Path> instanceDirectories = Files.newDirectoryStream(claimFolder, Files::isDirectory)) {
+            for (Path instanceDirectory : instanceDirectories) {
+                if (!instanceDirectory.equals(claimDirectory) && isLeaseExpired(instanceDirectory)) {
+                    logger.warn("Lease of instance {} expired. Returning its images.", instanceDirectory.getFileName());
+                    requeued += requeueClaims(instanceDirectory);
+                }
+            }
+        } catch (DirectoryIteratorException ex) {
+            throw ex.getCause();
+        }
+        return requeued;
+    }
+
+    /**
+     * Returns all images left in this instance's claim directory by a previous run with the same instance ID. Must be
+     * called before anything is claimed.
+     *
+     * @return The number of returned images.
+     */
+    public int requeueOwnClaims() throws IOException {
+        if (!claimEnabled || !Files.isDirectory(claimDirectory)) {
+            return 0;
+        }
+        return requeueClaims(claimDirectory);
+    }
+
+    private int requeueClaims(Path instanceDirectory) throws IOException {
+        Path imagesFolder = Paths.get(configuration.getImagesFolder());
+        int requeued;
+        try {
+            requeued = requeueImages(instanceDirectory, imagesFolder);
+        } catch (NoSuchFileException nsfe) {
+            return 0;
+        }
+        logger.info("Returned {} images from {} to {}", requeued, instanceDirectory, imagesFolder);
+        deleteClaimDirectory(instanceDirectory);
+        return requeued;
+    }
+
+    private boolean isLeaseExpired(Path instanceDirectory) throws IOException {
+        Path leaseFile = instanceDirectory.resolve(LEASE_FILE);
+        try {
+            FileTime renewed = Files.getLastModifiedTime(Files.exists(leaseFile) ? leaseFile : instanceDirectory);
+            return clock.millis() - renewed.toMillis() > leaseTimeMillis;
+        } catch (NoSuchFileException nsfe) {
+            return false;
+        }
+    }
+
+    /**
+     * Returns the images in a claim directory to the matching folder below the image folder. Subdirectories are
+     * deleted once they are empty.
+     */
+    private int requeueImages(Path directory, Path imagesFolder) throws IOException {
+        int requeued = 0;
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+            for (Path entry : entries) {
+                if (Files.isDirectory(entry)) {
+                    try {
+                        requeued += requeueImages(entry, imagesFolder.resolve(entry.getFileName().toString()));
+                    } catch (NoSuchFileException nsfe) {
+                        logger.debug("Directory {} was returned by another instance", entry);
+                    }
+                    deleteIfEmpty(entry);
+                    continue;
+                }
+                if (!imageMatcher.matches(entry.getFileName())) {
+                    continue;
+                }
+                Path imagePath = imagesFolder.resolve(entry.getFileName().toString());
+                if (Files.exists(imagePath)) {
+                    logger.warn("Cannot return {}. An image with the same name exists.", entry);
+                    continue;
+                }
+                try {
+                    Files.createDirectories(imagesFolder);
+                    Files.move(entry, imagePath, StandardCopyOption.ATOMIC_MOVE);
+                    requeued++;
+                } catch (NoSuchFileException nsfe) {
+                    logger.debug("Image {} was returned by another instance", entry);
+                }
+            }
+        } catch (DirectoryIteratorException ex) {
+            throw ex.getCause();
+        }
+        return requeued;
+    }
+
+    /**
+     * Deletes the empty subdirectories of a claim directory, which are left behind by images claimed from
+     * subfolders of the image folder.
+     *
+     * @return Whether images are left in the directory.
+     */
+    private boolean deleteEmptySubdirectories(Path directory) throws IOException {
+        boolean imagesLeft = false;
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+            for (Path entry : entries) {
+                if (Files.isDirectory(entry)) {
+                    if (deleteEmptySubdirectories(entry)) {
+                        imagesLeft = true;
+                    } else {
+                        deleteIfEmpty(entry);
+                    }
+                } else if (imageMatcher.matches(entry.getFileName())) {
+                    imagesLeft = true;
+                }
+            }
+        } catch (DirectoryIteratorException ex) {
+            throw ex.getCause();
+        }
+        return imagesLeft;
+    }
+
+    private static void deleteIfEmpty(Path directory) throws IOException {
+        try {
+            Files.deleteIfExists(directory);
+        } catch (DirectoryNotEmptyException dnee) {
+            logger.debug("Not deleting {}. It isn't empty.", directory);
+        }
+    }
+
+    private void deleteClaimDirectory(Path instanceDirectory) throws IOException {
+        Files.deleteIfExists(instanceDirectory.resolve(LEASE_FILE));
+        try {
+            Files.deleteIfExists(instanceDirectory);
+            createdDirectories.remove(instanceDirectory);
+        } catch (DirectoryNotEmptyException dnee) {
+            logger.debug("Not deleting {}. It isn't empty.", instanceDirectory);
+        }
+    }
+
+    DirectoryStream<Path> newImageDirectoryStream() throws IOException {
+        return Files.newDirectoryStream(Paths.get(configuration.getImagesFolder()), IMAGE_GLOB);
+    }
+
+    /**
+     * Adds an image to the image triplet with the matching ID.
+     *
+     * @param imagePath The path of the image.
+     * @param imageTriplets The image triplets found so far, by ID.
+     * @return The updated image triplet or {@code null} if the image was skipped or belongs to another shard.
+     */
+    ImageTriplet appendToImageTriplets(Path imagePath, Map<String, ImageTriplet> imageTriplets) {
         String fileName = imagePath.getFileName() == null ? "" : imagePath.getFileName().toString();
-        Matcher matcher = imageNamePattern.matcher(fileName);
-        if (matcher.matches()) {
-            String uniqueId = matcher.group(1);
-            String classifier = matcher.group(2);
-            if (invalidUniqueIds.contains(uniqueId)) {
-                return;
-            }
-            ImageTriplet imageTriplet = imageTriplets.computeIfAbsent(uniqueId, ImageTriplet::new);
-            try {
-                imageTriplet.update(imagePath.toString(), classifier, configuration);
-            } catch (DuplicateImageException | UnknownClassifierException e) {
+        ImageNameClassifier.ImageName imageName = imageNameClassifier.parse(fileName);
+        if (imageName == null) {
+            logger.warn("Could not parse image name: {}", imagePath.getFileName());
+            return null;
+        }
+        return appendToImageTriplets(imagePath.toString(), imageName.getUniqueId(),
+                imageNameClassifier.classify(imageName.getClassifier()), imageTriplets, null, null);
+    }
+
+    /**
+     * @param imagePath The path of an image.
+     * @return The unique ID in the image name or {@code null} if the name can't be parsed.
+     */
+    String parseUniqueId(Path imagePath) {
+        Path fileName = imagePath.getFileName();
+        ImageNameClassifier.ImageName imageName = fileName == null ? null :
+                imageNameClassifier.parse(fileName.toString());
+        return imageName == null ? null : imageName.getUniqueId();
+    }
+
+    /**
+     * @return Whether images with this ID are skipped, because one of them was invalid.
+     */
+    boolean isInvalidUniqueId(String uniqueId) {
+        return invalidUniqueIds.contains(uniqueId);
+    }
+
+    /**
+     * Stops skipping images with this ID, e.g. because the invalid images have been removed.
+     */
+    void forgetInvalidUniqueId(String uniqueId) {
+        invalidUniqueIds.remove(uniqueId);
+    }
+
+    /**
+     * @param previousScan The scan cache of the previous run, if any. Image triplets skipped for the same reason
+     * before are not logged again.
+     * @param scan The scan cache of this run, if any. Skipped image triplets are recorded in it.
+     */
+    private ImageTriplet appendToImageTriplets(String imagePath, String uniqueId, ImageNameClassifier.Role role,
+            Map<String, ImageTriplet> imageTriplets, ScanCache previousScan, ScanCache scan) {
+        if (!isInShard(uniqueId)) {
+            return null;
+        }
+        if (invalidUniqueIds.contains(uniqueId)) {
+            if (scan != null) {
+                scan.reject(uniqueId, previousScan.getRejection(uniqueId));
+            }
+            return null;
+        }
+        ImageTriplet imageTriplet = imageTriplets.computeIfAbsent(uniqueId, ImageTriplet::new);
+        try {
+            imageTriplet.update(imagePath, role);
+            return imageTriplet;
+        } catch (DuplicateImageException | UnknownClassifierException e) {
+            if (previousScan != null && e.getMessage().equals(previousScan.getRejection(uniqueId))) {
+                logger.debug("Skipping all images with ID: {}. Reason: {}", uniqueId, e.getMessage());
+            } else {
                 logger.warn("Skipping all images with ID: {}. Reason: {}", uniqueId, e.getMessage());
-                imageTriplets.remove(uniqueId);
-                invalidUniqueIds.add(uniqueId);
             }
-        } else {
-            logger.warn("Could not parse image name: {}", imagePath.getFileName());
+            if (scan != null) {
+                scan.reject(uniqueId, e.getMessage());
+            }
+            imageTriplets.remove(uniqueId);
+            invalidUniqueIds.add(uniqueId);
+        }
+        return null;
+    }
+
+    private boolean isInShard(String uniqueId) {
+        return shardCount == 1 || shardStrategy.shardOf(uniqueId, shardCount) == shardIndex;
+    }
+
+    private void createArchiveDirectory(Path path) throws IOException {
+        if (archiveLayout != ArchiveLayout.FLAT && !createdDirectories.contains(path)) {
+            Files.createDirectories(path);
+            createdDirectories.add(path);
         }
     }
 
@@ -115,11 +669,87 @@ public final class ImageTripletRepository {
         }
     }
 
-    private void move(String source, Path destinationPath) throws IOException {
+    private void move(String source, Path destinationPath, String uniqueId) throws IOException {
         if (StringUtils.hasText(source)) {
             Path sourcePath = Paths.get(source);
-            Files.move(sourcePath, destinationPath.resolve(sourcePath.getFileName()));
+            Files.move(sourcePath, destinationPath.resolve(archivedFileName(sourcePath, uniqueId)));
             logger.info("Moved {} to {}", sourcePath, destinationPath);
         }
     }
+
+    /**
+     * Image names found by scanning the image folder contain the unique ID. Images listed in a manifest get it as a
+     * prefix, so images of different IDs with the same file name don't collide in the archive.
+     */
+    private String archivedFileName(Path imagePath, String uniqueId) {
+        String fileName = imagePath.getFileName().toString();
+        return !manifestEnabled || fileName.startsWith(uniqueId + "_") ? fileName : uniqueId + "_" + fileName;
+    }
+
+    /**
+     * Resolves where an image is claimed to. Images keep their path relative to the image folder, so images listed
+     * in a manifest are returned to their subfolder. Images outside of the image folder are claimed into a directory
+     * named after the unique ID.
+     */
+    private Path claimedPath(Path imagePath, String uniqueId) {
+        Path absolutePath = imagePath.toAbsolutePath().normalize();
+        Path relativePath = absolutePath.startsWith(absoluteImagesFolder) ?
+                absoluteImagesFolder.relativize(absolutePath) : Paths.get(uniqueId).resolve(absolutePath.getFileName());
+        return claimDirectory.resolve(relativePath);
+    }
+
+    /**
+     * Groups image paths into image triplets while they are being listed.
+     */
+    private final class ImageTripletSpliterator extends Spliterators.AbstractSpliterator<ImageTriplet> {
+
+        private final Iterator<Path> imagePaths;
+
+        private final PresenceStrategy.Validator presenceStrategy;
+
+        private final Map<String, ImageTriplet> incompleteImageTriplets = new HashMap<>();
+
+        private final LongHashSet handedOffUniqueIds = new LongHashSet();
+
+        private Iterator<ImageTriplet> remainingImageTriplets;
+
+        ImageTripletSpliterator(Iterator<Path> imagePaths, PresenceStrategy.Validator presenceStrategy) {
+            super(Long.MAX_VALUE, Spliterator.DISTINCT | Spliterator.NONNULL);
+            this.imagePaths = imagePaths;
+            this.presenceStrategy = presenceStrategy;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super ImageTriplet> action) {
+            while (imagePaths.hasNext()) {
+                Path imagePath = imagePaths.next();
+                ImageTriplet imageTriplet = appendToImageTriplets(imagePath, incompleteImageTriplets);
+                if (imageTriplet == null) {
+                    continue;
+                }
+                String uniqueId = imageTriplet.getUniqueId();
+                if (handedOffUniqueIds.contains(Hashing.hash64(uniqueId))) {
+                    logger.warn("Skipping image {}. The image triplet with ID {} was already handed off.", imagePath,
+                            uniqueId);
+                    incompleteImageTriplets.remove(uniqueId);
+                    invalidUniqueIds.add(uniqueId);
+                } else if (imageTriplet.hasIdFrontImagePath() && imageTriplet.hasIdBackImagePath() &&
+                        imageTriplet.hasFaceImagePath() && imageTriplet.conformsTo(presenceStrategy)) {
+                    incompleteImageTriplets.remove(uniqueId);
+                    handedOffUniqueIds.add(Hashing.hash64(uniqueId));
+                    action.accept(imageTriplet);
+                    return true;
+                }
+            }
+            if (remainingImageTriplets == null) {
+                remainingImageTriplets = new ArrayList<>(incompleteImageTriplets.values()).iterator();
+                incompleteImageTriplets.clear();
+            }
+            if (remainingImageTriplets.hasNext()) {
+                action.accept(remainingImageTriplets.next());
+                return true;
+            }
+            return false;
+        }
+    }
 }
@@ -0,0 +1,218 @@
+/*
+ * Jumio Inc.
+ *
+ * Copyright (C) 2018
+ * All rights reserved.
+ */
+package com.jumio.netverify.domain;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Result of scanning the image folder, kept in a file between runs.
+ * <p>
+ * For each image name, the parsed unique ID and role are kept, so names seen before are not parsed and classified
+ * again. IDs whose images were skipped are kept together with the reason, so they are not logged again as long as the
+ * reason stays the same. If the image folder is unchanged, they are skipped without being checked again.
+ * <p>
+ * The last modified time of the image folder is kept as well. It changes whenever a file in the folder is created,
+ * deleted or renamed, so if it is unchanged, the cached image names are used without listing the folder. File systems
+ * store it with a coarse resolution, down to two seconds, so it is only recorded if it lies well before the scan
+ * started. Otherwise a file created right after the scan could go unnoticed.
+ * <p>
+ * The cache is discarded if the image folder or the image name settings changed, or if it can't be read.
+ */
+final class ScanCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(ScanCache.class);
+
+    private static final int MAGIC = 0x4a534331;
+
+    private static final long TIMESTAMP_RESOLUTION_MILLIS = 2000;
+
+    private static final long UNKNOWN_MODIFIED_TIME = -1;
+
+    private static final byte UNPARSEABLE = -2;
+
+    private static final byte UNKNOWN_ROLE = -1;
+
+    private final String key;
+
+    private final Map<String, Entry> entries;
+
+    private final Map<String, String> rejections;
+
+    private long folderModifiedMillis = UNKNOWN_MODIFIED_TIME;
+
+    /**
+     * @param key Identifies the image folder and the image name settings the scan was made with.
+     */
+    ScanCache(String key) {
+        this.key = key;
+        this.entries = new LinkedHashMap<>();
+        this.rejections = new HashMap<>();
+    }
+
+    /**
+     * Reads the cache written by a previous run.
+     *
+     * @param cacheFile The cache file.
+     * @param key Identifies the current image folder and image name settings.
+     * @return The cached scan, or an empty cache if there is none or it was made with other settings.
+     */
+    static ScanCache load(Path cacheFile, String key) {
+        ScanCache scanCache = new ScanCache(key);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(cacheFile)))) {
+            if (in.readInt() != MAGIC || !key.equals(in.readUTF())) {
+                logger.info("Ignoring scan cache {} made with other settings", cacheFile);
+                return scanCache;
+            }
+            long folderModifiedMillis = in.readLong();
+            int entryCount = in.readInt();
+            for (int i = 0; i < entryCount; i++) {
+                String imageName = in.readUTF();
+                byte role = in.readByte();
+                scanCache.entries.put(imageName, role == UNPARSEABLE ? Entry.UNPARSEABLE :
+                        new Entry(in.readUTF(), role == UNKNOWN_ROLE ? null : ImageNameClassifier.Role.values()[role]));
+            }
+            int rejectionCount = in.readInt();
+            for (int i = 0; i < rejectionCount; i++) {
+                scanCache.rejections.put(in.readUTF(), in.readUTF());
+            }
+            scanCache.folderModifiedMillis = folderModifiedMillis;
+            logger.debug("Loaded {} image names from scan cache {}", entryCount, cacheFile);
+        } catch (NoSuchFileException nsfe) {
+            logger.debug("No scan cache at {}", cacheFile);
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Ignoring unreadable scan cache {}: {}", cacheFile, e.toString());
+            scanCache.entries.clear();
+            scanCache.rejections.clear();
+        }
+        return scanCache;
+    }
+
+    /**
+     * Writes the cache to a temporary file first and then replaces the cache file, so a crash doesn't leave a
+     * truncated cache behind.
+     *
+     * @param cacheFile The cache file.
+     */
+    void save(Path cacheFile) throws IOException {
+        Path absoluteCacheFile = cacheFile.toAbsolutePath();
+        Path tempFile = absoluteCacheFile.resolveSibling(absoluteCacheFile.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+            out.writeInt(MAGIC);
+            out.writeUTF(key);
+            out.writeLong(folderModifiedMillis);
+            out.writeInt(entries.size());
+            for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                out.writeUTF(entry.getKey());
+                Entry scanned = entry.getValue();
+                if (scanned == Entry.UNPARSEABLE) {
+                    out.writeByte(UNPARSEABLE);
+                } else {
+                    out.writeByte(scanned.role == null ? UNKNOWN_ROLE : scanned.role.ordinal());
+                    out.writeUTF(scanned.uniqueId);
+                }
+            }
+            out.writeInt(rejections.size());
+            for (Map.Entry<String, String> rejection : rejections.entrySet()) {
+                out.writeUTF(rejection.getKey());
+                out.writeUTF(rejection.getValue());
+            }
+        }
+        Files.move(tempFile, absoluteCacheFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Tells whether the cached image names can be used instead of listing the image folder.
+     *
+     * @param currentFolderModifiedMillis The current last modified time of the image folder.
+     * @return See above.
+     */
+    boolean isUnchanged(long currentFolderModifiedMillis) {
+        return folderModifiedMillis != UNKNOWN_MODIFIED_TIME && folderModifiedMillis == currentFolderModifiedMillis;
+    }
+
+    /**
+     * @param modifiedMillis The last modified time of the image folder, read before it was listed.
+     * @param scanStartMillis The time the scan started.
+     */
+    void setFolderModified(long modifiedMillis, long scanStartMillis) {
+        folderModifiedMillis = modifiedMillis < scanStartMillis - TIMESTAMP_RESOLUTION_MILLIS ? modifiedMillis :
+                UNKNOWN_MODIFIED_TIME;
+    }
+
+    String getKey() {
+        return key;
+    }
+
+    Collection<String> getImageNames() {
+        return entries.keySet();
+    }
+
+    Entry get(String imageName) {
+        return entries.get(imageName);
+    }
+
+    void put(String imageName, Entry entry) {
+        entries.put(imageName, entry);
+    }
+
+    Collection<String> getRejectedUniqueIds() {
+        return rejections.keySet();
+    }
+
+    String getRejection(String uniqueId) {
+        return rejections.get(uniqueId);
+    }
+
+    void reject(String uniqueId, String reason) {
+        if (reason != null) {
+            rejections.put(uniqueId, reason);
+        }
+    }
+
+    /**
+     * The parsed name of an image.
+     */
+    static final class Entry {
+
+        static final Entry UNPARSEABLE = new Entry(null, null);
+
+        private final String uniqueId;
+
+        private final ImageNameClassifier.Role role;
+
+        /**
+         * @param uniqueId The unique image triplet ID.
+         * @param role The role of the image or {@code null} if the classifier is unknown.
+         */
+        Entry(String uniqueId, ImageNameClassifier.Role role) {
+            this.uniqueId = uniqueId;
+            this.role = role;
+        }
+
+        String getUniqueId() {
+            return uniqueId;
+        }
+
+        ImageNameClassifier.Role getRole() {
+            return role;
+        }
+    }
+}
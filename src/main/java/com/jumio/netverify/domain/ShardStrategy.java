@@ -0,0 +1,62 @@
+/*
+ * Jumio Inc.
+ *
+ * Copyright (C) 2018
+ * All rights reserved.
+ */
+package com.jumio.netverify.domain;
+
+import com.jumio.netverify.util.Hashing;
+
+/**
+ * Assignment of image triplets to shards, so that several instances can process the same image folder without
+ * coordinating with each other.
+ * <p>
+ * Each image triplet is assigned by the 64-bit hash of its unique ID. The hash is stable across JVM runs and hosts, so
+ * every instance configured with the same shard count agrees on the assignment, and evenly distributed, so each shard
+ * receives about the same number of image triplets.
+ */
+public enum ShardStrategy {
+
+    /**
+     * The hash modulo the shard count. Changing the shard count reassigns most image triplets.
+     */
+    MODULO {
+        @Override
+        int shardOf(long hash, int shardCount) {
+            return (int) Long.remainderUnsigned(hash, shardCount);
+        }
+    },
+
+    /**
+     * Jump consistent hashing (Lamping and Veach). Adding an n-th shard only moves the 1/n of the image triplets that
+     * now belong to it, all others stay where they were.
+     */
+    CONSISTENT {
+        @Override
+        int shardOf(long hash, int shardCount) {
+            long key = hash;
+            long shard = -1;
+            long next = 0;
+            while (next < shardCount) {
+                shard = next;
+                key = key * 2862933555777941757L + 1;
+                next = (long) ((shard + 1) * ((double) (1L << 31) / (double) ((key >>> 33) + 1)));
+            }
+            return (int) shard;
+        }
+    };
+
+    /**
+     * Assigns an image triplet to a shard.
+     *
+     * @param uniqueId The unique image triplet ID.
+     * @param shardCount The number of shards, at least 1.
+     * @return The shard index, between 0 and {@code shardCount - 1}.
+     */
+    public int shardOf(String uniqueId, int shardCount) {
+        return shardOf(Hashing.hash64(uniqueId), shardCount);
+    }
+
+    abstract int shardOf(long hash, int shardCount);
+}
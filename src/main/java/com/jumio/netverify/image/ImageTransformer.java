@@ -0,0 +1,180 @@
+/*
+ * Jumio Inc.
+ *
+ * Copyright (C) 2018
+ * All rights reserved.
+ */
+package com.jumio.netverify.image;
+
+import com.jumio.netverify.ConfigurationContext;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.Assert;
+
+/**
+ * Shrinks images before they are uploaded.
+ * <p>
+ * An image is left as it is if it is small enough, both in bytes and in pixels. Only the image header is read to find
+ * out. Otherwise it is scaled down to fit into {@code images.transform.maxDimension} and written as a JPEG of the
+ * configured quality into a temporary file. PNGs are converted as well, transparent areas become white. If the result
+ * is still larger than {@code images.transform.maxBytes}, the quality is lowered step by step, and then the resolution.
+ * <p>
+ * Instances are stateless and can be shared by multiple threads.
+ */
+public final class ImageTransformer {
+
+    private static final Logger logger = LoggerFactory.getLogger(ImageTransformer.class);
+
+    private static final float MIN_QUALITY = 0.5f;
+
+    private static final float QUALITY_STEP = 0.1f;
+
+    private static final double SCALE_STEP = 0.75;
+
+    private static final int MIN_DIMENSION = 200;
+
+    private final int maxDimension;
+
+    private final long maxBytes;
+
+    private final float quality;
+
+    public ImageTransformer(ConfigurationContext configuration) {
+        Assert.notNull(configuration, "Configuration context cannot be null!");
+        this.maxDimension = Math.max(MIN_DIMENSION, configuration.getImagesTransformMaxDimension());
+        this.maxBytes = configuration.getImagesTransformMaxBytes();
+        this.quality = (float) Math.min(1, Math.max(MIN_QUALITY, configuration.getImagesTransformJpegQuality()));
+    }
+
+    /**
+     * Shrinks an image if it exceeds the configured limits.
+     *
+     * @param image The path of the original image.
+     * @return The path of the original image if it doesn't need to be shrunk or is not a readable image. Otherwise the
+     * path of a temporary JPEG file, which has to be deleted by the caller.
+     * @throws IOException If the image cannot be read or the temporary file cannot be written.
+     */
+    public Path transform(Path image) throws IOException {
+        long originalBytes = Files.size(image);
+        int[] dimensions = readDimensions(image);
+        if (dimensions == null) {
+            logger.warn("Cannot read image {}. Sending it as it is.", image);
+            return image;
+        }
+        if (originalBytes <= maxBytes && Math.max(dimensions[0], dimensions[1]) <= maxDimension) {
+            return image;
+        }
+        BufferedImage original = ImageIO.read(image.toFile());
+        if (original == null) {
+            logger.warn("Cannot decode image {}. Sending it as it is.", image);
+            return image;
+        }
+        byte[] jpeg = shrink(original);
+        Path transformed = Files.createTempFile("clinv-", ".jpg");
+        Files.write(transformed, jpeg);
+        logger.debug("Shrunk {} from {} to {} bytes", image, originalBytes, jpeg.length);
+        return transformed;
+    }
+
+    private byte[] shrink(BufferedImage original) throws IOException {
+        double scale = Math.min(1, (double) maxDimension / Math.max(original.getWidth(), original.getHeight()));
+        while (true) {
+            BufferedImage scaled = scale(original, scale);
+            for (float currentQuality = quality; ; currentQuality -= QUALITY_STEP) {
+                byte[] jpeg = writeJpeg(scaled, currentQuality);
+                if (jpeg.length <= maxBytes || Math.max(scaled.getWidth(), scaled.getHeight()) <= MIN_DIMENSION) {
+                    return jpeg;
+                }
+                if (currentQuality - QUALITY_STEP < MIN_QUALITY) {
+                    break;
+                }
+            }
+            scale *= SCALE_STEP;
+        }
+    }
+
+    /**
+     * Scales an image into an RGB image without alpha channel, halving the size repeatedly for large factors, which
+     * keeps bilinear interpolation from skipping pixels.
+     */
+    private static BufferedImage scale(BufferedImage image, double scale) {
+        int targetWidth = Math.max(1, (int) Math.round(image.getWidth() * scale));
+        int targetHeight = Math.max(1, (int) Math.round(image.getHeight() * scale));
+        BufferedImage current = image;
+        do {
+            int width = Math.max(targetWidth, current.getWidth() / 2);
+            int height = Math.max(targetHeight, current.getHeight() / 2);
+            if (current != image || width != image.getWidth() || height != image.getHeight() ||
+                    image.getType() != BufferedImage.TYPE_INT_RGB) {
+                current = draw(current, width, height);
+            }
+        } while (current.getWidth() > targetWidth || current.getHeight() > targetHeight);
+        return current;
+    }
+
+    private static BufferedImage draw(BufferedImage source, int width, int height) {
+        BufferedImage target = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = target.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.setColor(Color.WHITE);
+            graphics.fillRect(0, 0, width, height);
+            graphics.drawImage(source, 0, 0, width, height, null);
+        } finally {
+            graphics.dispose();
+        }
+        return target;
+    }
+
+    private static byte[] writeJpeg(BufferedImage image, float quality) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ByteArrayOutputStream jpeg = new ByteArrayOutputStream();
+        try (ImageOutputStream output = ImageIO.createImageOutputStream(jpeg)) {
+            writer.setOutput(output);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(quality);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return jpeg.toByteArray();
+    }
+
+    /**
+     * Reads the width and height from the image header without decoding the image.
+     *
+     * @return The width and height, or {@code null} if the format isn't supported.
+     */
+    private static int[] readDimensions(Path image) throws IOException {
+        try (ImageInputStream input = ImageIO.createImageInputStream(image.toFile())) {
+            Iterator<ImageReader> readers = input == null ? null : ImageIO.getImageReaders(input);
+            if (readers == null || !readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                return new int[]{reader.getWidth(0), reader.getHeight(0)};
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Jumio Inc.
+ *
+ * Copyright (C) 2018
+ * All rights reserved.
+ */
+package com.jumio.netverify.journal;
+
+import com.jumio.netverify.util.Hashing;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Fingerprints of the image contents of an image triplet, regardless of the file names.
+ * <p>
+ * The prefilter key only reads the size and the first and last 64 KB of each image, so it is cheap to calculate. The
+ * content hash is a SHA-256 over all bytes, read in chunks. Both include the position of each image within the
+ * triplet, so swapping the front and back image results in a different fingerprint.
+ */
+public final class ContentFingerprint {
+
+    private static final int CHUNK_BYTES = 64 * 1024;
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private ContentFingerprint() {
+    }
+
+    /**
+     * Calculates a 64-bit key from the size, the beginning and the end of each image.
+     *
+     * @param images The images of an image triplet. Missing images are {@code null}.
+     * @return A key that is equal for identical images and most likely different otherwise.
+     */
+    public static long prefilterKey(Path... images) throws IOException {
+        long key = Hashing.hash64Seed();
+        ByteBuffer buffer = ByteBuffer.allocate(CHUNK_BYTES);
+        for (Path image : images) {
+            long imageHash = 0;
+            if (image != null) {
+                try (FileChannel channel = FileChannel.open(image, StandardOpenOption.READ)) {
+                    long size = channel.size();
+                    imageHash = hashRange(Hashing.hash64Seed() ^ size, channel, 0, buffer);
+                    if (size > CHUNK_BYTES) {
+                        imageHash = hashRange(imageHash, channel, Math.max(CHUNK_BYTES, size - CHUNK_BYTES), buffer);
+                    }
+                }
+            }
+            key = Hashing.mix64(key * 31 + imageHash);
+        }
+        return key;
+    }
+
+    /**
+     * Calculates the SHA-256 hash of all images.
+     *
+     * @param images The images of an image triplet. Missing images are {@code null}.
+     * @return The hash as lower case hexadecimal string.
+     */
+    public static String contentHash(Path... images) throws IOException {
+        MessageDigest digest = sha256();
+        ByteBuffer buffer = ByteBuffer.allocate(CHUNK_BYTES);
+        for (Path image : images) {
+            if (image == null) {
+                digest.update((byte) 0);
+                continue;
+            }
+            digest.update((byte) 1);
+            try (FileChannel channel = FileChannel.open(image, StandardOpenOption.READ)) {
+                buffer.clear();
+                buffer.putLong(channel.size()).flip();
+                digest.update(buffer);
+                buffer.clear();
+                while (channel.read(buffer) >= 0) {
+                    buffer.flip();
+                    digest.update(buffer);
+                    buffer.clear();
+                }
+            }
+        }
+        return toHex(digest.digest());
+    }
+
+    private static long hashRange(long hash, FileChannel channel, long position, ByteBuffer buffer)
+            throws IOException {
+        buffer.clear();
+        while (buffer.hasRemaining() && channel.read(buffer, position + buffer.position()) >= 0) {
+            // Keep reading until the chunk is full or the end of the file is reached
+        }
+        buffer.flip();
+        return Hashing.hash64(hash, buffer);
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException nsae) {
+            throw new IllegalStateException("SHA-256 is not supported!", nsae);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        char[] hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            hex[2 * i] = HEX_DIGITS[(bytes[i] >> 4) & 0xf];
+            hex[2 * i + 1] = HEX_DIGITS[bytes[i] & 0xf];
+        }
+        return new String(hex);
+    }
+}
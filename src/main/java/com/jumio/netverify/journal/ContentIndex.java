@@ -0,0 +1,238 @@
+/*
+ * Jumio Inc.
+ *
+ * Copyright (C) 2018
+ * All rights reserved.
+ */
+package com.jumio.netverify.journal;
+
+import com.jumio.netverify.ConfigurationContext;
+import com.jumio.netverify.util.LongLongHashMap;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.Assert;
+import org.springframework.util.StringUtils;
+
+/**
+ * Persistent index of the image contents submitted so far, used to detect image triplets that were already sent
+ * under a different unique ID.
+ * <p>
+ * Each submission is appended as one tab-separated line:
+ * <pre>
+ * prefilterKey  contentHash  jumioIdScanReference  merchantIdScanReference
+ * </pre>
+ * Only the {@link ContentFingerprint#prefilterKey(Path...) prefilter keys} are kept in memory, mapped to the offset of
+ * their record in a {@link LongLongHashMap}, which takes a few dozen bytes per entry. If a prefilter key is known, the
+ * record is read from the file and its {@link ContentFingerprint#contentHash(Path...) content hash} is compared, so
+ * only byte-identical image triplets are reported as duplicates.
+ * <p>
+ * Different contents may share a prefilter key, e.g. images that only differ after their first bytes. Their records
+ * are chained: a second map links the offset of each such record to the offset of the next one with the same key.
+ * As collisions are rare, the chains are short and the second map stays small.
+ * <p>
+ * The index is only forced to disk when it is closed. Records lost in a crash just mean that those images aren't
+ * recognized again. A record cut off by a crash is removed when the index is opened, other malformed records are
+ * skipped.
+ */
+public final class ContentIndex implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(ContentIndex.class);
+
+    private static final char SEPARATOR = '\t';
+
+    private static final long NOT_FOUND = -1L;
+
+    private static final int RECORD_CHUNK_BYTES = 512;
+
+    private final Path indexFile;
+
+    private final FileChannel channel;
+
+    private final LongLongHashMap recordOffsets;
+
+    private final LongLongHashMap nextOffsets;
+
+    private ContentIndex(Path indexFile, FileChannel channel, LongLongHashMap recordOffsets,
+            LongLongHashMap nextOffsets) {
+        this.indexFile = indexFile;
+        this.channel = channel;
+        this.recordOffsets = recordOffsets;
+        this.nextOffsets = nextOffsets;
+    }
+
+    /**
+     * Opens the index configured by {@code dedup.indexFile} and loads the existing records.
+     *
+     * @param configuration The configuration context providing the index settings.
+     * @return An open index, or a disabled index if no index file is configured.
+     */
+    public static ContentIndex open(ConfigurationContext configuration) throws IOException {
+        Assert.notNull(configuration, "Configuration context cannot be null!");
+        if (!StringUtils.hasText(configuration.getDedupIndexFile())) {
+            return disabled();
+        }
+        Path indexFile = Paths.get(configuration.getDedupIndexFile());
+        LongLongHashMap recordOffsets = new LongLongHashMap();
+        LongLongHashMap nextOffsets = new LongLongHashMap(16);
+        if (Files.exists(indexFile)) {
+            RecordFiles.truncateTornTail(indexFile);
+            load(indexFile, recordOffsets, nextOffsets);
+        }
+        FileChannel channel = FileChannel.open(indexFile, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        logger.info("Using content index {}", indexFile);
+        return new ContentIndex(indexFile, channel, recordOffsets, nextOffsets);
+    }
+
+    /**
+     * Creates an index that doesn't record anything and doesn't know any content.
+     *
+     * @return See above.
+     */
+    public static ContentIndex disabled() {
+        return new ContentIndex(null, null, new LongLongHashMap(16), new LongLongHashMap(16));
+    }
+
+    private static void load(Path indexFile, LongLongHashMap recordOffsets, LongLongHashMap nextOffsets)
+            throws IOException {
+        long offset = 0;
+        try (BufferedReader reader = Files.newBufferedReader(indexFile, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                long recordOffset = offset;
+                offset += line.getBytes(StandardCharsets.UTF_8).length + 1;
+                int separator = line.indexOf(SEPARATOR);
+                long prefilterKey;
+                try {
+                    prefilterKey = Long.parseUnsignedLong(line.substring(0, Math.max(0, separator)), 16);
+                } catch (NumberFormatException nfe) {
+                    logger.warn("Skipping malformed content index record: {}", line);
+                    continue;
+                }
+                if (!recordOffsets.putIfAbsent(prefilterKey, recordOffset)) {
+                    nextOffsets.putIfAbsent(lastOffset(recordOffsets.get(prefilterKey, NOT_FOUND), nextOffsets),
+                            recordOffset);
+                }
+            }
+        }
+        logger.info("Loaded {} content index records", recordOffsets.size());
+    }
+
+    public boolean isEnabled() {
+        return channel != null;
+    }
+
+    /**
+     * Tells whether images with the given prefilter key may have been submitted before. This is only a cheap
+     * in-memory check, use {@link #lookup(long, String)} to confirm.
+     *
+     * @param prefilterKey The prefilter key of the image triplet.
+     * @return {@code false} if the images were definitely not submitted before.
+     */
+    public synchronized boolean mightContain(long prefilterKey) {
+        return recordOffsets.containsKey(prefilterKey);
+    }
+
+    /**
+     * Looks up an earlier submission of identical images.
+     *
+     * @param prefilterKey The prefilter key of the image triplet.
+     * @param contentHash The content hash of the image triplet.
+     * @return The Jumio scan reference of the earlier submission, or {@code null} if there was none.
+     */
+    public synchronized String lookup(long prefilterKey, String contentHash) {
+        for (long offset = recordOffsets.get(prefilterKey, NOT_FOUND); offset != NOT_FOUND;
+                offset = nextOffsets.get(offset, NOT_FOUND)) {
+            String[] fields = readRecord(offset).split(String.valueOf(SEPARATOR), 4);
+            if (fields.length == 4 && fields[1].equals(contentHash)) {
+                return fields[2];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Records a successful submission. Submissions without Jumio scan reference are not recorded, as there is nothing
+     * to link duplicates to.
+     *
+     * @param prefilterKey The prefilter key of the image triplet.
+     * @param contentHash The content hash of the image triplet.
+     * @param jumioIdScanReference The Jumio scan reference returned by the API.
+     * @param uniqueId The unique image triplet ID.
+     */
+    public synchronized void record(long prefilterKey, String contentHash, String jumioIdScanReference,
+            String uniqueId) {
+        if (channel == null || !StringUtils.hasText(jumioIdScanReference) ||
+                lookup(prefilterKey, contentHash) != null) {
+            return;
+        }
+        String record = Long.toHexString(prefilterKey) + SEPARATOR + contentHash + SEPARATOR + jumioIdScanReference +
+                SEPARATOR + uniqueId + '\n';
+        try {
+            long offset = channel.size();
+            ByteBuffer buffer = ByteBuffer.wrap(record.getBytes(StandardCharsets.UTF_8));
+            while (buffer.hasRemaining()) {
+                channel.write(buffer, offset + buffer.position());
+            }
+            if (!recordOffsets.putIfAbsent(prefilterKey, offset)) {
+                nextOffsets.putIfAbsent(lastOffset(recordOffsets.get(prefilterKey, NOT_FOUND), nextOffsets), offset);
+            }
+        } catch (IOException ioe) {
+            throw new UncheckedIOException("Error writing to content index " + indexFile, ioe);
+        }
+    }
+
+    /**
+     * Follows the chain of records sharing a prefilter key to its end.
+     */
+    private static long lastOffset(long offset, LongLongHashMap nextOffsets) {
+        for (long next = nextOffsets.get(offset, NOT_FOUND); next != NOT_FOUND;
+                next = nextOffsets.get(offset, NOT_FOUND)) {
+            offset = next;
+        }
+        return offset;
+    }
+
+    private String readRecord(long offset) {
+        ByteArrayOutputStream record = new ByteArrayOutputStream(RECORD_CHUNK_BYTES);
+        ByteBuffer buffer = ByteBuffer.allocate(RECORD_CHUNK_BYTES);
+        try {
+            long position = offset;
+            while (channel.read(buffer, position) > 0) {
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    byte b = buffer.get();
+                    if (b == '\n') {
+                        return new String(record.toByteArray(), StandardCharsets.UTF_8);
+                    }
+                    record.write(b);
+                }
+                position += buffer.limit();
+                buffer.clear();
+            }
+            return new String(record.toByteArray(), StandardCharsets.UTF_8);
+        } catch (IOException ioe) {
+            throw new UncheckedIOException("Error reading content index " + indexFile, ioe);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (channel != null && channel.isOpen()) {
+            channel.force(false);
+            channel.close();
+        }
+    }
+}
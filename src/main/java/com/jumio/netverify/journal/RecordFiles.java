@@ -0,0 +1,68 @@
+/*
+ * Jumio Inc.
+ *
+ * Copyright (C) 2018
+ * All rights reserved.
+ */
+package com.jumio.netverify.journal;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Helpers for the append-only files of line records written by the journal classes.
+ */
+final class RecordFiles {
+
+    private static final Logger logger = LoggerFactory.getLogger(RecordFiles.class);
+
+    private static final int CHUNK_BYTES = 4096;
+
+    private RecordFiles() {
+    }
+
+    /**
+     * Cuts off a record that was only partly written when the previous run died, i.e. everything after the last line
+     * break. Otherwise the next record would be appended to it and both would be lost.
+     *
+     * @param file The existing record file.
+     */
+    static void truncateTornTail(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long size = channel.size();
+            long end = lastLineEnd(channel, size);
+            if (end < size) {
+                logger.warn("Dropping {} bytes of an incomplete record at the end of {}", size - end, file);
+                channel.truncate(end);
+            }
+        }
+    }
+
+    /**
+     * Finds the position right after the last line break, or 0 if there is none.
+     */
+    private static long lastLineEnd(FileChannel channel, long size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(CHUNK_BYTES);
+        long chunkEnd = size;
+        while (chunkEnd > 0) {
+            long chunkStart = Math.max(0, chunkEnd - CHUNK_BYTES);
+            buffer.clear();
+            buffer.limit((int) (chunkEnd - chunkStart));
+            while (buffer.hasRemaining() && channel.read(buffer, chunkStart + buffer.position()) > 0) {
+                // Read the whole chunk.
+            }
+            for (int i = buffer.position() - 1; i >= 0; i--) {
+                if (buffer.get(i) == '\n') {
+                    return chunkStart + i + 1;
+                }
+            }
+            chunkEnd = chunkStart;
+        }
+        return 0;
+    }
+}
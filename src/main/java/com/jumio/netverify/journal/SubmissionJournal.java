@@ -0,0 +1,216 @@
+/*
+ * Jumio Inc.
+ *
+ * Copyright (C) 2018
+ * All rights reserved.
+ */
+package com.jumio.netverify.journal;
+
+import com.jumio.netverify.ConfigurationContext;
+import com.jumio.netverify.util.Hashing;
+import com.jumio.netverify.util.LongHashSet;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.Set;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.Assert;
+import org.springframework.util.StringUtils;
+
+/**
+ * Append-only record of API submissions, keyed by the merchant scan reference (the unique image triplet ID).
+ * <p>
+ * Before a request is sent, a {@link State#SENDING} record is written. Once the response arrives, it is followed by
+ * either a {@link State#SUBMITTED} record holding the Jumio scan reference or a {@link State#FAILED} record. Each
+ * record is one tab-separated line:
+ * <pre>
+ * STATE  timestamp  jumioIdScanReference  merchantIdScanReference
+ * </pre>
+ * Records are handed to the operating system immediately, so they survive the JVM dying. They are only forced to disk
+ * every {@code journal.syncEvery} records and when the journal is closed. A record cut off by a crash is removed when
+ * the journal is opened again.
+ * <p>
+ * When resuming, the existing journal is read line by line. Submitted IDs are kept as 64-bit hashes in a
+ * {@link LongHashSet}, so the lookup is O(1) and tens of millions of entries fit in a few hundred megabytes. The chance
+ * of two IDs sharing a hash is negligible at that size. IDs that were being sent when the previous run died are kept
+ * as strings, as there are at most a few of them.
+ */
+public final class SubmissionJournal implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(SubmissionJournal.class);
+
+    private static final char SEPARATOR = '\t';
+
+    private static final String NO_REFERENCE = "-";
+
+    private final Path journalFile;
+
+    private final FileChannel channel;
+
+    private final int syncEvery;
+
+    private final LongHashSet submittedIds;
+
+    private final Set<String> inDoubtIds;
+
+    private int unsyncedRecords;
+
+    private SubmissionJournal(Path journalFile, FileChannel channel, int syncEvery, LongHashSet submittedIds,
+            Set<String> inDoubtIds) {
+        this.journalFile = journalFile;
+        this.channel = channel;
+        this.syncEvery = Math.max(1, syncEvery);
+        this.submittedIds = submittedIds;
+        this.inDoubtIds = inDoubtIds;
+    }
+
+    /**
+     * Opens the journal configured by {@code journal.file}. If resuming is enabled, the existing records are loaded
+     * first.
+     *
+     * @param configuration The configuration context providing the journal settings.
+     * @return An open journal, or a disabled journal if no journal file is configured.
+     */
+    public static SubmissionJournal open(ConfigurationContext configuration) throws IOException {
+        Assert.notNull(configuration, "Configuration context cannot be null!");
+        if (!StringUtils.hasText(configuration.getJournalFile())) {
+            if (configuration.isJournalResume()) {
+                logger.warn("Cannot resume without a journal file. Sending all images.");
+            }
+            return disabled();
+        }
+        Path journalFile = Paths.get(configuration.getJournalFile());
+        LongHashSet submittedIds = new LongHashSet();
+        Set<String> inDoubtIds = new HashSet<>();
+        if (Files.exists(journalFile)) {
+            RecordFiles.truncateTornTail(journalFile);
+            if (configuration.isJournalResume()) {
+                load(journalFile, submittedIds, inDoubtIds);
+            }
+        }
+        FileChannel channel = FileChannel.open(journalFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+        logger.info("Writing submission journal to {}", journalFile);
+        return new SubmissionJournal(journalFile, channel, configuration.getJournalSyncEvery(), submittedIds,
+                inDoubtIds);
+    }
+
+    /**
+     * Creates a journal that doesn't record anything and doesn't know any submission.
+     *
+     * @return See above.
+     */
+    public static SubmissionJournal disabled() {
+        return new SubmissionJournal(null, null, 1, new LongHashSet(16), new HashSet<>());
+    }
+
+    private static void load(Path journalFile, LongHashSet submittedIds, Set<String> inDoubtIds) throws IOException {
+        long records = 0;
+        try (BufferedReader reader = Files.newBufferedReader(journalFile, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split(String.valueOf(SEPARATOR), 4);
+                if (fields.length < 4) {
+                    logger.warn("Skipping incomplete journal record: {}", line);
+                    continue;
+                }
+                State state;
+                try {
+                    state = State.valueOf(fields[0]);
+                } catch (IllegalArgumentException iae) {
+                    logger.warn("Skipping journal record with unknown state: {}", line);
+                    continue;
+                }
+                String uniqueId = fields[3];
+                switch (state) {
+                    case SENDING:
+                        inDoubtIds.add(uniqueId);
+                        break;
+                    case SUBMITTED:
+                        inDoubtIds.remove(uniqueId);
+                        submittedIds.add(Hashing.hash64(uniqueId));
+                        break;
+                    case FAILED:
+                        inDoubtIds.remove(uniqueId);
+                        break;
+                }
+                records++;
+            }
+        }
+        inDoubtIds.removeIf(uniqueId -> submittedIds.contains(Hashing.hash64(uniqueId)));
+        logger.info("Resuming from {} journal records. Already submitted: {}", records, submittedIds.size());
+        for (String uniqueId : inDoubtIds) {
+            logger.warn("Request for ID {} was interrupted. It may have been submitted.", uniqueId);
+        }
+    }
+
+    /**
+     * Looks up what happened to an image triplet in previous runs. Always {@link State#UNKNOWN} unless resuming.
+     *
+     * @param uniqueId The unique image triplet ID.
+     * @return {@link State#SUBMITTED}, {@link State#SENDING} if the outcome is unknown, or {@link State#UNKNOWN}.
+     */
+    public synchronized State lookup(String uniqueId) {
+        if (submittedIds.contains(Hashing.hash64(uniqueId))) {
+            return State.SUBMITTED;
+        }
+        return inDoubtIds.contains(uniqueId) ? State.SENDING : State.UNKNOWN;
+    }
+
+    public void recordSending(String uniqueId) {
+        append(State.SENDING, uniqueId, null);
+    }
+
+    public void recordSubmitted(String uniqueId, String jumioIdScanReference) {
+        append(State.SUBMITTED, uniqueId, jumioIdScanReference);
+    }
+
+    public void recordFailed(String uniqueId) {
+        append(State.FAILED, uniqueId, null);
+    }
+
+    private synchronized void append(State state, String uniqueId, String jumioIdScanReference) {
+        if (channel == null) {
+            return;
+        }
+        String record = state.name() + SEPARATOR + System.currentTimeMillis() + SEPARATOR +
+                (StringUtils.hasText(jumioIdScanReference) ? jumioIdScanReference : NO_REFERENCE) + SEPARATOR +
+                uniqueId + '\n';
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(record.getBytes(StandardCharsets.UTF_8));
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            if (++unsyncedRecords >= syncEvery) {
+                sync();
+            }
+        } catch (IOException ioe) {
+            throw new UncheckedIOException("Error writing to journal " + journalFile, ioe);
+        }
+    }
+
+    private void sync() throws IOException {
+        channel.force(false);
+        unsyncedRecords = 0;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (channel != null && channel.isOpen()) {
+            sync();
+            channel.close();
+        }
+    }
+
+    public enum State {UNKNOWN, SENDING, SUBMITTED, FAILED}
+}
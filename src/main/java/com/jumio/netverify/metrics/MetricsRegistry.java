@@ -0,0 +1,164 @@
+/*
+ * Jumio Inc.
+ *
+ * Copyright (C) 2018
+ * All rights reserved.
+ */
+package com.jumio.netverify.metrics;
+
+import java.io.Closeable;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.util.Assert;
+
+/**
+ * In-process registry of counters, latency histograms and gauges.
+ * <p>
+ * Metrics are created on first lookup by name. Callers on the hot path should look them up once and keep the
+ * reference, recording is then lock-free and doesn't allocate. HTTP status codes are counted in a fixed array indexed
+ * by the code. Gauges are sampled when the summary is formatted.
+ * <p>
+ * The registry can log a summary periodically while the tool runs, see {@link #startReporting(long)}, and should log
+ * a final summary at the end of the run.
+ * <p>
+ * It also holds the {@link Tracer} recording the phases of each upload, if tracing is enabled.
+ */
+public final class MetricsRegistry implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(MetricsRegistry.class);
+
+    private static final int MAX_STATUS_CODE = 600;
+
+    private final long startNanos = System.nanoTime();
+
+    private final ConcurrentMap<String, LongAdder> counters = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<String, DoubleSupplier> gauges = new ConcurrentHashMap<>();
+
+    private final AtomicLongArray statusCodes = new AtomicLongArray(MAX_STATUS_CODE);
+
+    private final Tracer tracer = new Tracer();
+
+    private ScheduledExecutorService reporter;
+
+    public LongAdder counter(String name) {
+        Assert.hasText(name, "Metric name cannot be empty!");
+        return counters.computeIfAbsent(name, key -> new LongAdder());
+    }
+
+    public LatencyHistogram histogram(String name) {
+        Assert.hasText(name, "Metric name cannot be empty!");
+        return histograms.computeIfAbsent(name, key -> new LatencyHistogram());
+    }
+
+    /**
+     * Registers a gauge, replacing any gauge registered before under the same name.
+     *
+     * @param name The gauge name.
+     * @param gauge Supplies the current value.
+     */
+    public void gauge(String name, DoubleSupplier gauge) {
+        Assert.hasText(name, "Metric name cannot be empty!");
+        Assert.notNull(gauge, "Gauge cannot be null!");
+        gauges.put(name, gauge);
+    }
+
+    public double getGaugeValue(String name) {
+        DoubleSupplier gauge = gauges.get(name);
+        return gauge == null ? 0 : gauge.getAsDouble();
+    }
+
+    public Tracer getTracer() {
+        return tracer;
+    }
+
+    /**
+     * Counts a response by its HTTP status code. Codes outside of 0 to 599 are ignored.
+     *
+     * @param statusCode The HTTP status code.
+     */
+    public void recordStatusCode(int statusCode) {
+        if (statusCode >= 0 && statusCode < MAX_STATUS_CODE) {
+            statusCodes.incrementAndGet(statusCode);
+        }
+    }
+
+    public long getStatusCodeCount(int statusCode) {
+        return statusCode >= 0 && statusCode < MAX_STATUS_CODE ? statusCodes.get(statusCode) : 0;
+    }
+
+    /**
+     * Formats all metrics recorded so far. Rates are calculated over the time since the registry was created.
+     *
+     * @return A multi-line summary, one metric per line.
+     */
+    public String summary() {
+        double elapsedSeconds = (double) (System.nanoTime() - startNanos) / TimeUnit.SECONDS.toNanos(1);
+        StringBuilder summary = new StringBuilder(String.format("Metrics after %.1f s:", elapsedSeconds));
+        for (Map.Entry<String, LongAdder> counter : new TreeMap<>(counters).entrySet()) {
+            long value = counter.getValue().sum();
+            summary.append(String.format("%n  %s: %d (%.1f/s)", counter.getKey(), value,
+                    elapsedSeconds > 0 ? value / elapsedSeconds : 0));
+        }
+        for (Map.Entry<String, LatencyHistogram> histogram : new TreeMap<>(histograms).entrySet()) {
+            summary.append(String.format("%n  %s: %s", histogram.getKey(), histogram.getValue().summary()));
+        }
+        for (Map.Entry<String, DoubleSupplier> gauge : new TreeMap<>(gauges).entrySet()) {
+            double value = gauge.getValue().getAsDouble();
+            summary.append(String.format(value == Math.rint(value) ? "%n  %s: %.0f" : "%n  %s: %.2f", gauge.getKey(),
+                    value));
+        }
+        StringBuilder statusSummary = new StringBuilder();
+        for (int statusCode = 0; statusCode < MAX_STATUS_CODE; statusCode++) {
+            long count = statusCodes.get(statusCode);
+            if (count > 0) {
+                statusSummary.append(statusSummary.length() == 0 ? "" : ", ").append(statusCode).append('=')
+                        .append(count);
+            }
+        }
+        if (statusSummary.length() > 0) {
+            summary.append(String.format("%n  HTTP status codes: %s", statusSummary));
+        }
+        return summary.toString();
+    }
+
+    /**
+     * Logs the summary at a fixed interval on a daemon thread, until the registry is closed.
+     *
+     * @param intervalMillis The interval in milliseconds. Zero or less disables periodic reporting.
+     */
+    public synchronized void startReporting(long intervalMillis) {
+        if (intervalMillis <= 0 || reporter != null) {
+            return;
+        }
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("metrics-");
+        threadFactory.setDaemon(true);
+        reporter = Executors.newSingleThreadScheduledExecutor(threadFactory);
+        reporter.scheduleAtFixedRate(() -> logger.info(summary()), intervalMillis, intervalMillis,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops periodic reporting. Metrics can still be recorded and summarized afterwards.
+     */
+    @Override
+    public synchronized void close() {
+        if (reporter != null) {
+            reporter.shutdownNow();
+            reporter = null;
+        }
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Jumio Inc.
+ *
+ * Copyright (C) 2018
+ * All rights reserved.
+ */
+package com.jumio.netverify.metrics;
+
+import com.google.gson.stream.JsonWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.Assert;
+
+/**
+ * Records spans, i.e. when a phase of an upload started and how long it took, into a preallocated ring buffer and
+ * exports them as a Chrome trace ({@code trace_event} JSON). The trace can be opened in {@code chrome://tracing} or
+ * Perfetto, showing a timeline per thread.
+ * <p>
+ * Tracing is disabled until {@link #enable(int)} is called, recording a span is then a single volatile read. Once
+ * enabled, recording claims a slot with an atomic increment and writes its fields, without locking or allocating.
+ * When the buffer is full, the oldest spans are overwritten, so the memory used is fixed. The trace should be exported
+ * once the recording threads are done, a span recorded during the export may be torn.
+ */
+public final class Tracer {
+
+    private static final Logger logger = LoggerFactory.getLogger(Tracer.class);
+
+    private static final String CATEGORY = "upload";
+
+    private static final int PROCESS_ID = 1;
+
+    private final long originNanos = System.nanoTime();
+
+    private final ConcurrentMap<Long, String> threadNames = new ConcurrentHashMap<>();
+
+    private volatile SpanBuffer buffer;
+
+    /**
+     * Starts recording spans. Calling it again has no effect.
+     *
+     * @param capacity The number of spans kept, rounded up to a power of two.
+     */
+    public synchronized void enable(int capacity) {
+        Assert.isTrue(capacity > 0, "Trace buffer capacity must be positive!");
+        if (buffer == null) {
+            buffer = new SpanBuffer(capacity);
+        }
+    }
+
+    public boolean isEnabled() {
+        return buffer != null;
+    }
+
+    /**
+     * Records a span ending now.
+     *
+     * @param name The phase, e.g. {@code request}.
+     * @param id The unique image triplet ID the phase belongs to, or {@code null}.
+     * @param startNanos The start of the phase, as returned by {@link System#nanoTime()}.
+     */
+    public void span(String name, String id, long startNanos) {
+        SpanBuffer spans = buffer;
+        if (spans == null) {
+            return;
+        }
+        long endNanos = System.nanoTime();
+        Thread thread = Thread.currentThread();
+        long threadId = thread.getId();
+        if (!threadNames.containsKey(threadId)) {
+            threadNames.putIfAbsent(threadId, thread.getName());
+        }
+        spans.record(name, id, startNanos, endNanos - startNanos, threadId);
+    }
+
+    /**
+     * @return The number of spans recorded so far, including overwritten ones.
+     */
+    public long getRecorded() {
+        SpanBuffer spans = buffer;
+        return spans == null ? 0 : spans.next.get();
+    }
+
+    /**
+     * Writes the spans held in the buffer as a Chrome trace, oldest first. Times are relative to the creation of the
+     * tracer.
+     *
+     * @param file The trace file, replaced if it exists.
+     */
+    public void export(Path file) throws IOException {
+        SpanBuffer spans = buffer;
+        if (spans == null) {
+            return;
+        }
+        long end = spans.next.get();
+        long start = Math.max(0, end - spans.names.length);
+        try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8);
+             JsonWriter json = new JsonWriter(writer)) {
+            json.beginObject();
+            json.name("displayTimeUnit").value("ms");
+            json.name("traceEvents").beginArray();
+            for (Map.Entry<Long, String> threadName : threadNames.entrySet()) {
+                json.beginObject();
+                json.name("name").value("thread_name");
+                json.name("ph").value("M");
+                json.name("pid").value(PROCESS_ID);
+                json.name("tid").value(threadName.getKey());
+                json.name("args").beginObject().name("name").value(threadName.getValue()).endObject();
+                json.endObject();
+            }
+            for (long i = start; i < end; i++) {
+                int slot = (int) (i & spans.mask);
+                json.beginObject();
+                json.name("name").value(spans.names[slot]);
+                json.name("cat").value(CATEGORY);
+                json.name("ph").value("X");
+                json.name("ts").value(micros(spans.startNanos[slot] - originNanos));
+                json.name("dur").value(micros(spans.durationNanos[slot]));
+                json.name("pid").value(PROCESS_ID);
+                json.name("tid").value(spans.threadIds[slot]);
+                if (spans.ids[slot] != null) {
+                    json.name("args").beginObject().name("id").value(spans.ids[slot]).endObject();
+                }
+                json.endObject();
+            }
+            json.endArray();
+            json.endObject();
+        }
+        logger.info("Exported {} of {} spans to {}", end - start, end, file);
+    }
+
+    private static double micros(long nanos) {
+        return nanos / 1000.0;
+    }
+
+    private static final class SpanBuffer {
+
+        private final AtomicLong next = new AtomicLong();
+
+        private final long mask;
+
+        private final String[] names;
+
+        private final String[] ids;
+
+        private final long[] startNanos;
+
+        private final long[] durationNanos;
+
+        private final long[] threadIds;
+
+        SpanBuffer(int capacity) {
+            int size = 1;
+            while (size < capacity && size < 1 << 30) {
+                size <<= 1;
+            }
+            mask = size - 1;
+            names = new String[size];
+            ids = new String[size];
+            startNanos = new long[size];
+            durationNanos = new long[size];
+            threadIds = new long[size];
+        }
+
+        void record(String name, String id, long start, long duration, long threadId) {
+            int slot = (int) (next.getAndIncrement() & mask);
+            names[slot] = name;
+            ids[slot] = id;
+            startNanos[slot] = start;
+            durationNanos[slot] = duration;
+            threadIds[slot] = threadId;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Jumio Inc.
+ *
+ * Copyright (C) 2018
+ * All rights reserved.
+ */
+package com.jumio.netverify.rest;
+
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounds the number of image bytes in flight, i.e. queued, being prepared or being sent.
+ * <p>
+ * A permit is sized from the image file sizes of a triplet and has to be acquired before the images are read. While
+ * the budget is used up, acquiring blocks, which holds back the scan. A triplet larger than the whole budget is
+ * admitted once nothing else is in flight, so it can't block forever.
+ */
+final class ByteBudget {
+
+    private final long maxBytes;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Condition bytesAvailable = lock.newCondition();
+
+    private long bytesInFlight;
+
+    /**
+     * @param maxBytes The maximum number of bytes in flight. Zero or less disables the budget.
+     */
+    ByteBudget(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Blocks until the given number of bytes fits into the budget. Each call has to be followed by a call to
+     * {@link #release(long)} with the same number of bytes.
+     *
+     * @param bytes The size of the images about to be read.
+     */
+    void acquire(long bytes) throws InterruptedException {
+        if (maxBytes <= 0) {
+            return;
+        }
+        lock.lockInterruptibly();
+        try {
+            while (bytesInFlight > 0 && bytesInFlight + bytes > maxBytes) {
+                bytesAvailable.await();
+            }
+            bytesInFlight += bytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void release(long bytes) {
+        if (maxBytes <= 0) {
+            return;
+        }
+        lock.lock();
+        try {
+            bytesInFlight -= bytes;
+            bytesAvailable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    long getBytesInFlight() {
+        lock.lock();
+        try {
+            return bytesInFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Jumio Inc.
+ *
+ * Copyright (C) 2018
+ * All rights reserved.
+ */
+package com.jumio.netverify.rest;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Pauses all API calls while the server is clearly unavailable.
+ * <p>
+ * The circuit opens after a number of consecutive transient failures. While it is open, every worker waits in
+ * {@link #awaitPermission()} instead of failing its requests. After the configured open time, a single probe request is
+ * let through. The circuit closes if the probe succeeds and opens again if it fails. A probe that ends without reaching
+ * the server, e.g. because an image file is missing, is reported by {@link #onProbeAbandoned()} and the next worker
+ * probes right away. A probe that doesn't report back within the open time is given up as well.
+ */
+final class CircuitBreaker {
+
+    private static final Logger logger = LoggerFactory.getLogger(CircuitBreaker.class);
+
+    private final int failureThreshold;
+
+    private final long openNanos;
+
+    private final LongSupplier nanoClock;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Condition stateChanged = lock.newCondition();
+
+    private State state = State.CLOSED;
+
+    private int consecutiveFailures;
+
+    private long openUntilNanos;
+
+    private long probeStartedNanos;
+
+    CircuitBreaker(int failureThreshold, long openMillis) {
+        this(failureThreshold, openMillis, System::nanoTime);
+    }
+
+    CircuitBreaker(int failureThreshold, long openMillis, LongSupplier nanoClock) {
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.openNanos = TimeUnit.MILLISECONDS.toNanos(openMillis);
+        this.nanoClock = nanoClock;
+    }
+
+    /**
+     * Blocks while the circuit is open, or while another worker is probing the server.
+     *
+     * @return Whether the caller makes the probe request. It must then report the outcome by {@link #onSuccess()},
+     * {@link #onFailure()} or {@link #onProbeAbandoned()}.
+     */
+    boolean awaitPermission() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (true) {
+                if (state == State.CLOSED) {
+                    return false;
+                }
+                long nowNanos = nanoClock.getAsLong();
+                long remainingNanos = state == State.OPEN ? openUntilNanos - nowNanos :
+                        probeStartedNanos + openNanos - nowNanos;
+                if (remainingNanos <= 0) {
+                    if (state == State.HALF_OPEN) {
+                        logger.warn("Probe request did not complete within {} ms. Probing again.",
+                                TimeUnit.NANOSECONDS.toMillis(openNanos));
+                    } else {
+                        logger.info("Probing API availability.");
+                    }
+                    state = State.HALF_OPEN;
+                    probeStartedNanos = nowNanos;
+                    return true;
+                }
+                stateChanged.awaitNanos(remainingNanos);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Reports a call that reached the server, even if it was rejected for a permanent reason.
+     */
+    void onSuccess() {
+        lock.lock();
+        try {
+            consecutiveFailures = 0;
+            if (state != State.CLOSED) {
+                state = State.CLOSED;
+                logger.info("API available again. Resuming uploads.");
+                stateChanged.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Reports a transient failure.
+     */
+    void onFailure() {
+        lock.lock();
+        try {
+            consecutiveFailures++;
+            if (state == State.HALF_OPEN || (state == State.CLOSED && consecutiveFailures >= failureThreshold)) {
+                state = State.OPEN;
+                openUntilNanos = nanoClock.getAsLong() + openNanos;
+                logger.warn("API unavailable after {} consecutive failures. Pausing uploads for {} ms.",
+                        consecutiveFailures, TimeUnit.NANOSECONDS.toMillis(openNanos));
+                stateChanged.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Reports a probe request that ended without telling whether the server is available, e.g. because the request
+     * couldn't be built or the worker was interrupted. The next waiting worker probes instead.
+     */
+    void onProbeAbandoned() {
+        lock.lock();
+        try {
+            if (state == State.HALF_OPEN) {
+                state = State.OPEN;
+                openUntilNanos = nanoClock.getAsLong();
+                stateChanged.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    boolean isClosed() {
+        lock.lock();
+        try {
+            return state == State.CLOSED;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private enum State {CLOSED, OPEN, HALF_OPEN}
+}
@@ -7,54 +7,154 @@
 package com.jumio.netverify.rest;
 
 import com.jumio.netverify.ConfigurationContext;
+import com.jumio.netverify.domain.ImageMover;
 import com.jumio.netverify.domain.ImageTriplet;
 import com.jumio.netverify.domain.ImageTripletRepository;
 import com.jumio.netverify.domain.PresenceStrategy;
+import com.jumio.netverify.image.ImageTransformer;
+import com.jumio.netverify.journal.ContentFingerprint;
+import com.jumio.netverify.journal.ContentIndex;
+import com.jumio.netverify.journal.SubmissionJournal;
+import com.jumio.netverify.metrics.LatencyHistogram;
+import com.jumio.netverify.metrics.MetricsRegistry;
+import com.jumio.netverify.metrics.Tracer;
 import java.io.IOException;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.Base64;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.http.HttpEntity;
-import org.springframework.http.HttpHeaders;
-import org.springframework.http.HttpStatus;
-import org.springframework.http.ResponseEntity;
 import org.springframework.util.Assert;
-import org.springframework.util.MimeTypeUtils;
 import org.springframework.web.client.RestClientException;
 import org.springframework.web.client.RestTemplate;
 
 /**
  * Facade for the perform Netverify endpoint.
+ * <p>
+ * Sends the image triplets found by the command line tool and archives their images. Applications submitting images
+ * themselves use the {@link NetverifyClient} instead.
  */
 public final class NetverifyApiFacade {
 
     private static final Logger logger = LoggerFactory.getLogger(NetverifyApiFacade.class);
 
-    private final RestTemplate restTemplate;
-
-    private final HttpHeaders httpHeaders;
+    private static final long IDLE_FLUSH_MILLIS = 1000;
 
     private final ConfigurationContext configuration;
 
     private final ImageTripletRepository repository;
 
+    private final SubmissionJournal journal;
+
+    private final ContentIndex contentIndex;
+
+    private final RequestSender requestSender;
+
+    private final RequestFactory requestFactory;
+
+    private final ImageTransformer imageTransformer;
+
+    private final ByteBudget byteBudget;
+
+    private final MetricsRegistry metrics;
+
+    private final Tracer tracer;
+
+    private final LongAdder uploadsSucceeded;
+
+    private final LongAdder uploadsFailed;
+
+    private final LongAdder uploadsDuplicate;
+
+    private final LongAdder uploadsClaimedElsewhere;
+
+    private final LatencyHistogram queueTime;
+
+    private final LatencyHistogram moveTime;
+
+    private final LatencyHistogram transformTime;
+
+    private final LatencyHistogram budgetTime;
+
     public NetverifyApiFacade(ConfigurationContext configuration, ImageTripletRepository repository,
             RestTemplate restTemplate) {
+        this(configuration, repository, restTemplate, SubmissionJournal.disabled());
+    }
+
+    public NetverifyApiFacade(ConfigurationContext configuration, ImageTripletRepository repository,
+            RestTemplate restTemplate, SubmissionJournal journal) {
+        this(configuration, repository, restTemplate, journal, new MetricsRegistry());
+    }
+
+    public NetverifyApiFacade(ConfigurationContext configuration, ImageTripletRepository repository,
+            RestTemplate restTemplate, SubmissionJournal journal, MetricsRegistry metrics) {
+        this(configuration, repository, restTemplate, journal, ContentIndex.disabled(), metrics);
+    }
+
+    public NetverifyApiFacade(ConfigurationContext configuration, ImageTripletRepository repository,
+            RestTemplate restTemplate, SubmissionJournal journal, ContentIndex contentIndex, MetricsRegistry metrics) {
         Assert.notNull(configuration, "Configuration context cannot be null!");
         Assert.notNull(repository, "Image repository cannot be null!");
         Assert.notNull(restTemplate, "REST template cannot be null!");
+        Assert.notNull(journal, "Submission journal cannot be null!");
+        Assert.notNull(contentIndex, "Content index cannot be null!");
+        Assert.notNull(metrics, "Metrics registry cannot be null!");
         this.configuration = configuration;
-        this.restTemplate = restTemplate;
-        httpHeaders = RestTemplateBuilder.buildHttpHeaders();
         this.repository = repository;
+        this.journal = journal;
+        this.contentIndex = contentIndex;
+        this.metrics = metrics;
+        tracer = metrics.getTracer();
+        uploadsSucceeded = metrics.counter("uploads.succeeded");
+        uploadsFailed = metrics.counter("uploads.failed");
+        uploadsDuplicate = metrics.counter("uploads.duplicate");
+        uploadsClaimedElsewhere = metrics.counter("uploads.claimedElsewhere");
+        queueTime = metrics.histogram("phase.queue");
+        moveTime = metrics.histogram("phase.move");
+        transformTime = metrics.histogram("phase.transform");
+        budgetTime = metrics.histogram("phase.budget");
+        requestSender = new RequestSender(configuration, restTemplate, journal, metrics);
+        requestFactory = new RequestFactory(configuration);
+        imageTransformer = configuration.isImagesTransformEnabled() ? new ImageTransformer(configuration) : null;
+        byteBudget = new ByteBudget(configuration.getPipelineMaxBytesInFlight());
+        metrics.gauge("pipeline.bytesInFlight", byteBudget::getBytesInFlight);
     }
 
     /**
      * Given a configuration context and a collection of image triplets, sends requests to the Netverify API and logs
      * the results.
+     * <p>
+     * The image triplets pass through a pipeline of stages, each with its own threads and bounded queue, so reading
+     * images, network calls and file moves overlap:
+     * <ol>
+     * <li>scan and validate: the calling thread takes the image triplets from the collection, checks the image
+     * presence and the journal and claims them if {@code claim.enabled} is set,</li>
+     * <li>prepare: {@code pipeline.prepareThreads} workers shrink oversized images if {@code images.transform.enabled}
+     * is set, hash the image contents if a content index is used, and build the request,</li>
+     * <li>send: {@code upload.concurrency} workers send the requests. The images are Base64 encoded while the request
+     * body is written,</li>
+     * <li>archive: an {@link ImageMover} moves the images to the success or failure folder, in the order of the
+     * provided collection.</li>
+     * </ol>
+     * A full queue holds back the stage feeding it. The scan is also held back while the images in flight add up to
+     * {@code pipeline.maxBytesInFlight}, so the memory used doesn't depend on the image sizes. The method returns once
+     * all requests have completed and all moves have been forced to disk.
+     * <p>
+     * Image triplets that the journal knows as submitted are not sent again, their images are just moved to the
+     * success folder. The same applies to image triplets whose images are identical to ones submitted before under a
+     * different ID, if a content index is used. Image triplets whose request was interrupted in a previous run are left
+     * in place.
      *
      * @param imageTriplets A collection of image triplets.
      */
@@ -63,122 +163,432 @@ public final class NetverifyApiFacade {
             logger.warn("No images provided. Exiting.");
             return;
         }
+        sendApiRequests(imageTriplets.stream());
+    }
 
-        PerformNetverifyRequest performNetverifyRequest = buildRequest(configuration);
-        PresenceStrategy.Validator presenceStrategy = PresenceStrategy.build(configuration.getImagesPresenceStrategy());
-        for (ImageTriplet imageTriplet : imageTriplets) {
-            if (!imageTriplet.conformsTo(presenceStrategy)) {
-                logger.warn("Failed image presence check: {} for {}", presenceStrategy, imageTriplet.getUniqueId());
-                continue;
-            }
-            try {
-                setImageData(performNetverifyRequest, imageTriplet);
-                makeApiCall(httpHeaders, restTemplate, configuration.getApiServerUrl(), performNetverifyRequest);
-                repository.moveAll(imageTriplet, configuration.getImagesSuccessFolder());
-            } catch (IOException | RestClientException e) {
-                logger.error("Failed sending request: {}", e.getMessage());
-                repository.moveAll(imageTriplet, configuration.getImagesFailureFolder());
-            } finally {
-                clearImageData(performNetverifyRequest);
+    /**
+     * Sends requests for image triplets as they are produced by the provided stream, e.g. while the image folder is
+     * still being scanned. Otherwise behaves like {@link #sendApiRequests(List)}.
+     *
+     * @param imageTriplets A stream of image triplets. The stream isn't closed by this method.
+     */
+    public void sendApiRequests(Stream<ImageTriplet> imageTriplets) {
+        try (UploadSession session = openSession()) {
+            Iterator<ImageTriplet> iterator = imageTriplets.iterator();
+            while (iterator.hasNext()) {
+                session.submit(iterator.next());
             }
         }
         logger.info("Finished uploading all images.");
     }
 
     /**
-     * Builds an initial version of the API request object. Any settings that won't change between calls should be set
-     * here.
+     * Starts the upload pipeline described at {@link #sendApiRequests(List)} for image triplets that arrive over
+     * time, e.g. while the image folder is watched. The pipeline stays open until the session is closed.
      *
-     * @param configuration The configuration context providing the settings.
-     * @return An API request object.
+     * @return An open session, to be closed by the caller.
      */
-    private PerformNetverifyRequest buildRequest(ConfigurationContext configuration) {
-        PerformNetverifyRequest performNetverifyRequest = new PerformNetverifyRequest();
-        performNetverifyRequest.setEnabledFields(configuration.getApiEnabledFields());
-        performNetverifyRequest.setMerchantReportingCriteria(configuration.getApiMerchantReportingCriteria());
-        performNetverifyRequest.setCallbackUrl(configuration.getApiCallbackUrl());
-        return performNetverifyRequest;
+    public UploadSession openSession() {
+        return new UploadSession();
     }
 
     /**
-     * Updates an API request object with variable data (e.g. image data).
+     * Queues the upload of an image triplet, once its images fit into the byte budget. It is prepared on the prepare
+     * stage and then handed to the send stage, unless it turned out to be a duplicate. When the upload has completed,
+     * successfully or not, the bytes are returned to the budget and shrunk images are deleted.
      *
-     * @param performNetverifyRequest The API request object being updated.
+     * @return The result of {@link #upload(ImageTriplet, PreparedUpload)}.
      */
-    private void setImageData(PerformNetverifyRequest performNetverifyRequest, ImageTriplet imageTriplet)
-            throws IOException {
-        performNetverifyRequest.setMerchantIdScanReference(imageTriplet.getUniqueId());
-        performNetverifyRequest.setFrontsideImage(asBase64(imageTriplet.getIdFrontImagePath()));
-        performNetverifyRequest.setFrontsideImageMimeType(getMimeType(imageTriplet.getIdFrontImagePath()));
-        performNetverifyRequest.setFaceImage(asBase64(imageTriplet.getFaceImagePath()));
-        performNetverifyRequest.setFaceImageMimeType(getMimeType(imageTriplet.getFaceImagePath()));
-        performNetverifyRequest.setBacksideImage(asBase64(imageTriplet.getIdBackImagePath()));
-        performNetverifyRequest.setBacksideImageMimeType(getMimeType(imageTriplet.getIdBackImagePath()));
-    }
-
-    private void clearImageData(PerformNetverifyRequest performNetverifyRequest) {
-        performNetverifyRequest.setMerchantIdScanReference(null);
-        performNetverifyRequest.setFaceImage(null);
-        performNetverifyRequest.setFaceImageMimeType(null);
-        performNetverifyRequest.setBacksideImage(null);
-        performNetverifyRequest.setBacksideImageMimeType(null);
-        performNetverifyRequest.setFrontsideImage(null);
-        performNetverifyRequest.setFrontsideImageMimeType(null);
+    private Future<Boolean> submitUpload(ImageTriplet imageTriplet, PipelineStage prepareStage,
+            PipelineStage sendStage) {
+        long imageBytes = RequestSender.fileSize(asPath(imageTriplet.getIdFrontImagePath())) +
+                RequestSender.fileSize(asPath(imageTriplet.getIdBackImagePath())) +
+                RequestSender.fileSize(asPath(imageTriplet.getFaceImagePath()));
+        long budgetStartNanos = System.nanoTime();
+        try {
+            byteBudget.acquire(imageBytes);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for images in flight to complete!", ie);
+        }
+        budgetTime.recordSince(budgetStartNanos);
+        tracer.span("budget", imageTriplet.getUniqueId(), budgetStartNanos);
+        CompletableFuture<PreparedUpload> prepared = CompletableFuture.supplyAsync(() -> prepare(imageTriplet),
+                prepareStage);
+        return prepared
+                .thenCompose(preparedUpload -> preparedUpload == null ? CompletableFuture.completedFuture(true) :
+                        CompletableFuture.supplyAsync(() -> send(imageTriplet, preparedUpload), sendStage))
+                .whenComplete((success, failure) -> {
+                    byteBudget.release(imageBytes);
+                    if (!prepared.isCompletedExceptionally()) {
+                        PreparedUpload preparedUpload = prepared.join();
+                        if (preparedUpload != null) {
+                            deleteTransformedImages(imageTriplet, preparedUpload.images);
+                        }
+                    }
+                });
     }
 
     /**
-     * Sends an HTTP request to the Netverify API.
+     * Does all the work for an upload that doesn't need the network, on a prepare worker.
      *
-     * @param httpHeaders The HTTP headers that the HTTP client should use.
-     * @param restTemplate The HTTP client.
-     * @param serverUrl The URL under which the endpoint can be reached.
-     * @param performNetverifyRequest A complete and valid request object.
+     * @param imageTriplet The image triplet being sent.
+     * @return The prepared upload or {@code null} if identical images were submitted before.
+     */
+    private PreparedUpload prepare(ImageTriplet imageTriplet) {
+        long startNanos = System.nanoTime();
+        try {
+            Long prefilterKey = null;
+            String contentHash = null;
+            if (contentIndex.isEnabled()) {
+                long hashStartNanos = System.nanoTime();
+                prefilterKey = prefilterKey(imageTriplet);
+                contentHash = prefilterKey == null ? null : contentHash(imageTriplet);
+                tracer.span("hash", imageTriplet.getUniqueId(), hashStartNanos);
+                String jumioIdScanReference = contentHash == null || !contentIndex.mightContain(prefilterKey) ? null :
+                        contentIndex.lookup(prefilterKey, contentHash);
+                if (jumioIdScanReference != null) {
+                    logger.info("Skipping {}. Identical images were submitted before. Jumio scan reference: {}",
+                            imageTriplet.getUniqueId(), jumioIdScanReference);
+                    journal.recordSubmitted(imageTriplet.getUniqueId(), jumioIdScanReference);
+                    uploadsDuplicate.increment();
+                    return null;
+                }
+            }
+            UploadImages images = imageTransformer == null ?
+                    new UploadImages(asPath(imageTriplet.getIdFrontImagePath()),
+                            asPath(imageTriplet.getIdBackImagePath()), asPath(imageTriplet.getFaceImagePath())) :
+                    transformImages(imageTriplet);
+            try {
+                PerformNetverifyRequest performNetverifyRequest = requestFactory.create(imageTriplet, images.front,
+                        images.back, images.face);
+                return new PreparedUpload(performNetverifyRequest, images, prefilterKey, contentHash);
+            } catch (RuntimeException e) {
+                deleteTransformedImages(imageTriplet, images);
+                throw e;
+            }
+        } finally {
+            tracer.span("prepare", imageTriplet.getUniqueId(), startNanos);
+        }
+    }
+
+    private UploadImages transformImages(ImageTriplet imageTriplet) {
+        long startNanos = System.nanoTime();
+        UploadImages images = new UploadImages(transformImage(imageTriplet.getIdFrontImagePath()),
+                transformImage(imageTriplet.getIdBackImagePath()), transformImage(imageTriplet.getFaceImagePath()));
+        transformTime.recordSince(startNanos);
+        tracer.span("transform", imageTriplet.getUniqueId(), startNanos);
+        return images;
+    }
+
+    private Path transformImage(String imagePath) {
+        Path image = asPath(imagePath);
+        if (image == null) {
+            return null;
+        }
+        try {
+            return imageTransformer.transform(image);
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Cannot shrink image {}: {}. Sending it as it is.", image, e.getMessage());
+            return image;
+        }
+    }
+
+    /**
+     * Uploads prepared images on a send worker.
      */
-    private void makeApiCall(HttpHeaders httpHeaders, RestTemplate restTemplate, String serverUrl,
-            PerformNetverifyRequest performNetverifyRequest) {
-        HttpEntity<PerformNetverifyRequest> httpRequest = new HttpEntity<>(performNetverifyRequest, httpHeaders);
-        ResponseEntity<PerformNetverifyResponse> response = restTemplate.postForEntity(serverUrl, httpRequest,
-                PerformNetverifyResponse.class);
-        logResponse(performNetverifyRequest.getMerchantIdScanReference(), response);
+    private boolean send(ImageTriplet imageTriplet, PreparedUpload preparedUpload) {
+        try {
+            return upload(imageTriplet, preparedUpload);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new CompletionException(ie);
+        }
+    }
+
+    private void deleteTransformedImages(ImageTriplet imageTriplet, UploadImages images) {
+        deleteTransformedImage(images.front, imageTriplet.getIdFrontImagePath());
+        deleteTransformedImage(images.back, imageTriplet.getIdBackImagePath());
+        deleteTransformedImage(images.face, imageTriplet.getFaceImagePath());
     }
 
-    private void logResponse(String merchantScanRef, ResponseEntity<PerformNetverifyResponse> response) {
-        if (HttpStatus.OK.equals(response.getStatusCode()) && response.getBody() != null) {
-            logger.info("Submitted: {}. Jumio scan reference: {}", merchantScanRef,
-                    response.getBody().getJumioIdScanReference());
-        } else {
-            logger.error("HTTP {}: {}", response.getStatusCodeValue(), response.getBody());
+    private void deleteTransformedImage(Path image, String originalPath) {
+        if (image == null || image.equals(asPath(originalPath))) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(image);
+        } catch (IOException ioe) {
+            logger.warn("Cannot delete temporary image {}: {}", image, ioe.getMessage());
         }
     }
 
     /**
-     * Encodes the contents of an image file found at the provided path to a Base64 string.
+     * Sends a single API request on a worker thread, see {@link RequestSender#send(PerformNetverifyRequest)}, and
+     * records the outcome.
      *
-     * @param imagePath The path of an image file.
-     * @return A Base64 string.
+     * @param imageTriplet The image triplet being sent.
+     * @param preparedUpload The request and the images to send, either the original ones or shrunk copies.
+     * @return {@code true} if the request succeeded, {@code false} otherwise.
      */
-    private String asBase64(String imagePath) throws IOException {
-        if (imagePath == null) {
+    private boolean upload(ImageTriplet imageTriplet, PreparedUpload preparedUpload) throws InterruptedException {
+        queueTime.recordSince(preparedUpload.readyNanos);
+        try {
+            PerformNetverifyResponse response = requestSender.send(preparedUpload.request);
+            String jumioIdScanReference = response == null ? null : response.getJumioIdScanReference();
+            journal.recordSubmitted(imageTriplet.getUniqueId(), jumioIdScanReference);
+            uploadsSucceeded.increment();
+            if (preparedUpload.contentHash != null) {
+                contentIndex.record(preparedUpload.prefilterKey, preparedUpload.contentHash, jumioIdScanReference,
+                        imageTriplet.getUniqueId());
+            }
+            return true;
+        } catch (RestClientException e) {
+            logger.error("Failed sending request: {}", e.getMessage());
+            journal.recordFailed(imageTriplet.getUniqueId());
+            uploadsFailed.increment();
+            return false;
+        }
+    }
+
+    private static Path[] originalImages(ImageTriplet imageTriplet) {
+        return new Path[]{asPath(imageTriplet.getIdFrontImagePath()), asPath(imageTriplet.getIdBackImagePath()),
+                asPath(imageTriplet.getFaceImagePath())};
+    }
+
+    private String contentHash(ImageTriplet imageTriplet) {
+        try {
+            return ContentFingerprint.contentHash(originalImages(imageTriplet));
+        } catch (IOException ioe) {
+            logger.warn("Cannot hash images of {}: {}", imageTriplet.getUniqueId(), ioe.getMessage());
+            return null;
+        }
+    }
+
+    private Long prefilterKey(ImageTriplet imageTriplet) {
+        try {
+            return ContentFingerprint.prefilterKey(originalImages(imageTriplet));
+        } catch (IOException ioe) {
+            logger.warn("Cannot fingerprint images of {}: {}", imageTriplet.getUniqueId(), ioe.getMessage());
             return null;
         }
-        return Base64.getEncoder().encodeToString(Files.readAllBytes(Paths.get(imagePath)));
     }
 
     /**
-     * Extracts a MIME type from a file name based on the extension. Only supports types accepted by the API.
+     * Waits for an upload to finish and hands its images to the mover for the matching destination folder. The move
+     * itself happens in the background, only a full mover queue makes this wait.
      *
-     * @param imagePath The inspected image path.
+     * @param pendingUpload The oldest upload still in progress.
+     * @param mover The mover of the session.
+     * @throws InterruptedException If interrupted while waiting for the upload or for space in the mover queue.
      */
-    private String getMimeType(String imagePath) {
-        if (imagePath == null) {
-            return null;
+    private void completeUpload(PendingUpload pendingUpload, ImageMover mover) throws InterruptedException {
+        boolean success;
+        try {
+            success = pendingUpload.result.get();
+        } catch (ExecutionException ee) {
+            logger.error("Failed sending request: {}", ee.getCause().getMessage());
+            success = false;
         }
-        if (imagePath.endsWith(ConfigurationContext.JPEG_IMAGE)) {
-            return MimeTypeUtils.IMAGE_JPEG_VALUE;
-        } else if (imagePath.endsWith(ConfigurationContext.PNG_IMAGE)) {
-            return MimeTypeUtils.IMAGE_PNG_VALUE;
-        } else {
-            return "";
+        long moveStartNanos = System.nanoTime();
+        mover.moveAll(pendingUpload.imageTriplet,
+                success ? configuration.getImagesSuccessFolder() : configuration.getImagesFailureFolder());
+        moveTime.recordSince(moveStartNanos);
+    }
+
+    private static Path asPath(String imagePath) {
+        return imagePath == null ? null : Paths.get(imagePath);
+    }
+
+    /**
+     * The image files sent for an image triplet.
+     */
+    private static final class UploadImages {
+
+        private final Path front;
+
+        private final Path back;
+
+        private final Path face;
+
+        UploadImages(Path front, Path back, Path face) {
+            this.front = front;
+            this.back = back;
+            this.face = face;
+        }
+    }
+
+    /**
+     * An upload handed from the prepare stage to the send stage.
+     */
+    private static final class PreparedUpload {
+
+        private final PerformNetverifyRequest request;
+
+        private final UploadImages images;
+
+        private final Long prefilterKey;
+
+        private final String contentHash;
+
+        private final long readyNanos = System.nanoTime();
+
+        PreparedUpload(PerformNetverifyRequest request, UploadImages images, Long prefilterKey, String contentHash) {
+            this.request = request;
+            this.images = images;
+            this.prefilterKey = prefilterKey;
+            this.contentHash = contentHash;
+        }
+    }
+
+    /**
+     * An open upload pipeline. Image triplets are submitted by a single thread, which only blocks while the pipeline
+     * is full. A completer thread waits for the uploads in the order they were submitted and hands their images to the
+     * mover, so uploads are completed while no new image triplets arrive. The moves are forced to disk once the
+     * pipeline has been idle for a second and when the session is closed.
+     */
+    public final class UploadSession implements AutoCloseable {
+
+        private final PresenceStrategy.Validator presenceStrategy;
+
+        private final boolean claimEnabled;
+
+        private final PipelineStage prepareStage;
+
+        private final PipelineStage sendStage;
+
+        private final ImageMover mover;
+
+        private final BlockingQueue<PendingUpload> pendingUploads;
+
+        private final Thread completer;
+
+        private boolean closed;
+
+        private UploadSession() {
+            presenceStrategy = PresenceStrategy.build(configuration.getImagesPresenceStrategy());
+            claimEnabled = configuration.isClaimEnabled();
+            int concurrency = Math.max(1, configuration.getUploadConcurrency());
+            int prepareThreads = Math.max(1, configuration.getPipelinePrepareThreads());
+            int queueCapacity = Math.max(1, configuration.getPipelineQueueCapacity());
+            pendingUploads = new ArrayBlockingQueue<>(prepareThreads + concurrency + queueCapacity);
+            prepareStage = new PipelineStage("prepare", prepareThreads, queueCapacity, metrics);
+            sendStage = new PipelineStage("send", concurrency, queueCapacity, metrics);
+            mover = new ImageMover(configuration, repository, tracer);
+            metrics.gauge("stage.archive.queueDepth", mover::getQueueDepth);
+            metrics.gauge("stage.archive.utilization", mover::getUtilization);
+            completer = new Thread(this::completeUploads, "complete");
+            completer.start();
+        }
+
+        /**
+         * Checks an image triplet and queues its upload, see {@link #sendApiRequests(List)}.
+         *
+         * @param imageTriplet The image triplet.
+         * @throws IllegalStateException If the session is closed or the calling thread is interrupted while waiting
+         * for space in the pipeline.
+         */
+        public void submit(ImageTriplet imageTriplet) {
+            Assert.state(!closed, "Upload session is closed!");
+            if (!imageTriplet.conformsTo(presenceStrategy)) {
+                logger.warn("Failed image presence check: {} for {}", presenceStrategy, imageTriplet.getUniqueId());
+                return;
+            }
+            SubmissionJournal.State previousState = journal.lookup(imageTriplet.getUniqueId());
+            if (previousState == SubmissionJournal.State.SENDING) {
+                logger.warn("Skipping {}. It may have been submitted before.", imageTriplet.getUniqueId());
+                return;
+            }
+            if (claimEnabled) {
+                imageTriplet = repository.claim(imageTriplet);
+                if (imageTriplet == null) {
+                    uploadsClaimedElsewhere.increment();
+                    return;
+                }
+            }
+            PendingUpload pendingUpload;
+            if (!imageTriplet.conformsTo(presenceStrategy)) {
+                logger.warn("Failed image presence check after claiming: {} for {}", presenceStrategy,
+                        imageTriplet.getUniqueId());
+                uploadsFailed.increment();
+                pendingUpload = new PendingUpload(imageTriplet, CompletableFuture.completedFuture(false));
+            } else if (previousState == SubmissionJournal.State.SUBMITTED) {
+                logger.info("Already submitted: {}", imageTriplet.getUniqueId());
+                pendingUpload = new PendingUpload(imageTriplet, CompletableFuture.completedFuture(true));
+            } else {
+                pendingUpload = new PendingUpload(imageTriplet, submitUpload(imageTriplet, prepareStage, sendStage));
+            }
+            try {
+                pendingUploads.put(pendingUpload);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for API requests to finish!", ie);
+            }
+        }
+
+        /**
+         * Waits for all submitted uploads and moves to complete, forces the moves to disk and stops the pipeline. If
+         * the calling thread is interrupted while waiting, the remaining uploads are abandoned.
+         */
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                pendingUploads.put(PendingUpload.END);
+                completer.join();
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                completer.interrupt();
+                logger.error("Interrupted while waiting for API requests to finish!");
+            } finally {
+                mover.close();
+                sendStage.close();
+                prepareStage.close();
+            }
+        }
+
+        private void completeUploads() {
+            boolean moved = false;
+            try {
+                while (true) {
+                    PendingUpload pendingUpload = pendingUploads.poll(IDLE_FLUSH_MILLIS, TimeUnit.MILLISECONDS);
+                    if (pendingUpload == null) {
+                        if (moved) {
+                            mover.flush();
+                            moved = false;
+                        }
+                    } else if (pendingUpload == PendingUpload.END) {
+                        return;
+                    } else {
+                        try {
+                            completeUpload(pendingUpload, mover);
+                            moved = true;
+                        } catch (RuntimeException e) {
+                            logger.error("Error completing upload of {}: {}", pendingUpload.imageTriplet.getUniqueId(),
+                                    e.getMessage());
+                        }
+                    }
+                }
+            } catch (InterruptedException ie) {
+                // Abandoned by close()
+            }
+        }
+    }
+
+    private static final class PendingUpload {
+
+        private static final PendingUpload END = new PendingUpload(null, null);
+
+        private final ImageTriplet imageTriplet;
+
+        private final Future<Boolean> result;
+
+        PendingUpload(ImageTriplet imageTriplet, Future<Boolean> result) {
+            this.imageTriplet = imageTriplet;
+            this.result = result;
         }
     }
 }
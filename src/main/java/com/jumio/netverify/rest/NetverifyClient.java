@@ -0,0 +1,273 @@
+/*
+ * Jumio Inc.
+ *
+ * Copyright (C) 2018
+ * All rights reserved.
+ */
+package com.jumio.netverify.rest;
+
+import com.jumio.netverify.ConfigurationContext;
+import com.jumio.netverify.domain.ImageTriplet;
+import com.jumio.netverify.domain.PresenceStrategy;
+import com.jumio.netverify.journal.SubmissionJournal;
+import com.jumio.netverify.metrics.MetricsRegistry;
+import java.io.Closeable;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.util.Assert;
+import org.springframework.web.client.RestTemplate;
+
+/**
+ * Thread-safe client for the perform Netverify endpoint, for services that submit images themselves instead of
+ * running the command line tool.
+ * <p>
+ * Unlike {@link NetverifyApiFacade}, the client neither scans nor moves images and keeps no journal. Callers submit
+ * image triplets or images held in memory and get the API response as a {@link CompletableFuture}. All callers share
+ * the pooled connections, the rate and concurrency limits, the retry budget, the circuit breaker and the metrics of one
+ * client, so a process should create a single client and close it on shutdown.
+ * <p>
+ * Requests are sent by {@code upload.concurrency} workers. Submitting blocks while {@code pipeline.queueCapacity}
+ * requests are waiting for a worker or the images in flight add up to {@code pipeline.maxBytesInFlight}, so callers
+ * can't pile up unbounded work. Images are sent as they are, shrinking them is left to the command line tool.
+ */
+public final class NetverifyClient implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(NetverifyClient.class);
+
+    private final RestTemplate restTemplate;
+
+    private final boolean ownsRestTemplate;
+
+    private final MetricsRegistry metrics;
+
+    private final RequestSender requestSender;
+
+    private final RequestFactory requestFactory;
+
+    private final PresenceStrategy.Validator presenceStrategy;
+
+    private final ByteBudget byteBudget;
+
+    private final PipelineStage sendStage;
+
+    private final LongAdder uploadsSucceeded;
+
+    private final LongAdder uploadsFailed;
+
+    private final Set<CompletableFuture<PerformNetverifyResponse>> pendingResults = ConcurrentHashMap.newKeySet();
+
+    private volatile boolean closed;
+
+    public NetverifyClient(ConfigurationContext configuration) {
+        this(configuration, new MetricsRegistry());
+    }
+
+    /**
+     * Creates a client with its own connection pool, built from the HTTP settings of the configuration.
+     *
+     * @param configuration The configuration context providing the API settings and limits.
+     * @param metrics The registry request metrics are recorded to.
+     */
+    public NetverifyClient(ConfigurationContext configuration, MetricsRegistry metrics) {
+        this(configuration, RestTemplateBuilder.buildRestTemplate(configuration, metrics), metrics, true);
+    }
+
+    /**
+     * Creates a client sending requests through the provided HTTP client, which is not closed by the client.
+     *
+     * @param configuration The configuration context providing the API settings and limits.
+     * @param restTemplate The HTTP client.
+     * @param metrics The registry request metrics are recorded to.
+     */
+    public NetverifyClient(ConfigurationContext configuration, RestTemplate restTemplate, MetricsRegistry metrics) {
+        this(configuration, restTemplate, metrics, false);
+    }
+
+    private NetverifyClient(ConfigurationContext configuration, RestTemplate restTemplate, MetricsRegistry metrics,
+            boolean ownsRestTemplate) {
+        Assert.notNull(configuration, "Configuration context cannot be null!");
+        Assert.notNull(restTemplate, "REST template cannot be null!");
+        Assert.notNull(metrics, "Metrics registry cannot be null!");
+        this.restTemplate = restTemplate;
+        this.ownsRestTemplate = ownsRestTemplate;
+        this.metrics = metrics;
+        requestSender = new RequestSender(configuration, restTemplate, SubmissionJournal.disabled(), metrics);
+        requestFactory = new RequestFactory(configuration);
+        presenceStrategy = PresenceStrategy.build(configuration.getImagesPresenceStrategy());
+        byteBudget = new ByteBudget(configuration.getPipelineMaxBytesInFlight());
+        sendStage = new PipelineStage("client", configuration.getUploadConcurrency(),
+                Math.max(1, configuration.getPipelineQueueCapacity()), metrics);
+        uploadsSucceeded = metrics.counter("uploads.succeeded");
+        uploadsFailed = metrics.counter("uploads.failed");
+        metrics.gauge("client.bytesInFlight", byteBudget::getBytesInFlight);
+    }
+
+    /**
+     * Submits an image triplet. The images are read while the request is sent, so they must not be deleted before
+     * the returned future has completed.
+     *
+     * @param imageTriplet The image triplet, e.g. created by
+     * {@link ImageTriplet#of(String, String, String, String, java.util.Map)}.
+     * @return The API response. Completes exceptionally with an {@link IllegalArgumentException} if the image triplet
+     * doesn't conform to the presence strategy or carries invalid applicant data, or with a
+     * {@link org.springframework.web.client.RestClientException} if the request failed.
+     * @throws IllegalStateException If the client is closed.
+     */
+    public CompletableFuture<PerformNetverifyResponse> submit(ImageTriplet imageTriplet) {
+        Assert.notNull(imageTriplet, "Image triplet cannot be null!");
+        if (!imageTriplet.conformsTo(presenceStrategy)) {
+            return failed(new IllegalArgumentException("Failed image presence check: " + presenceStrategy + " for " +
+                    imageTriplet.getUniqueId()));
+        }
+        Path front = asPath(imageTriplet.getIdFrontImagePath());
+        Path back = asPath(imageTriplet.getIdBackImagePath());
+        Path face = asPath(imageTriplet.getFaceImagePath());
+        long imageBytes = RequestSender.fileSize(front) + RequestSender.fileSize(back) + RequestSender.fileSize(face);
+        return submit(imageBytes, () -> requestFactory.create(imageTriplet, front, back, face));
+    }
+
+    /**
+     * Submits images held in memory. Only JPEG and PNG images are accepted.
+     *
+     * @param uniqueId The unique ID, sent as the merchant scan reference.
+     * @param idFrontImage The ID front image.
+     * @param idBackImage The ID back image or {@code null}.
+     * @param faceImage The face image or {@code null}.
+     * @return The API response. Completes exceptionally with an {@link IllegalArgumentException} if an image is
+     * neither a JPEG nor a PNG image, or with a {@link org.springframework.web.client.RestClientException} if the
+     * request failed.
+     * @throws IllegalStateException If the client is closed.
+     */
+    public CompletableFuture<PerformNetverifyResponse> submit(String uniqueId, byte[] idFrontImage, byte[] idBackImage,
+            byte[] faceImage) {
+        long imageBytes = length(idFrontImage) + length(idBackImage) + length(faceImage);
+        return submit(imageBytes, () -> requestFactory.create(uniqueId, idFrontImage, idBackImage, faceImage));
+    }
+
+    /**
+     * Submits several image triplets, see {@link #submit(ImageTriplet)}. Blocks while the limits described above
+     * are reached, so a large batch is submitted as fast as the API accepts it.
+     *
+     * @param imageTriplets The image triplets.
+     * @return The API responses, in the order of the image triplets. Each completes on its own.
+     * @throws IllegalStateException If the client is closed.
+     */
+    public List<CompletableFuture<PerformNetverifyResponse>> submitAll(Collection<ImageTriplet> imageTriplets) {
+        Assert.notNull(imageTriplets, "Image triplets cannot be null!");
+        List<CompletableFuture<PerformNetverifyResponse>> results = new ArrayList<>(imageTriplets.size());
+        for (ImageTriplet imageTriplet : imageTriplets) {
+            results.add(submit(imageTriplet));
+        }
+        return results;
+    }
+
+    public MetricsRegistry getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Waits until the image bytes fit into the byte budget, then builds the request and queues it on the send
+     * workers. The bytes are returned to the budget when the request has completed.
+     */
+    private CompletableFuture<PerformNetverifyResponse> submit(long imageBytes,
+            Supplier<PerformNetverifyRequest> requestSupplier) {
+        if (closed) {
+            throw new IllegalStateException("Client is closed!");
+        }
+        try {
+            byteBudget.acquire(imageBytes);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            return failed(ie);
+        }
+        CompletableFuture<PerformNetverifyResponse> result = new CompletableFuture<>();
+        pendingResults.add(result);
+        result.whenComplete((response, failure) -> {
+            byteBudget.release(imageBytes);
+            pendingResults.remove(result);
+        });
+        try {
+            PerformNetverifyRequest performNetverifyRequest = requestSupplier.get();
+            sendStage.execute(() -> send(performNetverifyRequest, result));
+        } catch (IllegalArgumentException | RejectedExecutionException e) {
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    private void send(PerformNetverifyRequest performNetverifyRequest,
+            CompletableFuture<PerformNetverifyResponse> result) {
+        try {
+            PerformNetverifyResponse response = requestSender.send(performNetverifyRequest);
+            uploadsSucceeded.increment();
+            result.complete(response);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            result.completeExceptionally(ie);
+        } catch (RuntimeException e) {
+            logger.error("Failed sending request: {}", e.getMessage());
+            uploadsFailed.increment();
+            result.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Stops accepting requests and waits for the submitted ones to complete. If the calling thread is interrupted
+     * while waiting, the remaining requests are cancelled. Closes the connection pool if the client created it.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            CompletableFuture.allOf(pendingResults.toArray(new CompletableFuture<?>[0])).get();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException ee) {
+            // Failed requests have been reported through their futures.
+        } finally {
+            sendStage.close();
+            for (CompletableFuture<PerformNetverifyResponse> result : pendingResults) {
+                result.completeExceptionally(new CancellationException("Client was closed!"));
+            }
+            closeConnections();
+        }
+    }
+
+    private void closeConnections() {
+        if (ownsRestTemplate && restTemplate.getRequestFactory() instanceof DisposableBean) {
+            try {
+                ((DisposableBean) restTemplate.getRequestFactory()).destroy();
+            } catch (Exception e) {
+                logger.warn("Error closing HTTP connections: {}", e.getMessage());
+            }
+        }
+    }
+
+    private static <T> CompletableFuture<T> failed(Throwable failure) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        result.completeExceptionally(failure);
+        return result;
+    }
+
+    private static Path asPath(String imagePath) {
+        return imagePath == null ? null : Paths.get(imagePath);
+    }
+
+    private static long length(byte[] image) {
+        return image == null ? 0 : image.length;
+    }
+}
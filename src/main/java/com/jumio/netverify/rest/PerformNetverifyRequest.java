@@ -6,11 +6,16 @@
  */
 package com.jumio.netverify.rest;
 
+import java.nio.file.Path;
 import java.time.LocalDateTime;
 import org.springframework.util.MimeTypeUtils;
 
 /**
  * DTO used when calling the Netverify v2 "perform" API endpoint.
+ * <p>
+ * Images can either be provided as Base64 strings or as files. Files are not serialized by Gson, they are encoded
+ * while the request body is written (see {@link PerformNetverifyRequestConverter}). A file takes precedence over a
+ * Base64 string set for the same image.
  */
 public final class PerformNetverifyRequest {
 
@@ -60,6 +65,12 @@ public final class PerformNetverifyRequest {
 
     private String faceImageMimeType = MimeTypeUtils.IMAGE_JPEG_VALUE;
 
+    private transient Path frontsideImageFile;
+
+    private transient Path backsideImageFile;
+
+    private transient Path faceImageFile;
+
     public PerformNetverifyRequest() {
     }
 
@@ -247,6 +258,30 @@ public final class PerformNetverifyRequest {
         this.faceImageMimeType = faceImageMimeType;
     }
 
+    public Path getFrontsideImageFile() {
+        return frontsideImageFile;
+    }
+
+    public void setFrontsideImageFile(Path frontsideImageFile) {
+        this.frontsideImageFile = frontsideImageFile;
+    }
+
+    public Path getBacksideImageFile() {
+        return backsideImageFile;
+    }
+
+    public void setBacksideImageFile(Path backsideImageFile) {
+        this.backsideImageFile = backsideImageFile;
+    }
+
+    public Path getFaceImageFile() {
+        return faceImageFile;
+    }
+
+    public void setFaceImageFile(Path faceImageFile) {
+        this.faceImageFile = faceImageFile;
+    }
+
     public enum IdType {PASSPORT, ID_CARD, DRIVING_LICENSE, VISA}
 
     public enum CallbackGranularity {onAllSteps, onFinish}
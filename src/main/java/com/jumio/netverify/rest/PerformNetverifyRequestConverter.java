@@ -0,0 +1,315 @@
+/*
+ * Jumio Inc.
+ *
+ * Copyright (C) 2018
+ * All rights reserved.
+ */
+package com.jumio.netverify.rest;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.jumio.netverify.metrics.LatencyHistogram;
+import com.jumio.netverify.metrics.MetricsRegistry;
+import com.jumio.netverify.metrics.Tracer;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.GZIPOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractHttpMessageConverter;
+import org.springframework.util.Assert;
+
+/**
+ * Writes {@link PerformNetverifyRequest}s as JSON without keeping the Base64 encoded images in memory.
+ * <p>
+ * All regular fields are serialized by Gson. Image files are read and Base64 encoded straight into the request body,
+ * so the memory used per request doesn't depend on the image sizes. The exact content length is calculated up front
+ * from the file sizes. Reading is not supported.
+ * <p>
+ * If compression is enabled, the body is gzip compressed while it is written and sent with
+ * {@code Content-Encoding: gzip} in chunks, as its length isn't known up front. Servers that don't accept compressed
+ * requests answer with HTTP 415, see {@link #fallBackToIdentity()}. The compressed and uncompressed
+ * sizes and the CPU time spent writing compressed bodies are recorded.
+ * <p>
+ * If tracing is enabled, serializing the regular fields and encoding the images are recorded as separate spans.
+ * Encoding includes reading the image files and writing the body to the connection.
+ */
+final class PerformNetverifyRequestConverter extends AbstractHttpMessageConverter<PerformNetverifyRequest> {
+
+    private static final Logger logger = LoggerFactory.getLogger(PerformNetverifyRequestConverter.class);
+
+    private static final String GZIP = "gzip";
+
+    private static final int GZIP_BUFFER_SIZE = 64 * 1024;
+
+    private static final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+
+    private static final String FRONTSIDE_IMAGE = "frontsideImage";
+
+    private static final String BACKSIDE_IMAGE = "backsideImage";
+
+    private static final String FACE_IMAGE = "faceImage";
+
+    private final Gson gson;
+
+    private final AtomicBoolean compress;
+
+    private final boolean compressionConfigured;
+
+    private final LongAdder uncompressedBytes;
+
+    private final LongAdder compressedBytes;
+
+    private final LatencyHistogram compressionCpuTime;
+
+    private final Tracer tracer;
+
+    PerformNetverifyRequestConverter(Gson gson) {
+        this(gson, false, new MetricsRegistry());
+    }
+
+    /**
+     * @param gson Serializes the regular fields.
+     * @param compress Whether to gzip compress request bodies.
+     * @param metrics The registry the compression metrics are recorded to.
+     */
+    PerformNetverifyRequestConverter(Gson gson, boolean compress, MetricsRegistry metrics) {
+        super(StandardCharsets.UTF_8, MediaType.APPLICATION_JSON);
+        Assert.notNull(gson, "Gson cannot be null!");
+        Assert.notNull(metrics, "Metrics registry cannot be null!");
+        this.gson = gson;
+        this.compress = new AtomicBoolean(compress);
+        this.compressionConfigured = compress;
+        uncompressedBytes = compress ? metrics.counter("bytes.body.uncompressed") : new LongAdder();
+        compressedBytes = compress ? metrics.counter("bytes.body.compressed") : new LongAdder();
+        compressionCpuTime = compress ? metrics.histogram("cpu.compression") : new LatencyHistogram();
+        tracer = metrics.getTracer();
+        if (compress) {
+            metrics.gauge("compression.ratio", () -> uncompressedBytes.sum() == 0 ? 0 :
+                    (double) compressedBytes.sum() / uncompressedBytes.sum());
+        }
+    }
+
+    /**
+     * Switches to uncompressed request bodies after the server rejected a request with HTTP 415. Requests already on
+     * their way may still be compressed, so this can be called more than once.
+     *
+     * @return {@code true} if compression was configured, i.e. the request should be sent again uncompressed.
+     */
+    boolean fallBackToIdentity() {
+        if (!compressionConfigured) {
+            return false;
+        }
+        if (compress.compareAndSet(true, false)) {
+            logger.warn("The server doesn't accept compressed requests. Sending them uncompressed.");
+        }
+        return true;
+    }
+
+    boolean isCompressing() {
+        return compress.get();
+    }
+
+    @Override
+    protected boolean supports(Class<?> clazz) {
+        return PerformNetverifyRequest.class == clazz;
+    }
+
+    @Override
+    public boolean canRead(Class<?> clazz, MediaType mediaType) {
+        return false;
+    }
+
+    @Override
+    protected PerformNetverifyRequest readInternal(Class<? extends PerformNetverifyRequest> clazz,
+            HttpInputMessage inputMessage) {
+        throw new UnsupportedOperationException("Reading API requests is not supported!");
+    }
+
+    /**
+     * Decides per request whether the body is compressed. Compressed bodies are sent without a content length.
+     */
+    @Override
+    protected void addDefaultHeaders(HttpHeaders headers, PerformNetverifyRequest request, MediaType contentType)
+            throws IOException {
+        if (compress.get()) {
+            headers.set(HttpHeaders.CONTENT_ENCODING, GZIP);
+        } else if (headers.getContentLength() < 0) {
+            headers.setContentLength(contentLength(request));
+        }
+        super.addDefaultHeaders(headers, request, contentType);
+    }
+
+    /**
+     * Not used, {@link #addDefaultHeaders(HttpHeaders, PerformNetverifyRequest, MediaType)} sets the content length
+     * if the body isn't compressed.
+     */
+    @Override
+    protected Long getContentLength(PerformNetverifyRequest request, MediaType contentType) {
+        return null;
+    }
+
+    private long contentLength(PerformNetverifyRequest request) throws IOException {
+        byte[] envelope = serializeEnvelope(request);
+        long contentLength = envelope.length + 1;
+        boolean firstMember = envelope.length == 1;
+        for (ImageMember image : imageMembers(request)) {
+            if (image.file != null) {
+                contentLength += memberPrefix(image.name, firstMember).length + base64Length(Files.size(image.file)) + 1;
+                firstMember = false;
+            }
+        }
+        return contentLength;
+    }
+
+    @Override
+    protected void writeInternal(PerformNetverifyRequest request, HttpOutputMessage outputMessage) throws IOException {
+        OutputStream body = outputMessage.getBody();
+        if (!GZIP.equals(outputMessage.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING))) {
+            writeJson(request, body);
+            body.flush();
+            return;
+        }
+        long cpuStartNanos = threadMXBean.getCurrentThreadCpuTime();
+        CountingOutputStream compressed = new CountingOutputStream(new NonClosingOutputStream(body));
+        CountingOutputStream uncompressed;
+        try (GZIPOutputStream gzip = new GZIPOutputStream(compressed, GZIP_BUFFER_SIZE)) {
+            uncompressed = new CountingOutputStream(gzip);
+            writeJson(request, uncompressed);
+        }
+        body.flush();
+        compressionCpuTime.record(threadMXBean.getCurrentThreadCpuTime() - cpuStartNanos);
+        uncompressedBytes.add(uncompressed.count);
+        compressedBytes.add(compressed.count);
+        logger.debug("Compressed request for {} from {} to {} bytes", request.getMerchantIdScanReference(),
+                uncompressed.count, compressed.count);
+    }
+
+    private void writeJson(PerformNetverifyRequest request, OutputStream body) throws IOException {
+        byte[] envelope = serializeEnvelope(request);
+        body.write(envelope);
+        long encodeStartNanos = System.nanoTime();
+        boolean firstMember = envelope.length == 1;
+        for (ImageMember image : imageMembers(request)) {
+            if (image.file != null) {
+                body.write(memberPrefix(image.name, firstMember));
+                try (OutputStream base64 = Base64.getEncoder().wrap(new NonClosingOutputStream(body))) {
+                    Files.copy(image.file, base64);
+                }
+                body.write('"');
+                firstMember = false;
+            }
+        }
+        body.write('}');
+        tracer.span("encode", request.getMerchantIdScanReference(), encodeStartNanos);
+    }
+
+    /**
+     * Serializes all fields that are not provided as files, without the closing brace.
+     *
+     * @param request The API request object.
+     * @return The UTF-8 encoded JSON, e.g. <code>{"a":"b"</code>, or just <code>{</code> if no field is set.
+     */
+    private byte[] serializeEnvelope(PerformNetverifyRequest request) {
+        long startNanos = System.nanoTime();
+        JsonObject envelope = gson.toJsonTree(request).getAsJsonObject();
+        for (ImageMember image : imageMembers(request)) {
+            if (image.file != null) {
+                envelope.remove(image.name);
+            }
+        }
+        StringBuilder json = new StringBuilder("{");
+        for (Map.Entry<String, JsonElement> member : envelope.entrySet()) {
+            if (json.length() > 1) {
+                json.append(',');
+            }
+            json.append(gson.toJson(member.getKey())).append(':').append(gson.toJson(member.getValue()));
+        }
+        byte[] serialized = json.toString().getBytes(StandardCharsets.UTF_8);
+        tracer.span("serialize", request.getMerchantIdScanReference(), startNanos);
+        return serialized;
+    }
+
+    private ImageMember[] imageMembers(PerformNetverifyRequest request) {
+        return new ImageMember[]{
+                new ImageMember(FRONTSIDE_IMAGE, request.getFrontsideImageFile()),
+                new ImageMember(BACKSIDE_IMAGE, request.getBacksideImageFile()),
+                new ImageMember(FACE_IMAGE, request.getFaceImageFile())
+        };
+    }
+
+    private static byte[] memberPrefix(String name, boolean firstMember) {
+        return ((firstMember ? "" : ",") + '"' + name + "\":\"").getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static long base64Length(long size) {
+        return 4 * ((size + 2) / 3);
+    }
+
+    private static final class ImageMember {
+
+        private final String name;
+
+        private final Path file;
+
+        ImageMember(String name, Path file) {
+            this.name = name;
+            this.file = file;
+        }
+    }
+
+    /**
+     * Lets the Base64 encoder write its padding on close without closing the request body.
+     */
+    private static final class NonClosingOutputStream extends FilterOutputStream {
+
+        NonClosingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static final class CountingOutputStream extends FilterOutputStream {
+
+        private long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
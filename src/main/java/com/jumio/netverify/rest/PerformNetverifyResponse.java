@@ -9,7 +9,7 @@ package com.jumio.netverify.rest;
 /**
  * DTO used when receiving a response from the Netverify v2 "perform" API endpoint.
  */
-final class PerformNetverifyResponse {
+public final class PerformNetverifyResponse {
 
     private String jumioIdScanReference;
 
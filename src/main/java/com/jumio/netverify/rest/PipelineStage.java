@@ -0,0 +1,108 @@
+/*
+ * Jumio Inc.
+ *
+ * Copyright (C) 2018
+ * All rights reserved.
+ */
+package com.jumio.netverify.rest;
+
+import com.jumio.netverify.metrics.MetricsRegistry;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+/**
+ * A stage of the upload pipeline: a fixed pool of worker threads fed by a bounded hand-off queue.
+ * <p>
+ * Submitting work blocks while the queue is full, so a slow stage holds back the stages feeding it instead of letting
+ * work pile up. Each stage exports two gauges, {@code stage.<name>.queueDepth} and {@code stage.<name>.utilization}.
+ * The utilization is the share of time the workers have been busy since the stage started, so the stage closest to
+ * 1.0 is the bottleneck.
+ */
+final class PipelineStage implements Executor, AutoCloseable {
+
+    private final String name;
+
+    private final int threads;
+
+    private final BlockingQueue<Runnable> queue;
+
+    private final ThreadPoolExecutor executor;
+
+    private final LongAdder busyNanos = new LongAdder();
+
+    private final long startNanos = System.nanoTime();
+
+    /**
+     * @param name The stage name, used for thread names and metrics.
+     * @param threads The number of worker threads.
+     * @param queueCapacity The maximum number of tasks waiting for a worker.
+     * @param metrics The registry the gauges are exported to.
+     */
+    PipelineStage(String name, int threads, int queueCapacity, MetricsRegistry metrics) {
+        this.name = name;
+        this.threads = Math.max(1, threads);
+        queue = new ArrayBlockingQueue<>(Math.max(1, queueCapacity));
+        executor = new ThreadPoolExecutor(this.threads, this.threads, 0L, TimeUnit.MILLISECONDS, queue,
+                new CustomizableThreadFactory(name + "-"), PipelineStage::waitForSpace);
+        metrics.gauge("stage." + name + ".queueDepth", this::getQueueDepth);
+        metrics.gauge("stage." + name + ".utilization", this::getUtilization);
+    }
+
+    /**
+     * Queues a task, waiting for space in the queue if necessary.
+     *
+     * @param task The task to run on a worker thread.
+     * @throws RejectedExecutionException If the stage is closed or the caller is interrupted while waiting.
+     */
+    @Override
+    public void execute(Runnable task) {
+        executor.execute(() -> {
+            long taskStartNanos = System.nanoTime();
+            try {
+                task.run();
+            } finally {
+                busyNanos.add(System.nanoTime() - taskStartNanos);
+            }
+        });
+    }
+
+    int getQueueDepth() {
+        return queue.size();
+    }
+
+    double getUtilization() {
+        long elapsedNanos = System.nanoTime() - startNanos;
+        return elapsedNanos <= 0 ? 0 : Math.min(1.0, (double) busyNanos.sum() / (threads * elapsedNanos));
+    }
+
+    /**
+     * Stops the workers, interrupting running tasks.
+     */
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+
+    private static void waitForSpace(Runnable task, ThreadPoolExecutor executor) {
+        if (executor.isShutdown()) {
+            throw new RejectedExecutionException("Pipeline stage is closed!");
+        }
+        try {
+            executor.getQueue().put(task);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException("Interrupted while waiting for a pipeline stage!", ie);
+        }
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * Jumio Inc.
+ *
+ * Copyright (C) 2018
+ * All rights reserved.
+ */
+package com.jumio.netverify.rest;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpStatus;
+
+/**
+ * Controls how fast requests are sent to the API.
+ * <p>
+ * Two limits are applied before each request:
+ * <ul>
+ * <li>a token bucket enforcing the configured ceiling of requests per second, if any. It holds a single token, so
+ * requests are evenly spaced instead of being sent in bursts,</li>
+ * <li>an adaptive concurrency limit (AIMD). It is halved when the server signals overload (HTTP 429, 5xx, timeouts)
+ * and reduced by a tenth when the latency rises well above the lowest latency seen. Otherwise it grows by one request
+ * per round trip, up to the number of upload workers.</li>
+ * </ul>
+ * Decreases are applied at most once per round trip, so a burst of rejected requests only counts as one signal.
+ */
+final class RateGovernor {
+
+    private static final Logger logger = LoggerFactory.getLogger(RateGovernor.class);
+
+    private static final double OVERLOAD_DECREASE = 0.5;
+
+    private static final double LATENCY_DECREASE = 0.9;
+
+    private static final double LATENCY_TOLERANCE = 2.0;
+
+    private static final double LATENCY_SMOOTHING = 0.2;
+
+    private static final double BASELINE_DRIFT = 0.01;
+
+    private final LongSupplier nanoClock;
+
+    private final double permitsPerNano;
+
+    private final boolean adaptive;
+
+    private final int maxConcurrency;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Condition concurrencyAvailable = lock.newCondition();
+
+    private double storedPermits;
+
+    private long lastRefillNanos;
+
+    private double concurrencyLimit;
+
+    private int inFlight;
+
+    private double smoothedLatencyNanos;
+
+    private double baselineLatencyNanos;
+
+    private long lastDecreaseNanos;
+
+    /**
+     * @param requestsPerSecond The ceiling of requests per second. Zero or less disables the token bucket.
+     * @param maxConcurrency The maximum number of requests in flight.
+     * @param adaptive Whether to adapt the number of requests in flight to the server's responses.
+     */
+    RateGovernor(double requestsPerSecond, int maxConcurrency, boolean adaptive) {
+        this(requestsPerSecond, maxConcurrency, adaptive, System::nanoTime);
+    }
+
+    RateGovernor(double requestsPerSecond, int maxConcurrency, boolean adaptive, LongSupplier nanoClock) {
+        this.nanoClock = nanoClock;
+        this.permitsPerNano = requestsPerSecond > 0 ? requestsPerSecond / TimeUnit.SECONDS.toNanos(1) : 0;
+        this.adaptive = adaptive;
+        this.maxConcurrency = Math.max(1, maxConcurrency);
+        this.storedPermits = 1;
+        this.lastRefillNanos = nanoClock.getAsLong();
+        this.concurrencyLimit = this.maxConcurrency;
+        this.lastDecreaseNanos = lastRefillNanos;
+    }
+
+    /**
+     * Blocks until a request may be sent. Each call has to be followed by a call to {@link #release(Signal, long)}.
+     */
+    void acquire() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (inFlight >= (int) concurrencyLimit) {
+                concurrencyAvailable.await();
+            }
+            inFlight++;
+        } finally {
+            lock.unlock();
+        }
+        long waitNanos = reservePermit();
+        if (waitNanos > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+            } catch (InterruptedException ie) {
+                release(Signal.NEUTRAL, 0);
+                throw ie;
+            }
+        }
+    }
+
+    /**
+     * Reports the outcome of a request sent after {@link #acquire()}.
+     *
+     * @param signal What the outcome says about the server's load.
+     * @param latencyNanos The time the request took.
+     */
+    void release(Signal signal, long latencyNanos) {
+        lock.lock();
+        try {
+            inFlight--;
+            if (adaptive) {
+                adapt(signal, latencyNanos);
+            }
+            concurrencyAvailable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int getConcurrencyLimit() {
+        lock.lock();
+        try {
+            return (int) concurrencyLimit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void adapt(Signal signal, long latencyNanos) {
+        if (signal == Signal.NEUTRAL) {
+            return;
+        }
+        long now = nanoClock.getAsLong();
+        if (signal == Signal.OVERLOADED) {
+            decrease(now, OVERLOAD_DECREASE, "server overload");
+            return;
+        }
+        smoothedLatencyNanos = smoothedLatencyNanos == 0 ? latencyNanos :
+                smoothedLatencyNanos + LATENCY_SMOOTHING * (latencyNanos - smoothedLatencyNanos);
+        baselineLatencyNanos = baselineLatencyNanos == 0 ? smoothedLatencyNanos :
+                Math.min(smoothedLatencyNanos, baselineLatencyNanos * (1 + BASELINE_DRIFT));
+        if (smoothedLatencyNanos > LATENCY_TOLERANCE * baselineLatencyNanos) {
+            decrease(now, LATENCY_DECREASE, "rising latency");
+        } else if (concurrencyLimit < maxConcurrency) {
+            concurrencyLimit = Math.min(maxConcurrency, concurrencyLimit + 1 / concurrencyLimit);
+            logger.debug("Increasing concurrency limit to {}", concurrencyLimit);
+        }
+    }
+
+    private void decrease(long now, double factor, String reason) {
+        if (now - lastDecreaseNanos < smoothedLatencyNanos) {
+            return;
+        }
+        lastDecreaseNanos = now;
+        double decreasedLimit = Math.max(1, concurrencyLimit * factor);
+        if ((int) decreasedLimit < (int) concurrencyLimit) {
+            logger.info("Reducing concurrent requests to {} due to {}", (int) decreasedLimit, reason);
+        }
+        concurrencyLimit = decreasedLimit;
+    }
+
+    /**
+     * Takes a permit from the token bucket. Permits may be borrowed from the future, the caller then has to wait
+     * until they would have been available.
+     *
+     * @return The time to wait before sending the request.
+     */
+    private long reservePermit() {
+        if (permitsPerNano == 0) {
+            return 0;
+        }
+        lock.lock();
+        try {
+            long now = nanoClock.getAsLong();
+            storedPermits = Math.min(1, storedPermits + (now - lastRefillNanos) * permitsPerNano);
+            lastRefillNanos = now;
+            storedPermits -= 1;
+            return storedPermits >= 0 ? 0 : (long) (-storedPermits / permitsPerNano);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Classifies an HTTP status code.
+     *
+     * @param status The status code of a response.
+     * @return {@link Signal#OVERLOADED} for 429 and 5xx, {@link Signal#HEALTHY} for 2xx, {@link Signal#NEUTRAL}
+     * otherwise.
+     */
+    static Signal classify(HttpStatus status) {
+        if (status == HttpStatus.TOO_MANY_REQUESTS || status.is5xxServerError()) {
+            return Signal.OVERLOADED;
+        }
+        return status.is2xxSuccessful() ? Signal.HEALTHY : Signal.NEUTRAL;
+    }
+
+    enum Signal {HEALTHY, OVERLOADED, NEUTRAL}
+}
@@ -0,0 +1,197 @@
+/*
+ * Jumio Inc.
+ *
+ * Copyright (C) 2018
+ * All rights reserved.
+ */
+package com.jumio.netverify.rest;
+
+import com.jumio.netverify.ConfigurationContext;
+import com.jumio.netverify.domain.ImageTriplet;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+import java.util.Map;
+import org.springframework.util.Assert;
+import org.springframework.util.MimeTypeUtils;
+
+/**
+ * Builds API request objects. Settings that don't change between calls are taken from the configuration, the rest
+ * from the image triplet or the images being sent.
+ */
+final class RequestFactory {
+
+    private final ConfigurationContext configuration;
+
+    RequestFactory(ConfigurationContext configuration) {
+        Assert.notNull(configuration, "Configuration context cannot be null!");
+        this.configuration = configuration;
+    }
+
+    /**
+     * Builds a request for an image triplet. The images are only referenced here, they are read and encoded while the
+     * request body is written.
+     *
+     * @param imageTriplet The image triplet being sent, possibly carrying applicant data.
+     * @param front The ID front image to send.
+     * @param back The ID back image to send, if any.
+     * @param face The face image to send, if any.
+     * @return A complete request object.
+     * @throws IllegalArgumentException If a value of the applicant data is invalid.
+     */
+    PerformNetverifyRequest create(ImageTriplet imageTriplet, Path front, Path back, Path face) {
+        PerformNetverifyRequest performNetverifyRequest = buildRequest();
+        setApplicantData(performNetverifyRequest, imageTriplet);
+        setImageData(performNetverifyRequest, imageTriplet.getUniqueId(), front, back, face);
+        return performNetverifyRequest;
+    }
+
+    /**
+     * Builds a request for images held in memory. They are Base64 encoded right away.
+     *
+     * @param uniqueId The unique image triplet ID.
+     * @param front The ID front image.
+     * @param back The ID back image, if any.
+     * @param face The face image, if any.
+     * @return A complete request object.
+     * @throws IllegalArgumentException If an image is neither a JPEG nor a PNG image.
+     */
+    PerformNetverifyRequest create(String uniqueId, byte[] front, byte[] back, byte[] face) {
+        Assert.hasText(uniqueId, "Unique image triplet ID cannot be empty!");
+        Assert.notNull(front, "ID front image cannot be null!");
+        PerformNetverifyRequest performNetverifyRequest = buildRequest();
+        performNetverifyRequest.setMerchantIdScanReference(uniqueId);
+        performNetverifyRequest.setFrontsideImage(encode(front));
+        performNetverifyRequest.setFrontsideImageMimeType(getMimeType(front));
+        performNetverifyRequest.setBacksideImage(encode(back));
+        performNetverifyRequest.setBacksideImageMimeType(getMimeType(back));
+        performNetverifyRequest.setFaceImage(encode(face));
+        performNetverifyRequest.setFaceImageMimeType(getMimeType(face));
+        return performNetverifyRequest;
+    }
+
+    private PerformNetverifyRequest buildRequest() {
+        PerformNetverifyRequest performNetverifyRequest = new PerformNetverifyRequest();
+        performNetverifyRequest.setEnabledFields(configuration.getApiEnabledFields());
+        performNetverifyRequest.setMerchantReportingCriteria(configuration.getApiMerchantReportingCriteria());
+        performNetverifyRequest.setCallbackUrl(configuration.getApiCallbackUrl());
+        return performNetverifyRequest;
+    }
+
+    /**
+     * Sets the request fields provided with an image triplet, e.g. by a manifest.
+     *
+     * @throws IllegalArgumentException If a value is invalid, e.g. a date not formatted as YYYY-MM-DD.
+     */
+    private void setApplicantData(PerformNetverifyRequest performNetverifyRequest, ImageTriplet imageTriplet) {
+        for (Map.Entry<String, String> field : imageTriplet.getApplicantData().entrySet()) {
+            String value = field.getValue();
+            try {
+                switch (field.getKey()) {
+                    case "customerId":
+                        performNetverifyRequest.setCustomerId(value);
+                        break;
+                    case "firstName":
+                        performNetverifyRequest.setFirstName(value);
+                        break;
+                    case "lastName":
+                        performNetverifyRequest.setLastName(value);
+                        break;
+                    case "dob":
+                        performNetverifyRequest.setDob(LocalDate.parse(value).atStartOfDay());
+                        break;
+                    case "country":
+                        performNetverifyRequest.setCountry(value);
+                        break;
+                    case "usState":
+                        performNetverifyRequest.setUsState(value);
+                        break;
+                    case "idType":
+                        performNetverifyRequest.setIdType(PerformNetverifyRequest.IdType.valueOf(value));
+                        break;
+                    case "number":
+                        performNetverifyRequest.setNumber(value);
+                        break;
+                    case "expiry":
+                        performNetverifyRequest.setExpiry(LocalDate.parse(value).atStartOfDay());
+                        break;
+                    case "personalNumber":
+                        performNetverifyRequest.setPersonalNumber(value);
+                        break;
+                    case "additionalInformation":
+                        performNetverifyRequest.setAdditionalInformation(value);
+                        break;
+                    case "merchantReportingCriteria":
+                        performNetverifyRequest.setMerchantReportingCriteria(value);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unsupported field");
+                }
+            } catch (IllegalArgumentException | DateTimeParseException e) {
+                throw new IllegalArgumentException("Invalid value: " + value + " for field: " + field.getKey() +
+                        " of ID " + imageTriplet.getUniqueId(), e);
+            }
+        }
+    }
+
+    /**
+     * Updates an API request object with the image data. The MIME types follow the file names, which differ from the
+     * original ones if an image was converted.
+     *
+     * @param performNetverifyRequest The API request object being updated.
+     * @param uniqueId The unique image triplet ID.
+     */
+    private void setImageData(PerformNetverifyRequest performNetverifyRequest, String uniqueId, Path front, Path back,
+            Path face) {
+        performNetverifyRequest.setMerchantIdScanReference(uniqueId);
+        performNetverifyRequest.setFrontsideImageFile(front);
+        performNetverifyRequest.setFrontsideImageMimeType(getMimeType(front));
+        performNetverifyRequest.setFaceImageFile(face);
+        performNetverifyRequest.setFaceImageMimeType(getMimeType(face));
+        performNetverifyRequest.setBacksideImageFile(back);
+        performNetverifyRequest.setBacksideImageMimeType(getMimeType(back));
+    }
+
+    /**
+     * Extracts a MIME type from a file name based on the extension. Only supports types accepted by the API.
+     *
+     * @param image The inspected image path.
+     */
+    private static String getMimeType(Path image) {
+        if (image == null) {
+            return null;
+        }
+        String imagePath = image.toString();
+        if (imagePath.endsWith(ConfigurationContext.JPEG_IMAGE)) {
+            return MimeTypeUtils.IMAGE_JPEG_VALUE;
+        } else if (imagePath.endsWith(ConfigurationContext.PNG_IMAGE)) {
+            return MimeTypeUtils.IMAGE_PNG_VALUE;
+        } else {
+            return "";
+        }
+    }
+
+    /**
+     * Detects the MIME type of an image by its signature. Only supports types accepted by the API.
+     *
+     * @param image The image data.
+     * @throws IllegalArgumentException If the image is neither a JPEG nor a PNG image.
+     */
+    private static String getMimeType(byte[] image) {
+        if (image == null) {
+            return null;
+        }
+        if (image.length >= 3 && (image[0] & 0xff) == 0xff && (image[1] & 0xff) == 0xd8 && (image[2] & 0xff) == 0xff) {
+            return MimeTypeUtils.IMAGE_JPEG_VALUE;
+        } else if (image.length >= 4 && (image[0] & 0xff) == 0x89 && image[1] == 'P' && image[2] == 'N' &&
+                image[3] == 'G') {
+            return MimeTypeUtils.IMAGE_PNG_VALUE;
+        }
+        throw new IllegalArgumentException("Only JPEG and PNG images are supported!");
+    }
+
+    private static String encode(byte[] image) {
+        return image == null ? null : Base64.getEncoder().encodeToString(image);
+    }
+}
@@ -0,0 +1,268 @@
+/*
+ * Jumio Inc.
+ *
+ * Copyright (C) 2018
+ * All rights reserved.
+ */
+package com.jumio.netverify.rest;
+
+import com.jumio.netverify.ConfigurationContext;
+import com.jumio.netverify.journal.SubmissionJournal;
+import com.jumio.netverify.metrics.LatencyHistogram;
+import com.jumio.netverify.metrics.MetricsRegistry;
+import com.jumio.netverify.metrics.Tracer;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.util.Assert;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpStatusCodeException;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.RestTemplate;
+
+/**
+ * Sends API requests on the calling thread, applying the rate and concurrency limits, the retry policy and the circuit
+ * breaker. Thread-safe, so a single instance is shared by all workers and all of its limits apply to them as a whole.
+ */
+final class RequestSender {
+
+    private static final Logger logger = LoggerFactory.getLogger(RequestSender.class);
+
+    private final RestTemplate restTemplate;
+
+    private final HttpHeaders httpHeaders;
+
+    private final String serverUrl;
+
+    private final SubmissionJournal journal;
+
+    private final MetricsRegistry metrics;
+
+    private final Tracer tracer;
+
+    private final RateGovernor rateGovernor;
+
+    private final RetryPolicy retryPolicy;
+
+    private final CircuitBreaker circuitBreaker;
+
+    private final LongAdder requestsSent;
+
+    private final LongAdder requestsRetried;
+
+    private final LongAdder imageBytesSent;
+
+    private final LongAdder ioErrors;
+
+    private final LatencyHistogram requestLatency;
+
+    private final LatencyHistogram throttleTime;
+
+    private final LatencyHistogram backoffTime;
+
+    /**
+     * @param configuration The configuration context providing the API settings and limits.
+     * @param restTemplate The HTTP client.
+     * @param journal The journal each attempt is recorded to before it is sent.
+     * @param metrics The registry request metrics are recorded to.
+     */
+    RequestSender(ConfigurationContext configuration, RestTemplate restTemplate, SubmissionJournal journal,
+            MetricsRegistry metrics) {
+        Assert.notNull(configuration, "Configuration context cannot be null!");
+        Assert.notNull(restTemplate, "REST template cannot be null!");
+        Assert.notNull(journal, "Submission journal cannot be null!");
+        Assert.notNull(metrics, "Metrics registry cannot be null!");
+        this.restTemplate = restTemplate;
+        httpHeaders = RestTemplateBuilder.buildHttpHeaders(configuration);
+        serverUrl = configuration.getApiServerUrl();
+        this.journal = journal;
+        this.metrics = metrics;
+        tracer = metrics.getTracer();
+        requestsSent = metrics.counter("requests.sent");
+        requestsRetried = metrics.counter("requests.retried");
+        imageBytesSent = metrics.counter("bytes.images");
+        ioErrors = metrics.counter("errors.io");
+        requestLatency = metrics.histogram("latency.request");
+        throttleTime = metrics.histogram("phase.throttle");
+        backoffTime = metrics.histogram("phase.backoff");
+        rateGovernor = new RateGovernor(configuration.getApiRateLimit(), configuration.getUploadConcurrency(),
+                configuration.isApiAdaptiveConcurrency());
+        retryPolicy = new RetryPolicy(configuration.getApiRetryMaxAttempts(),
+                configuration.getApiRetryInitialBackoff(), configuration.getApiRetryMaxBackoff(),
+                configuration.getApiRetryBudgetRatio());
+        circuitBreaker = new CircuitBreaker(configuration.getApiCircuitBreakerFailureThreshold(),
+                configuration.getApiCircuitBreakerOpenTime());
+    }
+
+    /**
+     * Sends a single API request. Transient failures are retried as long as the retry policy allows it. A compressed
+     * request rejected by the server is sent again uncompressed once, without counting as an attempt.
+     *
+     * @param performNetverifyRequest A complete and valid request object. Each call needs its own request object.
+     * @return The response body, if any.
+     * @throws RestClientException The failure of the last attempt, if the request didn't succeed.
+     */
+    PerformNetverifyResponse send(PerformNetverifyRequest performNetverifyRequest) throws InterruptedException {
+        String uniqueId = performNetverifyRequest.getMerchantIdScanReference();
+        retryPolicy.onFirstAttempt();
+        boolean sentUncompressed = false;
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return sendAttempt(performNetverifyRequest);
+            } catch (RestClientException e) {
+                if (!sentUncompressed && isCompressionRejected(e)) {
+                    sentUncompressed = true;
+                    attempt--;
+                    continue;
+                }
+                if (!retryPolicy.shouldRetry(e, attempt)) {
+                    throw e;
+                }
+                long backoffMillis = retryPolicy.backoffMillis(e, attempt);
+                logger.warn("Attempt {} for {} failed: {}. Retrying in {} ms.", attempt, uniqueId, e.getMessage(),
+                        backoffMillis);
+                requestsRetried.increment();
+                long backoffStartNanos = System.nanoTime();
+                TimeUnit.MILLISECONDS.sleep(backoffMillis);
+                backoffTime.recordSince(backoffStartNanos);
+                tracer.span("backoff", uniqueId, backoffStartNanos);
+            }
+        }
+    }
+
+    /**
+     * Makes a single attempt at an API call, once the circuit breaker and the rate governor allow it. Every attempt
+     * reports its outcome to the circuit breaker, so a probe request never leaves it waiting.
+     *
+     * @param performNetverifyRequest A complete and valid request object.
+     * @return The response body, if any.
+     */
+    private PerformNetverifyResponse sendAttempt(PerformNetverifyRequest performNetverifyRequest)
+            throws InterruptedException {
+        long throttleStartNanos = System.nanoTime();
+        boolean probe = circuitBreaker.awaitPermission();
+        boolean reported = false;
+        try {
+            rateGovernor.acquire();
+            RateGovernor.Signal signal = RateGovernor.Signal.NEUTRAL;
+            long startNanos = System.nanoTime();
+            throttleTime.record(startNanos - throttleStartNanos);
+            tracer.span("throttle", performNetverifyRequest.getMerchantIdScanReference(), throttleStartNanos);
+            requestsSent.increment();
+            imageBytesSent.add(imageBytes(performNetverifyRequest));
+            try {
+                journal.recordSending(performNetverifyRequest.getMerchantIdScanReference());
+                PerformNetverifyResponse response = makeApiCall(performNetverifyRequest);
+                signal = RateGovernor.Signal.HEALTHY;
+                circuitBreaker.onSuccess();
+                reported = true;
+                return response;
+            } catch (RestClientException e) {
+                signal = classify(e);
+                recordError(e);
+                if (RetryPolicy.isTransient(e)) {
+                    circuitBreaker.onFailure();
+                    reported = true;
+                } else if (e instanceof HttpStatusCodeException) {
+                    circuitBreaker.onSuccess();
+                    reported = true;
+                }
+                throw e;
+            } finally {
+                long latencyNanos = System.nanoTime() - startNanos;
+                requestLatency.record(latencyNanos);
+                tracer.span("request", performNetverifyRequest.getMerchantIdScanReference(), startNanos);
+                rateGovernor.release(signal, latencyNanos);
+            }
+        } finally {
+            if (probe && !reported) {
+                circuitBreaker.onProbeAbandoned();
+            }
+        }
+    }
+
+    /**
+     * Sends an HTTP request to the Netverify API.
+     *
+     * @param performNetverifyRequest A complete and valid request object.
+     * @return The response body, if any.
+     */
+    private PerformNetverifyResponse makeApiCall(PerformNetverifyRequest performNetverifyRequest) {
+        HttpEntity<PerformNetverifyRequest> httpRequest = new HttpEntity<>(performNetverifyRequest, httpHeaders);
+        ResponseEntity<PerformNetverifyResponse> response = restTemplate.postForEntity(serverUrl, httpRequest,
+                PerformNetverifyResponse.class);
+        metrics.recordStatusCode(response.getStatusCodeValue());
+        logResponse(performNetverifyRequest.getMerchantIdScanReference(), response);
+        return response.getBody();
+    }
+
+    private void logResponse(String merchantScanRef, ResponseEntity<PerformNetverifyResponse> response) {
+        if (HttpStatus.OK.equals(response.getStatusCode()) && response.getBody() != null) {
+            logger.info("Submitted: {}. Jumio scan reference: {}", merchantScanRef,
+                    response.getBody().getJumioIdScanReference());
+        } else {
+            logger.error("HTTP {}: {}", response.getStatusCodeValue(), response.getBody());
+        }
+    }
+
+    private void recordError(RestClientException exception) {
+        if (exception instanceof HttpStatusCodeException) {
+            metrics.recordStatusCode(((HttpStatusCodeException) exception).getRawStatusCode());
+        } else if (exception instanceof ResourceAccessException) {
+            ioErrors.increment();
+        }
+    }
+
+    /**
+     * Tells whether the server rejected a compressed request. Further requests are sent uncompressed then.
+     */
+    private boolean isCompressionRejected(RestClientException exception) {
+        if (!(exception instanceof HttpClientErrorException) ||
+                ((HttpClientErrorException) exception).getStatusCode() != HttpStatus.UNSUPPORTED_MEDIA_TYPE) {
+            return false;
+        }
+        return restTemplate.getMessageConverters().stream()
+                .filter(PerformNetverifyRequestConverter.class::isInstance)
+                .anyMatch(converter -> ((PerformNetverifyRequestConverter) converter).fallBackToIdentity());
+    }
+
+    /**
+     * Tells whether a failed request indicates that the server is overloaded. Error responses are classified by
+     * their status code, I/O errors such as timeouts count as overload. Errors reading a local image file don't.
+     */
+    private static RateGovernor.Signal classify(RestClientException exception) {
+        if (exception instanceof HttpStatusCodeException) {
+            return RateGovernor.classify(((HttpStatusCodeException) exception).getStatusCode());
+        }
+        return exception instanceof ResourceAccessException && !RetryPolicy.isLocalFailure(exception) ?
+                RateGovernor.Signal.OVERLOADED : RateGovernor.Signal.NEUTRAL;
+    }
+
+    /**
+     * Sums up the sizes of the images of a request, i.e. the payload before Base64 encoding. Images provided in
+     * memory are counted by their Base64 length.
+     */
+    static long imageBytes(PerformNetverifyRequest performNetverifyRequest) {
+        return fileSize(performNetverifyRequest.getFrontsideImageFile()) +
+                fileSize(performNetverifyRequest.getBacksideImageFile()) +
+                fileSize(performNetverifyRequest.getFaceImageFile()) +
+                decodedLength(performNetverifyRequest.getFrontsideImage()) +
+                decodedLength(performNetverifyRequest.getBacksideImage()) +
+                decodedLength(performNetverifyRequest.getFaceImage());
+    }
+
+    static long fileSize(Path file) {
+        return file == null ? 0 : file.toFile().length();
+    }
+
+    private static long decodedLength(String base64) {
+        return base64 == null ? 0 : base64.length() / 4 * 3;
+    }
+}
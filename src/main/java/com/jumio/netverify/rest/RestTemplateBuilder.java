@@ -8,84 +8,172 @@ package com.jumio.netverify.rest;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.JsonPrimitive;
+import com.google.gson.JsonSerializer;
 import com.jumio.netverify.ConfigurationContext;
-import java.io.IOException;
+import com.jumio.netverify.metrics.MetricsRegistry;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.Base64;
 import java.util.Collections;
-import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.ssl.SSLContexts;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.http.HttpHeaders;
-import org.springframework.http.HttpRequest;
 import org.springframework.http.MediaType;
-import org.springframework.http.client.ClientHttpRequestExecution;
-import org.springframework.http.client.ClientHttpRequestInterceptor;
-import org.springframework.http.client.ClientHttpResponse;
-import org.springframework.http.client.support.BasicAuthorizationInterceptor;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
 import org.springframework.http.converter.json.GsonHttpMessageConverter;
 import org.springframework.util.Assert;
 import org.springframework.web.client.RestTemplate;
 
-import static org.apache.http.HttpHeaders.USER_AGENT;
-
 /**
  * Simple facade for building instances of {@link RestTemplate} and supplementary types required for executing an HTTP
  * request.
  */
 final public class RestTemplateBuilder {
 
+    private static final Logger logger = LoggerFactory.getLogger(RestTemplateBuilder.class);
+
     private static final String DEFAULT_USER_AGENT = "Jumio Perform NV CLI Tool/v0.1";
 
+    private static final int STALE_CONNECTION_CHECK_MILLIS = 2000;
+
     /**
      * Builds a new {@link RestTemplate} instance.
+     * <p>
+     * Request bodies are streamed, so no request interceptors are registered - those would buffer the whole body. The
+     * credentials and the user agent are sent with the headers from {@link #buildHttpHeaders(ConfigurationContext)}.
      *
      * @return See above.
      */
     public static RestTemplate buildRestTemplate(ConfigurationContext configuration) {
+        return buildRestTemplate(configuration, new MetricsRegistry());
+    }
+
+    /**
+     * Builds a new {@link RestTemplate} instance like {@link #buildRestTemplate(ConfigurationContext)}. If
+     * {@code api.compressRequests} is set, request bodies are gzip compressed and the compression is recorded to the
+     * provided registry.
+     *
+     * @param configuration The configuration context providing the HTTP settings.
+     * @param metrics The registry request metrics are recorded to.
+     * @return See above.
+     */
+    public static RestTemplate buildRestTemplate(ConfigurationContext configuration, MetricsRegistry metrics) {
         Assert.notNull(configuration, "Configuration context cannot be null!");
-        RestTemplate restTemplate = new RestTemplate();
+        Assert.notNull(metrics, "Metrics registry cannot be null!");
+        HttpComponentsClientHttpRequestFactory requestFactory =
+                new HttpComponentsClientHttpRequestFactory(buildHttpClient(configuration));
+        requestFactory.setBufferRequestBody(false);
+        RestTemplate restTemplate = new RestTemplate(requestFactory);
 
-        configureRequestInterceptors(configuration, restTemplate);
-        configureMessageConverters(restTemplate);
+        configureMessageConverters(restTemplate, configuration.isApiCompressRequests(), metrics);
 
         return restTemplate;
     }
 
-    private static void configureRequestInterceptors(ConfigurationContext configuration, RestTemplate restTemplate) {
-        List<ClientHttpRequestInterceptor> interceptors = restTemplate.getInterceptors();
-        interceptors.add(new BasicAuthorizationInterceptor(configuration.getApiToken(), configuration.getApiSecret()));
-        interceptors.add(new UserAgentHeaderInterceptor(DEFAULT_USER_AGENT));
-        restTemplate.setInterceptors(interceptors);
+    /**
+     * Builds a pooling HTTP client. Connections are kept alive and reused across requests and worker threads. All
+     * connections share one SSL context, so TLS sessions are resumed when a new connection has to be opened.
+     *
+     * @param configuration The configuration context providing the pool limits and timeouts.
+     * @return See above.
+     */
+    private static CloseableHttpClient buildHttpClient(ConfigurationContext configuration) {
+        Registry<ConnectionSocketFactory> socketFactoryRegistry = RegistryBuilder.<ConnectionSocketFactory>create()
+                .register("http", PlainConnectionSocketFactory.getSocketFactory())
+                .register("https", new SSLConnectionSocketFactory(SSLContexts.createSystemDefault()))
+                .build();
+        PoolingHttpClientConnectionManager connectionManager =
+                new PoolingHttpClientConnectionManager(socketFactoryRegistry);
+        connectionManager.setMaxTotal(configuration.getHttpMaxConnections());
+        connectionManager.setDefaultMaxPerRoute(configuration.getHttpMaxConnectionsPerRoute());
+        connectionManager.setValidateAfterInactivity(STALE_CONNECTION_CHECK_MILLIS);
+        if (configuration.getHttpMaxConnectionsPerRoute() < configuration.getUploadConcurrency()) {
+            logger.warn("Fewer connections per route ({}) than upload workers ({}). Workers will wait for connections.",
+                    configuration.getHttpMaxConnectionsPerRoute(), configuration.getUploadConcurrency());
+        }
+
+        RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectTimeout(configuration.getHttpConnectTimeout())
+                .setSocketTimeout(configuration.getHttpReadTimeout())
+                .setConnectionRequestTimeout(configuration.getHttpConnectionRequestTimeout())
+                .build();
+
+        return HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(requestConfig)
+                .setKeepAliveStrategy(keepAliveStrategy(configuration.getHttpKeepAliveTimeout()))
+                .disableConnectionState()
+                .evictExpiredConnections()
+                .evictIdleConnections((long) configuration.getHttpIdleConnectionTimeout(), TimeUnit.MILLISECONDS)
+                .build();
     }
 
-    private static void configureMessageConverters(RestTemplate restTemplate) {
-        final Gson gson = new GsonBuilder().disableHtmlEscaping().create();
+    /**
+     * Keeps connections alive as long as the server allows via the {@code Keep-Alive} header, or for the configured
+     * time if the server doesn't send one.
+     */
+    private static ConnectionKeepAliveStrategy keepAliveStrategy(long defaultKeepAliveMillis) {
+        return (response, context) -> {
+            long keepAliveMillis = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+            return keepAliveMillis > 0 ? keepAliveMillis : defaultKeepAliveMillis;
+        };
+    }
+
+    private static void configureMessageConverters(RestTemplate restTemplate, boolean compressRequests,
+            MetricsRegistry metrics) {
+        final Gson gson = buildGson();
         restTemplate.getMessageConverters().stream().filter(
                 c -> GsonHttpMessageConverter.class.isAssignableFrom(c.getClass())).findFirst().ifPresent(
                 c -> ((GsonHttpMessageConverter)c).setGson(gson));
+        restTemplate.getMessageConverters().add(0,
+                new PerformNetverifyRequestConverter(gson, compressRequests, metrics));
+    }
+
+    /**
+     * Builds the JSON serializer of the API requests and responses. Dates are sent as YYYY-MM-DD, as expected by the
+     * API.
+     *
+     * @return See above.
+     */
+    static Gson buildGson() {
+        return new GsonBuilder().disableHtmlEscaping()
+                .registerTypeAdapter(LocalDateTime.class, (JsonSerializer<LocalDateTime>) (date, type, context) ->
+                        new JsonPrimitive(date.toLocalDate().toString()))
+                .create();
     }
 
     /**
      * Builds default HTTP headers used with each request.
      *
+     * @param configuration The configuration context providing the API credentials.
      * @return See above.
      */
-    static HttpHeaders buildHttpHeaders() {
+    static HttpHeaders buildHttpHeaders(ConfigurationContext configuration) {
         HttpHeaders httpHeaders = new HttpHeaders();
         httpHeaders.setAccept(Collections.singletonList(MediaType.APPLICATION_JSON));
         httpHeaders.setContentType(MediaType.APPLICATION_JSON);
+        httpHeaders.set(HttpHeaders.AUTHORIZATION,
+                basicAuthorization(configuration.getApiToken(), configuration.getApiSecret()));
+        httpHeaders.set(HttpHeaders.USER_AGENT, DEFAULT_USER_AGENT);
         return httpHeaders;
     }
 
-    private static final class UserAgentHeaderInterceptor implements ClientHttpRequestInterceptor {
-
-        private final String userAgent;
-
-        UserAgentHeaderInterceptor(String userAgent) {
-            this.userAgent = userAgent;
-        }
-
-        public ClientHttpResponse intercept(HttpRequest request, byte[] body, ClientHttpRequestExecution execution)
-                throws IOException {
-            request.getHeaders().add(USER_AGENT, this.userAgent);
-            return execution.execute(request, body);
-        }
+    private static String basicAuthorization(String username, String password) {
+        String credentials = username + ":" + password;
+        return "Basic " + Base64.getEncoder().encodeToString(credentials.getBytes(StandardCharsets.UTF_8));
     }
 }
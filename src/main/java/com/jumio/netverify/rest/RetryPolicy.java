@@ -0,0 +1,147 @@
+/*
+ * Jumio Inc.
+ *
+ * Copyright (C) 2018
+ * All rights reserved.
+ */
+package com.jumio.netverify.rest;
+
+import java.nio.file.FileSystemException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.client.HttpStatusCodeException;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestClientException;
+
+/**
+ * Decides whether a failed API call is retried and how long to wait before the next attempt.
+ * <p>
+ * Only transient failures are retried: I/O errors while talking to the server and the HTTP statuses 408, 429, 500,
+ * 502, 503 and 504. Any other error response is permanent. So is an error reading a local image file.
+ * <p>
+ * The wait time grows exponentially with each attempt and is fully jittered, so that workers failing at the same time
+ * don't retry at the same time. A {@code Retry-After} header sent by the server is respected. Retries are also capped
+ * by a budget shared by all workers: at most {@code budgetRatio} retries per first attempt, plus a small reserve. This
+ * keeps retries from multiplying the load on a struggling server.
+ */
+final class RetryPolicy {
+
+    private static final long RETRY_RESERVE = 10;
+
+    private final int maxAttempts;
+
+    private final long initialBackoffMillis;
+
+    private final long maxBackoffMillis;
+
+    private final double budgetRatio;
+
+    private final AtomicLong firstAttempts = new AtomicLong();
+
+    private final AtomicLong retries = new AtomicLong();
+
+    RetryPolicy(int maxAttempts, long initialBackoffMillis, long maxBackoffMillis, double budgetRatio) {
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.initialBackoffMillis = Math.max(1, initialBackoffMillis);
+        this.maxBackoffMillis = Math.max(this.initialBackoffMillis, maxBackoffMillis);
+        this.budgetRatio = Math.max(0, budgetRatio);
+    }
+
+    /**
+     * Registers the first attempt of a call, which adds to the retry budget.
+     */
+    void onFirstAttempt() {
+        firstAttempts.incrementAndGet();
+    }
+
+    /**
+     * Decides whether a failed attempt is retried. Takes a retry from the budget if it is.
+     *
+     * @param exception The failure of the attempt.
+     * @param attempt The number of the failed attempt, starting with 1.
+     * @return {@code true} if the call should be attempted again.
+     */
+    boolean shouldRetry(RestClientException exception, int attempt) {
+        if (attempt >= maxAttempts || !isTransient(exception)) {
+            return false;
+        }
+        long budget = RETRY_RESERVE + (long) (budgetRatio * firstAttempts.get());
+        while (true) {
+            long spent = retries.get();
+            if (spent >= budget) {
+                return false;
+            }
+            if (retries.compareAndSet(spent, spent + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Computes the time to wait before the next attempt.
+     *
+     * @param exception The failure of the previous attempt.
+     * @param attempt The number of the failed attempt, starting with 1.
+     * @return The wait time in milliseconds.
+     */
+    long backoffMillis(RestClientException exception, int attempt) {
+        long ceiling = initialBackoffMillis << Math.min(attempt - 1, 30);
+        long jittered = ThreadLocalRandom.current().nextLong(Math.min(maxBackoffMillis, ceiling) + 1);
+        return Math.max(jittered, Math.min(maxBackoffMillis, retryAfterMillis(exception)));
+    }
+
+    /**
+     * Tells whether a failure is likely to go away by itself.
+     *
+     * @param exception The failure of an attempt.
+     * @return See above.
+     */
+    static boolean isTransient(RestClientException exception) {
+        if (exception instanceof HttpStatusCodeException) {
+            HttpStatus status = ((HttpStatusCodeException) exception).getStatusCode();
+            switch (status) {
+                case REQUEST_TIMEOUT:
+                case TOO_MANY_REQUESTS:
+                case INTERNAL_SERVER_ERROR:
+                case BAD_GATEWAY:
+                case SERVICE_UNAVAILABLE:
+                case GATEWAY_TIMEOUT:
+                    return true;
+                default:
+                    return false;
+            }
+        }
+        return exception instanceof ResourceAccessException && !isLocalFailure(exception);
+    }
+
+    /**
+     * Tells whether a failure was caused by a local file, e.g. an image deleted before it was sent.
+     */
+    static boolean isLocalFailure(RestClientException exception) {
+        for (Throwable cause = exception.getCause(); cause != null; cause = cause.getCause()) {
+            if (cause instanceof FileSystemException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static long retryAfterMillis(RestClientException exception) {
+        if (!(exception instanceof HttpStatusCodeException)) {
+            return 0;
+        }
+        HttpHeaders headers = ((HttpStatusCodeException) exception).getResponseHeaders();
+        String retryAfter = headers == null ? null : headers.getFirst("Retry-After");
+        if (retryAfter == null) {
+            return 0;
+        }
+        try {
+            return TimeUnit.SECONDS.toMillis(Long.parseLong(retryAfter.trim()));
+        } catch (NumberFormatException nfe) {
+            return 0;
+        }
+    }
+}
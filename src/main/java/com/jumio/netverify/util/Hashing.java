@@ -0,0 +1,73 @@
+/*
+ * Jumio Inc.
+ *
+ * Copyright (C) 2018
+ * All rights reserved.
+ */
+package com.jumio.netverify.util;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Fast, non-cryptographic 64-bit hash functions. The results are stable across JVM runs, so they can be persisted.
+ */
+public final class Hashing {
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private Hashing() {
+    }
+
+    /**
+     * Hashes a string, e.g. a unique image triplet ID. Uses FNV-1a over the UTF-16 code units, followed by a final
+     * mix so that the low bits are evenly distributed as well.
+     *
+     * @param value The hashed string.
+     * @return A 64-bit hash.
+     */
+    public static long hash64(CharSequence value) {
+        long hash = FNV_OFFSET_BASIS;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            hash = (hash ^ (c & 0xff)) * FNV_PRIME;
+            hash = (hash ^ (c >>> 8)) * FNV_PRIME;
+        }
+        return mix64(hash);
+    }
+
+    /**
+     * Continues hashing with the remaining bytes of a buffer, e.g. a chunk of a file. Uses FNV-1a without the final
+     * mix, so that a file can be hashed chunk by chunk. Apply {@link #mix64(long)} to the result.
+     *
+     * @param hash The hash of the previous chunks, or {@link #hash64Seed()} for the first one.
+     * @param buffer The hashed bytes. The buffer's position is moved to its limit.
+     * @return The updated hash.
+     */
+    public static long hash64(long hash, ByteBuffer buffer) {
+        while (buffer.hasRemaining()) {
+            hash = (hash ^ (buffer.get() & 0xff)) * FNV_PRIME;
+        }
+        return hash;
+    }
+
+    /**
+     * @return The initial value for {@link #hash64(long, ByteBuffer)}.
+     */
+    public static long hash64Seed() {
+        return FNV_OFFSET_BASIS;
+    }
+
+    /**
+     * The MurmurHash3 64-bit finalizer.
+     *
+     * @param value The mixed value.
+     * @return A value where each input bit affects all output bits.
+     */
+    public static long mix64(long value) {
+        value = (value ^ (value >>> 33)) * 0xff51afd7ed558ccdL;
+        value = (value ^ (value >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return value ^ (value >>> 33);
+    }
+}
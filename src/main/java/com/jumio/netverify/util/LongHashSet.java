@@ -0,0 +1,110 @@
+/*
+ * Jumio Inc.
+ *
+ * Copyright (C) 2018
+ * All rights reserved.
+ */
+package com.jumio.netverify.util;
+
+/**
+ * Set of primitive {@code long} values, backed by a single open addressing array.
+ * <p>
+ * Used to keep millions of hashed keys in memory at 8 to 16 bytes per entry, without any boxing. Removal is not
+ * supported. Not thread-safe.
+ */
+public final class LongHashSet {
+
+    private static final long EMPTY = 0L;
+
+    private static final int MAX_CAPACITY = 1 << 30;
+
+    private long[] values;
+
+    private boolean containsEmpty;
+
+    private int size;
+
+    public LongHashSet() {
+        this(1024);
+    }
+
+    public LongHashSet(int expectedSize) {
+        values = new long[capacityFor(expectedSize)];
+    }
+
+    /**
+     * Adds a value to the set.
+     *
+     * @param value The added value.
+     * @return {@code true} if the value was not yet present.
+     */
+    public boolean add(long value) {
+        if (value == EMPTY) {
+            if (containsEmpty) {
+                return false;
+            }
+            containsEmpty = true;
+            size++;
+            return true;
+        }
+        int mask = values.length - 1;
+        int index = index(value, mask);
+        while (values[index] != EMPTY) {
+            if (values[index] == value) {
+                return false;
+            }
+            index = (index + 1) & mask;
+        }
+        values[index] = value;
+        if (++size > values.length / 4 * 3) {
+            grow();
+        }
+        return true;
+    }
+
+    public boolean contains(long value) {
+        if (value == EMPTY) {
+            return containsEmpty;
+        }
+        int mask = values.length - 1;
+        int index = index(value, mask);
+        while (values[index] != EMPTY) {
+            if (values[index] == value) {
+                return true;
+            }
+            index = (index + 1) & mask;
+        }
+        return false;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private void grow() {
+        if (values.length == MAX_CAPACITY) {
+            throw new IllegalStateException("Set is full!");
+        }
+        long[] oldValues = values;
+        values = new long[oldValues.length * 2];
+        int mask = values.length - 1;
+        for (long value : oldValues) {
+            if (value != EMPTY) {
+                int index = index(value, mask);
+                while (values[index] != EMPTY) {
+                    index = (index + 1) & mask;
+                }
+                values[index] = value;
+            }
+        }
+    }
+
+    private static int index(long value, int mask) {
+        return (int) Hashing.mix64(value) & mask;
+    }
+
+    private static int capacityFor(int expectedSize) {
+        long capacity = Long.highestOneBit(Math.max(16L, (long) expectedSize * 4 / 3) * 2 - 1);
+        return (int) Math.min(capacity, MAX_CAPACITY);
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Jumio Inc.
+ *
+ * Copyright (C) 2018
+ * All rights reserved.
+ */
+package com.jumio.netverify.util;
+
+/**
+ * Map of primitive {@code long} keys to {@code long} values, backed by two open addressing arrays.
+ * <p>
+ * The counterpart of {@link LongHashSet} for hashed keys that need a value, e.g. a file offset, at 16 to 32 bytes per
+ * entry. Removal is not supported. Not thread-safe.
+ */
+public final class LongLongHashMap {
+
+    private static final long EMPTY = 0L;
+
+    private static final int MAX_CAPACITY = 1 << 30;
+
+    private long[] keys;
+
+    private long[] values;
+
+    private boolean containsEmpty;
+
+    private long emptyKeyValue;
+
+    private int size;
+
+    public LongLongHashMap() {
+        this(1024);
+    }
+
+    public LongLongHashMap(int expectedSize) {
+        keys = new long[capacityFor(expectedSize)];
+        values = new long[keys.length];
+    }
+
+    /**
+     * Adds a mapping unless the key is already mapped.
+     *
+     * @param key The key.
+     * @param value The value.
+     * @return {@code true} if the key was not yet present.
+     */
+    public boolean putIfAbsent(long key, long value) {
+        if (key == EMPTY) {
+            if (containsEmpty) {
+                return false;
+            }
+            containsEmpty = true;
+            emptyKeyValue = value;
+            size++;
+            return true;
+        }
+        int mask = keys.length - 1;
+        int index = index(key, mask);
+        while (keys[index] != EMPTY) {
+            if (keys[index] == key) {
+                return false;
+            }
+            index = (index + 1) & mask;
+        }
+        keys[index] = key;
+        values[index] = value;
+        if (++size > keys.length / 4 * 3) {
+            grow();
+        }
+        return true;
+    }
+
+    /**
+     * Looks up the value of a key.
+     *
+     * @param key The key.
+     * @param defaultValue The value returned if the key is not present.
+     * @return See above.
+     */
+    public long get(long key, long defaultValue) {
+        if (key == EMPTY) {
+            return containsEmpty ? emptyKeyValue : defaultValue;
+        }
+        int mask = keys.length - 1;
+        int index = index(key, mask);
+        while (keys[index] != EMPTY) {
+            if (keys[index] == key) {
+                return values[index];
+            }
+            index = (index + 1) & mask;
+        }
+        return defaultValue;
+    }
+
+    public boolean containsKey(long key) {
+        if (key == EMPTY) {
+            return containsEmpty;
+        }
+        int mask = keys.length - 1;
+        int index = index(key, mask);
+        while (keys[index] != EMPTY) {
+            if (keys[index] == key) {
+                return true;
+            }
+            index = (index + 1) & mask;
+        }
+        return false;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private void grow() {
+        if (keys.length == MAX_CAPACITY) {
+            throw new IllegalStateException("Map is full!");
+        }
+        long[] oldKeys = keys;
+        long[] oldValues = values;
+        keys = new long[oldKeys.length * 2];
+        values = new long[keys.length];
+        int mask = keys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                int index = index(oldKeys[i], mask);
+                while (keys[index] != EMPTY) {
+                    index = (index + 1) & mask;
+                }
+                keys[index] = oldKeys[i];
+                values[index] = oldValues[i];
+            }
+        }
+    }
+
+    private static int index(long key, int mask) {
+        return (int) Hashing.mix64(key) & mask;
+    }
+
+    private static int capacityFor(int expectedSize) {
+        long capacity = Long.highestOneBit(Math.max(16L, (long) expectedSize * 4 / 3) * 2 - 1);
+        return (int) Math.min(capacity, MAX_CAPACITY);
+    }
+}
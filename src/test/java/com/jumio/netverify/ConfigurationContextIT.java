@@ -88,6 +88,17 @@ public class ConfigurationContextIT {
         assertThatOptionalPropertiesAre(configuration, nullValue());
     }
 
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidShardStrategy() throws Exception {
+        Properties cliProperties = new Properties();
+        cliProperties.setProperty("shard.strategy", "CONSISTANT");
+
+        ConfigurationContext configuration = new ConfigurationContext();
+        configuration.load(Utils.propertiesToList(cliProperties));
+
+        configuration.getShardStrategy();
+    }
+
     private void assertThatRequiredPropertiesAre(ConfigurationContext configuration, Matcher<Object> matcher) {
         assertThat(configuration.getImagesFolder(), is(matcher));
         assertThat(configuration.getImagesFailureFolder(), is(matcher));
@@ -14,10 +14,15 @@ import java.util.Collections;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.contrib.java.lang.system.ExpectedSystemExit;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.web.client.RestTemplate;
 
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
 import static org.mockito.ArgumentMatchers.anyList;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 public class PerformNetverifyTest {
@@ -59,4 +64,34 @@ public class PerformNetverifyTest {
 
         PerformNetverify.loadImages(repository);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testAppExitsWhenImagesCannotBeStreamed() throws Exception {
+        exit.expectSystemExitWithStatus(EXPECTED_FAILURE_STATUS);
+        ImageTripletRepository repository = mock(ImageTripletRepository.class);
+        doThrow(new IOException("test image source directory")).when(repository).streamAll();
+
+        PerformNetverify.streamImages(repository);
+    }
+
+    @Test
+    public void testResumeFlagIsTranslated() {
+        assertThat(PerformNetverify.parseArguments(new String[]{"--resume", "api.token=foo"}),
+                contains("journal.resume=true", "api.token=foo"));
+    }
+
+    @Test
+    public void testWatchFlagIsTranslated() {
+        assertThat(PerformNetverify.parseArguments(new String[]{"api.token=foo", "--watch"}),
+                contains("api.token=foo", "watch.enabled=true"));
+    }
+
+    @Test
+    public void testConnectionsAreClosed() throws Exception {
+        HttpComponentsClientHttpRequestFactory requestFactory = mock(HttpComponentsClientHttpRequestFactory.class);
+
+        PerformNetverify.closeConnections(new RestTemplate(requestFactory));
+
+        verify(requestFactory).destroy();
+    }
+}
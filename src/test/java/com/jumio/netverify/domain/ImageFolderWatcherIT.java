@@ -0,0 +1,131 @@
+/*
+ * Jumio Inc.
+ *
+ * Copyright (C) 2018
+ * All rights reserved.
+ */
+package com.jumio.netverify.domain;
+
+import com.jumio.netverify.ConfigurationContext;
+import com.jumio.netverify.Utils;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+
+public class ImageFolderWatcherIT {
+
+    @Rule
+    public final TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private final BlockingQueue<List<ImageTriplet>> batches = new LinkedBlockingQueue<>();
+
+    private ConfigurationContext configuration;
+
+    private Path imagesFolder;
+
+    private ImageFolderWatcher watcher;
+
+    private Thread watchingThread;
+
+    @Before
+    public void setUp() throws Exception {
+        configuration = new ConfigurationContext();
+        configuration.load();
+        Properties properties = Utils.setImageFolderPaths(tempFolder.getRoot().getCanonicalPath(), configuration);
+        properties.put("images.presenceStrategy", "ID_AND_FACE");
+        properties.put("watch.settleTime", "200");
+        List<String> overridingProperties = Utils.propertiesToList(properties);
+        configuration.load(overridingProperties);
+        imagesFolder = Files.createDirectory(Paths.get(configuration.getImagesFolder()));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (watcher != null) {
+            watcher.close();
+            watchingThread.join(5000);
+        }
+    }
+
+    @Test
+    public void testExistingImagesAreHandedOff() throws Exception {
+        Files.createFile(imagesFolder.resolve("existing_front.jpg"));
+        Files.createFile(imagesFolder.resolve("existing_face.jpg"));
+
+        startWatching();
+
+        List<ImageTriplet> batch = batches.poll(10, TimeUnit.SECONDS);
+        assertThat(batch, notNullValue());
+        assertThat(batch.size(), is(1));
+        assertThat(batch.get(0).getUniqueId(), is("existing"));
+    }
+
+    @Test
+    public void testNewImagesAreHandedOffWhenComplete() throws Exception {
+        startWatching();
+        Files.createFile(imagesFolder.resolve("new_front.jpg"));
+
+        assertThat(batches.poll(1, TimeUnit.SECONDS), nullValue());
+
+        Files.createFile(imagesFolder.resolve("new_face.png"));
+        List<ImageTriplet> batch = batches.poll(30, TimeUnit.SECONDS);
+        assertThat(batch, notNullValue());
+        assertThat(batch.get(0).getUniqueId(), is("new"));
+        assertThat(batch.get(0).getFaceImagePath().endsWith("new_face.png"), is(true));
+    }
+
+    @Test
+    public void testImagesAreHandedOffOnce() throws Exception {
+        startWatching();
+        Files.createFile(imagesFolder.resolve("once_front.jpg"));
+        Files.createFile(imagesFolder.resolve("once_face.jpg"));
+
+        assertThat(batches.poll(30, TimeUnit.SECONDS), notNullValue());
+        Files.write(imagesFolder.resolve("once_face.jpg"), Arrays.asList("modified"));
+        assertThat(batches.poll(1, TimeUnit.SECONDS), nullValue());
+    }
+
+    @Test
+    public void testSkippedImagesAreCheckedAgain() throws Exception {
+        startWatching();
+        Files.createFile(imagesFolder.resolve("skipped_front.jpg"));
+        Files.createFile(imagesFolder.resolve("skipped_front.png"));
+
+        assertThat(batches.poll(1, TimeUnit.SECONDS), nullValue());
+
+        Files.delete(imagesFolder.resolve("skipped_front.png"));
+        Files.createFile(imagesFolder.resolve("skipped_face.jpg"));
+        List<ImageTriplet> batch = batches.poll(30, TimeUnit.SECONDS);
+        assertThat(batch, notNullValue());
+        assertThat(batch.get(0).getUniqueId(), is("skipped"));
+        assertThat(batch.get(0).getIdFrontImagePath().endsWith("skipped_front.jpg"), is(true));
+    }
+
+    private void startWatching() {
+        watcher = new ImageFolderWatcher(configuration, new ImageTripletRepository(configuration));
+        watchingThread = new Thread(() -> {
+            try {
+                watcher.run(batches::add);
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        watchingThread.start();
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Jumio Inc.
+ *
+ * Copyright (C) 2018
+ * All rights reserved.
+ */
+package com.jumio.netverify.domain;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.anEmptyMap;
+import static org.hamcrest.Matchers.hasEntry;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+public class ImageManifestIT {
+
+    @Rule
+    public final TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Rule
+    public ExpectedException exception = ExpectedException.none();
+
+    private Path imagesFolder;
+
+    @Before
+    public void setUp() throws Exception {
+        imagesFolder = tempFolder.newFolder("images").toPath();
+    }
+
+    @Test
+    public void testCsv() throws Exception {
+        Path manifest = write("manifest.csv",
+                "\uFEFFuniqueId,frontImage,faceImage,firstName,lastName,dob\r\n" +
+                "a,a_front.jpg,/tmp/a_face.png,Jane,\"Doe, \"\"Jr.\"\"\",1980-02-29\r\n" +
+                "\r\n" +
+                ",missing_front.jpg,,,,\r\n" +
+                "b,b_front.jpg,,\"multi\nline\",,\n");
+
+        List<ImageTriplet> imageTriplets = read(manifest);
+
+        assertThat(imageTriplets.size(), is(2));
+        ImageTriplet first = imageTriplets.get(0);
+        assertThat(first.getUniqueId(), is("a"));
+        assertThat(first.getIdFrontImagePath(), is(imagesFolder.resolve("a_front.jpg").toString()));
+        assertThat(first.getIdBackImagePath(), is(nullValue()));
+        assertThat(first.getFaceImagePath(), is(imagesFolder.resolve("/tmp/a_face.png").toString()));
+        assertThat(first.getApplicantData(), hasEntry("firstName", "Jane"));
+        assertThat(first.getApplicantData(), hasEntry("lastName", "Doe, \"Jr.\""));
+        assertThat(first.getApplicantData(), hasEntry("dob", "1980-02-29"));
+        assertThat(imageTriplets.get(1).getApplicantData(), hasEntry("firstName", "multi\nline"));
+        assertThat(imageTriplets.get(1).getApplicantData().size(), is(1));
+    }
+
+    @Test
+    public void testCsvWithUnknownColumn() throws Exception {
+        Path manifest = write("manifest.csv", "uniqueId,frontImage,middleName\n");
+
+        exception.expect(IOException.class);
+        read(manifest);
+    }
+
+    @Test
+    public void testJsonLines() throws Exception {
+        Path manifest = write("manifest.jsonl",
+                "{\"uniqueId\":\"a\",\"frontImage\":\"a_front.jpg\",\"backImage\":\"a_back.jpg\"," +
+                        "\"country\":\"AUT\"}\n" +
+                "not json\n" +
+                "{\"uniqueId\":\"b\",\"frontImage\":\"b_front.jpg\",\"middleName\":\"foo\"}\n" +
+                "\n" +
+                "{\"uniqueId\":\"c\",\"frontImage\":\"c_front.jpg\",\"customerId\":null}\n");
+
+        List<ImageTriplet> imageTriplets = read(manifest);
+
+        assertThat(imageTriplets.size(), is(2));
+        assertThat(imageTriplets.get(0).getIdBackImagePath(), is(imagesFolder.resolve("a_back.jpg").toString()));
+        assertThat(imageTriplets.get(0).getApplicantData(), hasEntry("country", "AUT"));
+        assertThat(imageTriplets.get(1).getUniqueId(), is("c"));
+        assertThat(imageTriplets.get(1).getApplicantData(), is(anEmptyMap()));
+    }
+
+    @Test
+    public void testFilter() throws Exception {
+        Path manifest = write("manifest.csv", "uniqueId,frontImage\na,a.jpg\nb,b.jpg\n");
+
+        List<ImageTriplet> imageTriplets;
+        try (Stream<ImageTriplet> stream = ImageManifest.stream(manifest, imagesFolder, "b"::equals)) {
+            imageTriplets = stream.collect(Collectors.toList());
+        }
+
+        assertThat(imageTriplets.size(), is(1));
+        assertThat(imageTriplets.get(0).getUniqueId(), is("b"));
+    }
+
+    @Test
+    public void testDuplicateUniqueId() throws Exception {
+        Path manifest = write("manifest.csv", "uniqueId,frontImage\na,1/front.jpg\nb,2/front.jpg\na,3/front.jpg\n");
+
+        List<ImageTriplet> imageTriplets = read(manifest);
+
+        assertThat(imageTriplets.size(), is(2));
+        assertThat(imageTriplets.get(0).getIdFrontImagePath(), is(imagesFolder.resolve("1/front.jpg").toString()));
+        assertThat(imageTriplets.get(1).getUniqueId(), is("b"));
+    }
+
+    private Path write(String fileName, String content) throws IOException {
+        return Files.write(tempFolder.getRoot().toPath().resolve(fileName), content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private List<ImageTriplet> read(Path manifest) throws IOException {
+        try (Stream<ImageTriplet> stream = ImageManifest.stream(manifest, imagesFolder, uniqueId -> true)) {
+            return stream.collect(Collectors.toList());
+        }
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Jumio Inc.
+ *
+ * Copyright (C) 2018
+ * All rights reserved.
+ */
+package com.jumio.netverify.domain;
+
+import com.jumio.netverify.ConfigurationContext;
+import com.jumio.netverify.Utils;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.InOrder;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class ImageMoverIT {
+
+    @Rule
+    public final TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private ConfigurationContext configuration;
+
+    @Before
+    public void setUp() throws Exception {
+        configuration = new ConfigurationContext();
+        configuration.load(Collections.emptyList());
+        configuration.load(Utils.propertiesToList(
+                Utils.setImageFolderPaths(tempFolder.getRoot().getCanonicalPath(), configuration)));
+    }
+
+    @Test
+    public void testMovesAreFlushed() throws Exception {
+        Utils.createAndFillImagesFolder(configuration);
+        ImageTripletRepository repository = new ImageTripletRepository(configuration);
+        repository.createDirectories();
+        List<ImageTriplet> imageTriplets = repository.findAll();
+
+        try (ImageMover mover = new ImageMover(configuration, repository)) {
+            mover.moveAll(imageTriplets.get(0), configuration.getImagesSuccessFolder());
+            mover.flush();
+
+            assertThat(Files.list(Paths.get(configuration.getImagesSuccessFolder())).count(), is(3L));
+        }
+    }
+
+    @Test
+    public void testMovesAreGroupedByDirectoryInOrder() throws Exception {
+        Properties properties = new Properties();
+        properties.put("mover.batchSize", "10");
+        configuration.load(Utils.propertiesToList(properties));
+        ImageTripletRepository repository = mock(ImageTripletRepository.class);
+        CountDownLatch moving = new CountDownLatch(1);
+        CountDownLatch queued = new CountDownLatch(1);
+        ImageTriplet blocking = new ImageTriplet("blocking");
+        doAnswer(invocation -> {
+            moving.countDown();
+            queued.await();
+            return null;
+        }).when(repository).moveAll(blocking, "success");
+        ImageTriplet first = new ImageTriplet("first");
+        ImageTriplet second = new ImageTriplet("second");
+        ImageTriplet third = new ImageTriplet("third");
+        when(repository.archiveDirectory(first, "success")).thenReturn(Paths.get("success"));
+        when(repository.archiveDirectory(second, "failure")).thenReturn(Paths.get("failure"));
+        when(repository.archiveDirectory(third, "success")).thenReturn(Paths.get("success"));
+
+        ImageMover mover = new ImageMover(configuration, repository);
+        mover.moveAll(blocking, "success");
+        moving.await();
+        mover.moveAll(first, "success");
+        mover.moveAll(second, "failure");
+        mover.moveAll(third, "success");
+        queued.countDown();
+        mover.close();
+
+        InOrder inOrder = inOrder(repository);
+        inOrder.verify(repository).moveAll(first, "success");
+        inOrder.verify(repository).moveAll(third, "success");
+        inOrder.verify(repository).moveAll(second, "failure");
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testMoveAfterClose() throws Exception {
+        ImageMover mover = new ImageMover(configuration, mock(ImageTripletRepository.class));
+        mover.close();
+
+        mover.moveAll(new ImageTriplet("foo"), "success");
+    }
+}
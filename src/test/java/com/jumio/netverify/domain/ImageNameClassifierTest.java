@@ -0,0 +1,70 @@
+/*
+ * Jumio Inc.
+ *
+ * Copyright (C) 2018
+ * All rights reserved.
+ */
+package com.jumio.netverify.domain;
+
+import com.jumio.netverify.ConfigurationContext;
+import com.jumio.netverify.Utils;
+import java.util.Collections;
+import java.util.Properties;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+public class ImageNameClassifierTest {
+
+    private static final String[] IMAGE_NAMES = {"a774b3dc-ba93-4b14-b231-abf031848677_face.jpg", "foo_bar_front.png",
+            "foo_", "_front.jpg", "a__", "a_b_", "front.jpg", "a_\nfront.jpg", "a\n_front.jpg", "_", "__", "a_b"};
+
+    @Test
+    public void testDefaultPatternMatchesRegex() throws Exception {
+        ImageNameClassifier classifier = new ImageNameClassifier(buildConfiguration(new Properties()));
+        Pattern pattern = Pattern.compile(ImageNameClassifier.DEFAULT_NAME_PATTERN);
+
+        for (String imageName : IMAGE_NAMES) {
+            Matcher matcher = pattern.matcher(imageName);
+            ImageNameClassifier.ImageName parsed = classifier.parse(imageName);
+            if (matcher.matches()) {
+                assertThat(imageName, parsed.getUniqueId(), is(matcher.group(1)));
+                assertThat(imageName, parsed.getClassifier(), is(matcher.group(2)));
+            } else {
+                assertThat(imageName, parsed, is(nullValue()));
+            }
+        }
+    }
+
+    @Test
+    public void testCustomPattern() throws Exception {
+        Properties properties = new Properties();
+        properties.put("images.namePattern", "([0-9]+)-(.+)");
+        ImageNameClassifier classifier = new ImageNameClassifier(buildConfiguration(properties));
+
+        assertThat(classifier.parse("42-front.jpg").getUniqueId(), is("42"));
+        assertThat(classifier.parse("foo_front.jpg"), is(nullValue()));
+    }
+
+    @Test
+    public void testClassify() throws Exception {
+        ImageNameClassifier classifier = new ImageNameClassifier(buildConfiguration(new Properties()));
+
+        assertThat(classifier.classify("front.jpg"), is(ImageNameClassifier.Role.ID_FRONT));
+        assertThat(classifier.classify("back.png"), is(ImageNameClassifier.Role.ID_BACK));
+        assertThat(classifier.classify("face.jpg"), is(ImageNameClassifier.Role.FACE));
+        assertThat(classifier.classify("backface.jpg"), is(ImageNameClassifier.Role.ID_BACK));
+        assertThat(classifier.classify("selfie.jpg"), is(nullValue()));
+    }
+
+    private static ConfigurationContext buildConfiguration(Properties properties) throws Exception {
+        ConfigurationContext configuration = new ConfigurationContext();
+        configuration.load(Collections.emptyList());
+        configuration.load(Utils.propertiesToList(properties));
+        return configuration;
+    }
+}
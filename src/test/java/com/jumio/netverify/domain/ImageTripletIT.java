@@ -37,11 +37,14 @@ public class ImageTripletIT {
 
     private ConfigurationContext configuration;
 
+    private ImageNameClassifier classifier;
+
     @Before
     public void setUp() throws Exception {
         imageTriplet = new ImageTriplet(UUID.randomUUID().toString());
         configuration = new ConfigurationContext();
         configuration.load(Collections.emptyList());
+        classifier = new ImageNameClassifier(configuration);
     }
 
     @Test
@@ -59,7 +62,7 @@ public class ImageTripletIT {
     @Test
     public void testUpdateThrowsUnknownClassifierException() throws Exception {
         exception.expect(UnknownClassifierException.class);
-        imageTriplet.update(tempFolder.newFile().getCanonicalPath(), "foobar", configuration);
+        imageTriplet.update(tempFolder.newFile().getCanonicalPath(), classifier.classify("foobar"));
     }
 
     @Test
@@ -67,8 +70,8 @@ public class ImageTripletIT {
         exception.expect(DuplicateImageException.class);
         String frontClassifier = configuration.getImagesFrontSuffix();
         String imagePath = tempFolder.newFile().getCanonicalPath();
-        imageTriplet.update(imagePath, imagePath + "_" + frontClassifier, configuration);
-        imageTriplet.update(imagePath, imagePath + "_" + frontClassifier, configuration);
+        imageTriplet.update(imagePath, classifier.classify(imagePath + "_" + frontClassifier));
+        imageTriplet.update(imagePath, classifier.classify(imagePath + "_" + frontClassifier));
     }
 
     @Test
@@ -76,8 +79,8 @@ public class ImageTripletIT {
         exception.expect(DuplicateImageException.class);
         String backClassifier = configuration.getImagesBackSuffix();
         String imagePath = tempFolder.newFile().getCanonicalPath();
-        imageTriplet.update(imagePath, imagePath + "_" + backClassifier, configuration);
-        imageTriplet.update(imagePath, imagePath + "_" + backClassifier, configuration);
+        imageTriplet.update(imagePath, classifier.classify(imagePath + "_" + backClassifier));
+        imageTriplet.update(imagePath, classifier.classify(imagePath + "_" + backClassifier));
     }
 
     @Test
@@ -85,15 +88,15 @@ public class ImageTripletIT {
         exception.expect(DuplicateImageException.class);
         String faceClassifier = configuration.getImagesFaceSuffix();
         String imagePath = tempFolder.newFile().getCanonicalPath();
-        imageTriplet.update(imagePath, imagePath + "_" + faceClassifier, configuration);
-        imageTriplet.update(imagePath, imagePath + "_" + faceClassifier, configuration);
+        imageTriplet.update(imagePath, classifier.classify(imagePath + "_" + faceClassifier));
+        imageTriplet.update(imagePath, classifier.classify(imagePath + "_" + faceClassifier));
     }
 
     @Test
     public void testUpdateFaceImage() throws Exception {
         String faceClassifier = configuration.getImagesFaceSuffix();
         String imagePath = tempFolder.newFile().getCanonicalPath();
-        imageTriplet.update(imagePath, imagePath + "_" + faceClassifier, configuration);
+        imageTriplet.update(imagePath, classifier.classify(imagePath + "_" + faceClassifier));
         assertThat(imageTriplet.getFaceImagePath(), is(imagePath));
     }
 
@@ -101,7 +104,7 @@ public class ImageTripletIT {
     public void testUpdateFrontImage() throws Exception {
         String frontClassifier = configuration.getImagesFrontSuffix();
         String imagePath = tempFolder.newFile().getCanonicalPath();
-        imageTriplet.update(imagePath, imagePath + "_" + frontClassifier, configuration);
+        imageTriplet.update(imagePath, classifier.classify(imagePath + "_" + frontClassifier));
         assertThat(imageTriplet.getIdFrontImagePath(), is(imagePath));
     }
 
@@ -109,7 +112,7 @@ public class ImageTripletIT {
     public void testUpdateBackImage() throws Exception {
         String backClassifier = configuration.getImagesBackSuffix();
         String imagePath = tempFolder.newFile().getCanonicalPath();
-        imageTriplet.update(imagePath, imagePath + "_" + backClassifier, configuration);
+        imageTriplet.update(imagePath, classifier.classify(imagePath + "_" + backClassifier));
         assertThat(imageTriplet.getIdBackImagePath(), is(imagePath));
     }
 
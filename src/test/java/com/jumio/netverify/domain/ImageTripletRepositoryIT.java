@@ -8,10 +8,24 @@ package com.jumio.netverify.domain;
 
 import com.jumio.netverify.ConfigurationContext;
 import com.jumio.netverify.Utils;
+import com.jumio.netverify.util.Hashing;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
@@ -21,7 +35,9 @@ import org.junit.rules.TemporaryFolder;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.empty;
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
 import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.nullValue;
 
 public class ImageTripletRepositoryIT {
 
@@ -74,6 +90,39 @@ public class ImageTripletRepositoryIT {
         assertThat(Files.list(Paths.get(configuration.getImagesSuccessFolder())).count(), is(3L));
     }
 
+    @Test
+    public void testMoveAllWithPartitionedLayout() throws Exception {
+        ConfigurationContext configuration = new ConfigurationContext();
+        configuration.load(Collections.emptyList());
+        Properties properties = Utils.setImageFolderPaths(tempFolder.getRoot().getCanonicalPath(), configuration);
+        properties.put("images.archiveLayout", "DATE_HASH");
+        configuration.load(Utils.propertiesToList(properties));
+        Utils.createAndFillImagesFolder(configuration);
+        Clock clock = Clock.fixed(Instant.parse("2018-03-28T12:00:00Z"), ZoneOffset.UTC);
+
+        repository = new ImageTripletRepository(configuration, clock);
+        repository.createDirectories();
+        List<ImageTriplet> imageTriplets = repository.findAll();
+        repository.moveAll(imageTriplets.get(0), configuration.getImagesSuccessFolder());
+
+        String hashPrefix = String.format("%016x", Hashing.hash64(imageTriplets.get(0).getUniqueId())).substring(0, 2);
+        Path partition = Paths.get(configuration.getImagesSuccessFolder(), "2018", "03", "28", hashPrefix);
+        assertThat(Files.list(partition).count(), is(3L));
+    }
+
+    @Test
+    public void testArchiveLayouts() {
+        Path destination = Paths.get("success");
+        LocalDate date = LocalDate.of(2018, 3, 28);
+
+        assertThat(ArchiveLayout.FLAT.resolve(destination, "foo", date, 2), is(destination));
+        assertThat(ArchiveLayout.DATE.resolve(destination, "foo", date, 2),
+                is(Paths.get("success", "2018", "03", "28")));
+        assertThat(ArchiveLayout.HASH.resolve(destination, "foo", date, 3).getFileName().toString().length(), is(3));
+        assertThat(ArchiveLayout.DATE_HASH.resolve(destination, "foo", date, 2).getParent(),
+                is(Paths.get("success", "2018", "03", "28")));
+    }
+
     @Test
     public void testMoveAllWithEmptyDestination() throws Exception {
         ConfigurationContext configuration = new ConfigurationContext();
@@ -104,4 +153,243 @@ public class ImageTripletRepositoryIT {
         assertThat(imageTriplets, not(empty()));
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testStreamAll() throws Exception {
+        ConfigurationContext configuration = new ConfigurationContext();
+        configuration.load(Collections.emptyList());
+        List<String> properties = Utils.propertiesToList(
+                Utils.setImageFolderPaths(tempFolder.getRoot().getCanonicalPath(), configuration));
+        properties.add("images.presenceStrategy=ALL");
+        configuration.load(properties);
+        Utils.createAndFillImagesFolder(configuration);
+        Files.createFile(Paths.get(configuration.getImagesFolder(),
+                "incomplete_" + configuration.getImagesBackSuffix() + ConfigurationContext.PNG_IMAGE));
+
+        repository = new ImageTripletRepository(configuration);
+        List<ImageTriplet> imageTriplets;
+        try (Stream<ImageTriplet> stream = repository.streamAll()) {
+            imageTriplets = stream.collect(Collectors.toList());
+        }
+
+        PresenceStrategy.Validator presenceStrategy = PresenceStrategy.build("ALL");
+        assertThat(imageTriplets.size(), is(2));
+        assertThat(imageTriplets.get(0).conformsTo(presenceStrategy), is(true));
+        assertThat(imageTriplets.get(1).getUniqueId(), is("incomplete"));
+        assertThat(imageTriplets.get(1).conformsTo(presenceStrategy), is(false));
+    }
+
+    @Test
+    public void testStreamAllSkipsDuplicateImages() throws Exception {
+        for (String presenceStrategy : Arrays.asList("ID_ONLY", "ALL")) {
+            ConfigurationContext configuration = new ConfigurationContext();
+            configuration.load(Collections.emptyList());
+            String root = tempFolder.newFolder(presenceStrategy).getCanonicalPath();
+            List<String> properties = Utils.propertiesToList(Utils.setImageFolderPaths(root, configuration));
+            properties.add("images.presenceStrategy=" + presenceStrategy);
+            configuration.load(properties);
+            Utils.createAndFillImagesFolder(configuration);
+            String uniqueId = new ImageTripletRepository(configuration).findAll().get(0).getUniqueId();
+            Files.createFile(Paths.get(configuration.getImagesFolder(),
+                    uniqueId + "_" + configuration.getImagesFrontSuffix() + ConfigurationContext.PNG_IMAGE));
+
+            repository = new ImageTripletRepository(configuration);
+            List<ImageTriplet> imageTriplets;
+            try (Stream<ImageTriplet> stream = repository.streamAll()) {
+                imageTriplets = stream.collect(Collectors.toList());
+            }
+
+            assertThat(imageTriplets.size(), is(lessThanOrEqualTo(1)));
+            assertThat(new ImageTripletRepository(configuration).findAll(), is(empty()));
+        }
+    }
+
+    @Test
+    public void testFindAllWithShards() throws Exception {
+        ConfigurationContext configuration = new ConfigurationContext();
+        configuration.load(Collections.emptyList());
+        List<String> folderProperties = Utils.propertiesToList(
+                Utils.setImageFolderPaths(tempFolder.getRoot().getCanonicalPath(), configuration));
+        configuration.load(folderProperties);
+        Path imagesFolder = Files.createDirectory(Paths.get(configuration.getImagesFolder()));
+        for (int i = 0; i < 100; i++) {
+            Files.createFile(imagesFolder.resolve(i + "_" + configuration.getImagesFrontSuffix() +
+                    ConfigurationContext.JPEG_IMAGE));
+        }
+
+        Set<String> uniqueIds = new HashSet<>();
+        for (int shardIndex = 0; shardIndex < 3; shardIndex++) {
+            List<String> properties = new ArrayList<>(folderProperties);
+            properties.add("shard.index=" + shardIndex);
+            properties.add("shard.count=3");
+            properties.add("shard.strategy=CONSISTENT");
+            configuration.load(properties);
+
+            List<ImageTriplet> imageTriplets = new ImageTripletRepository(configuration).findAll();
+
+            assertThat(imageTriplets, not(empty()));
+            for (ImageTriplet imageTriplet : imageTriplets) {
+                assertThat(ShardStrategy.CONSISTENT.shardOf(imageTriplet.getUniqueId(), 3), is(shardIndex));
+                assertThat(uniqueIds.add(imageTriplet.getUniqueId()), is(true));
+            }
+        }
+        assertThat(uniqueIds.size(), is(100));
+    }
+
+    @Test
+    public void testFindAllWithScanCache() throws Exception {
+        List<String> properties = Utils.propertiesToList(
+                Utils.setImageFolderPaths(tempFolder.getRoot().getCanonicalPath(), configuration));
+        Path scanCacheFile = tempFolder.getRoot().toPath().resolve("scan.cache");
+        properties.add("images.scanCacheFile=" + scanCacheFile);
+        configuration.load(properties);
+        Path imagesFolder = Files.createDirectory(Paths.get(configuration.getImagesFolder()));
+        for (int i = 0; i < 10; i++) {
+            Files.createFile(imagesFolder.resolve(i + "_" + configuration.getImagesFrontSuffix() +
+                    ConfigurationContext.JPEG_IMAGE));
+        }
+        Files.createFile(imagesFolder.resolve("9_unknown" + ConfigurationContext.JPEG_IMAGE));
+        FileTime folderModified = FileTime.from(Instant.now().minusSeconds(3600));
+        Files.setLastModifiedTime(imagesFolder, folderModified);
+
+        assertThat(new ImageTripletRepository(configuration).findAll().size(), is(9));
+        assertThat(Files.exists(scanCacheFile), is(true));
+
+        Files.createFile(imagesFolder.resolve("10_" + configuration.getImagesFrontSuffix() +
+                ConfigurationContext.JPEG_IMAGE));
+        Files.setLastModifiedTime(imagesFolder, folderModified);
+
+        assertThat(new ImageTripletRepository(configuration).findAll().size(), is(9));
+
+        Files.setLastModifiedTime(imagesFolder, FileTime.from(Instant.now()));
+
+        assertThat(new ImageTripletRepository(configuration).findAll().size(), is(10));
+    }
+
+    @Test
+    public void testClaim() throws Exception {
+        List<String> properties = Utils.propertiesToList(
+                Utils.setImageFolderPaths(tempFolder.getRoot().getCanonicalPath(), configuration));
+        properties.add("claim.enabled=true");
+        configuration.load(properties);
+        Utils.createAndFillImagesFolder(configuration);
+        List<ImageTriplet> imageTriplets = new ImageTripletRepository(configuration).findAll();
+
+        ImageTripletRepository first = new ImageTripletRepository(claimConfiguration(properties, "first"));
+        ImageTripletRepository second = new ImageTripletRepository(claimConfiguration(properties, "second"));
+        ImageTriplet claimed = first.claim(imageTriplets.get(0));
+
+        assertThat(second.claim(imageTriplets.get(0)), is(nullValue()));
+        assertThat(claimed.getUniqueId(), is(imageTriplets.get(0).getUniqueId()));
+        Path claimDirectory = Paths.get(configuration.getClaimFolder(), "first");
+        assertThat(Paths.get(claimed.getIdFrontImagePath()).getParent(), is(claimDirectory));
+        assertThat(Paths.get(claimed.getIdBackImagePath()).getParent(), is(claimDirectory));
+        assertThat(Paths.get(claimed.getFaceImagePath()).getParent(), is(claimDirectory));
+        assertThat(Files.list(Paths.get(configuration.getImagesFolder())).filter(Files::isRegularFile).count(),
+                is(0L));
+    }
+
+    @Test
+    public void testClaimAfterIdFrontWasTaken() throws Exception {
+        List<String> properties = Utils.propertiesToList(
+                Utils.setImageFolderPaths(tempFolder.getRoot().getCanonicalPath(), configuration));
+        properties.add("claim.enabled=true");
+        configuration.load(properties);
+        Utils.createAndFillImagesFolder(configuration);
+        ImageTriplet imageTriplet = new ImageTripletRepository(configuration).findAll().get(0);
+        Path claimDirectory = Files.createDirectories(Paths.get(configuration.getClaimFolder(), "first"));
+        Path front = Paths.get(imageTriplet.getIdFrontImagePath());
+        Files.move(front, claimDirectory.resolve(front.getFileName()));
+
+        ImageTripletRepository second = new ImageTripletRepository(claimConfiguration(properties, "second"));
+
+        assertThat(second.claim(imageTriplet), is(nullValue()));
+        assertThat(Files.exists(Paths.get(imageTriplet.getIdBackImagePath())), is(true));
+        assertThat(Files.exists(Paths.get(imageTriplet.getFaceImagePath())), is(true));
+    }
+
+    @Test
+    public void testManifestImagesWithSameFileName() throws Exception {
+        List<String> properties = Utils.propertiesToList(
+                Utils.setImageFolderPaths(tempFolder.getRoot().getCanonicalPath(), configuration));
+        properties.add("claim.enabled=true");
+        properties.add("claim.leaseTime=60000");
+        Path manifest = tempFolder.getRoot().toPath().resolve("manifest.csv");
+        Files.write(manifest, Arrays.asList("uniqueId,frontImage", "123,123/front.jpg", "456,456/front.jpg"));
+        properties.add("manifest.file=" + manifest);
+        configuration.load(properties);
+        Path imagesFolder = Paths.get(configuration.getImagesFolder());
+        Files.createFile(Files.createDirectories(imagesFolder.resolve("123")).resolve("front.jpg"));
+        Files.createFile(Files.createDirectories(imagesFolder.resolve("456")).resolve("front.jpg"));
+        Instant now = Instant.parse("2018-03-28T10:15:30Z");
+        ImageTripletRepository dead = new ImageTripletRepository(claimConfiguration(properties, "dead"),
+                Clock.fixed(now, ZoneOffset.UTC));
+        List<ImageTriplet> imageTriplets;
+        try (Stream<ImageTriplet> stream = dead.streamManifest()) {
+            imageTriplets = stream.collect(Collectors.toList());
+        }
+
+        dead.renewLease();
+        dead.claim(imageTriplets.get(0));
+        ImageTripletRepository alive = new ImageTripletRepository(claimConfiguration(properties, "alive"),
+                Clock.fixed(now.plusSeconds(61), ZoneOffset.UTC));
+
+        assertThat(alive.requeueStaleClaims(), is(1));
+        assertThat(Files.exists(imagesFolder.resolve("123").resolve("front.jpg")), is(true));
+
+        alive.createDirectories();
+        for (ImageTriplet imageTriplet : imageTriplets) {
+            alive.moveAll(alive.claim(imageTriplet), configuration.getImagesSuccessFolder());
+        }
+
+        Path successFolder = Paths.get(configuration.getImagesSuccessFolder());
+        assertThat(Files.exists(successFolder.resolve("123_front.jpg")), is(true));
+        assertThat(Files.exists(successFolder.resolve("456_front.jpg")), is(true));
+        alive.releaseLease();
+        assertThat(Files.exists(Paths.get(configuration.getClaimFolder(), "alive")), is(false));
+    }
+
+    @Test
+    public void testRequeueStaleClaims() throws Exception {
+        List<String> properties = Utils.propertiesToList(
+                Utils.setImageFolderPaths(tempFolder.getRoot().getCanonicalPath(), configuration));
+        properties.add("claim.enabled=true");
+        properties.add("claim.leaseTime=60000");
+        configuration.load(properties);
+        Utils.createAndFillImagesFolder(configuration);
+        Instant now = Instant.parse("2018-03-28T10:15:30Z");
+
+        ImageTripletRepository dead = new ImageTripletRepository(claimConfiguration(properties, "dead"),
+                Clock.fixed(now, ZoneOffset.UTC));
+        dead.renewLease();
+        dead.claim(dead.findAll().get(0));
+        ImageTripletRepository alive = new ImageTripletRepository(claimConfiguration(properties, "alive"),
+                Clock.fixed(now.plusSeconds(30), ZoneOffset.UTC));
+        alive.renewLease();
+
+        assertThat(alive.requeueStaleClaims(), is(0));
+
+        alive = new ImageTripletRepository(claimConfiguration(properties, "alive"),
+                Clock.fixed(now.plusSeconds(61), ZoneOffset.UTC));
+
+        assertThat(alive.requeueStaleClaims(), is(3));
+        assertThat(Files.exists(Paths.get(configuration.getClaimFolder(), "dead")), is(false));
+        assertThat(Files.exists(Paths.get(configuration.getClaimFolder(), "alive")), is(true));
+        assertThat(alive.findAll().size(), is(1));
+    }
+
+    private static ConfigurationContext claimConfiguration(List<String> properties, String instanceId)
+            throws Exception {
+        List<String> claimProperties = new ArrayList<>(properties);
+        claimProperties.add("claim.instanceId=" + instanceId);
+        return new ConfigurationContext().load(claimProperties);
+    }
+
+    @Test
+    public void testCtorWithInvalidShardIndex() throws Exception {
+        configuration.load(Arrays.asList("shard.index=3", "shard.count=3"));
+
+        exception.expect(IllegalArgumentException.class);
+        new ImageTripletRepository(configuration);
+    }
+
+}
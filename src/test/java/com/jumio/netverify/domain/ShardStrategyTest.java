@@ -0,0 +1,72 @@
+/*
+ * Jumio Inc.
+ *
+ * Copyright (C) 2018
+ * All rights reserved.
+ */
+package com.jumio.netverify.domain;
+
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.allOf;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+
+public class ShardStrategyTest {
+
+    private static final int IDS = 100000;
+
+    @Test
+    public void testSingleShard() {
+        for (ShardStrategy strategy : ShardStrategy.values()) {
+            assertThat(strategy.shardOf("foo", 1), is(0));
+        }
+    }
+
+    @Test
+    public void testStableAssignment() {
+        for (ShardStrategy strategy : ShardStrategy.values()) {
+            assertThat(strategy.shardOf("foo", 7), is(strategy.shardOf(new String("foo"), 7)));
+        }
+    }
+
+    @Test
+    public void testEvenDistribution() {
+        for (ShardStrategy strategy : ShardStrategy.values()) {
+            int[] counts = new int[10];
+            for (int i = 0; i < IDS; i++) {
+                counts[strategy.shardOf("id" + i, counts.length)]++;
+            }
+            for (int count : counts) {
+                assertThat(strategy.name(), count, allOf(greaterThan(9500), lessThan(10500)));
+            }
+        }
+    }
+
+    @Test
+    public void testConsistentHashingMovesOnlyToNewShard() {
+        int moved = 0;
+        for (int i = 0; i < IDS; i++) {
+            int before = ShardStrategy.CONSISTENT.shardOf("id" + i, 4);
+            int after = ShardStrategy.CONSISTENT.shardOf("id" + i, 5);
+            if (before != after) {
+                assertThat(after, is(4));
+                moved++;
+            }
+        }
+        assertThat(moved, allOf(greaterThan(19000), lessThan(21000)));
+    }
+
+    @Test
+    public void testModuloReassignsMostIds() {
+        int moved = 0;
+        for (int i = 0; i < IDS; i++) {
+            if (ShardStrategy.MODULO.shardOf("id" + i, 4) != ShardStrategy.MODULO.shardOf("id" + i, 5)) {
+                moved++;
+            }
+        }
+        assertThat(moved, greaterThan(IDS / 2));
+    }
+}
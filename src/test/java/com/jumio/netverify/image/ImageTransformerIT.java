@@ -0,0 +1,100 @@
+/*
+ * Jumio Inc.
+ *
+ * Copyright (C) 2018
+ * All rights reserved.
+ */
+package com.jumio.netverify.image;
+
+import com.jumio.netverify.ConfigurationContext;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import javax.imageio.ImageIO;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.endsWith;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.hamcrest.Matchers.not;
+
+public class ImageTransformerIT {
+
+    @Rule
+    public final TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void testSmallImageIsKept() throws Exception {
+        Path image = writeImage("small.png", 300, 200, "png");
+
+        Path transformed = buildTransformer("images.transform.maxDimension=1000").transform(image);
+
+        assertThat(transformed, is(image));
+    }
+
+    @Test
+    public void testLargePngIsScaledAndConverted() throws Exception {
+        Path image = writeImage("large.png", 3000, 2000, "png");
+
+        Path transformed = buildTransformer("images.transform.maxDimension=1000").transform(image);
+
+        try {
+            assertThat(transformed, not(image));
+            assertThat(transformed.toString(), endsWith(".jpg"));
+            BufferedImage result = ImageIO.read(transformed.toFile());
+            assertThat(result.getWidth(), is(1000));
+            assertThat(result.getHeight(), is(667));
+            assertThat(Files.size(transformed), lessThanOrEqualTo(Files.size(image)));
+        } finally {
+            Files.deleteIfExists(transformed);
+        }
+    }
+
+    @Test
+    public void testImageIsShrunkToMaxBytes() throws Exception {
+        Path image = writeImage("noise.jpg", 1000, 1000, "jpeg");
+
+        Path transformed = buildTransformer("images.transform.maxDimension=1000", "images.transform.maxBytes=100000")
+                .transform(image);
+
+        try {
+            assertThat(transformed, not(image));
+            assertThat(Files.size(transformed), lessThanOrEqualTo(100000L));
+        } finally {
+            Files.deleteIfExists(transformed);
+        }
+    }
+
+    @Test
+    public void testUnreadableImageIsKept() throws Exception {
+        Path image = tempFolder.newFile("broken.png").toPath();
+        Files.write(image, new byte[]{1, 2, 3});
+
+        assertThat(buildTransformer().transform(image), is(image));
+    }
+
+    private Path writeImage(String name, int width, int height, String format) throws Exception {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Random random = new Random(42);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                image.setRGB(x, y, random.nextInt());
+            }
+        }
+        File file = tempFolder.newFile(name);
+        ImageIO.write(image, format, file);
+        return file.toPath();
+    }
+
+    private ImageTransformer buildTransformer(String... overridingProperties) throws Exception {
+        ConfigurationContext configuration = new ConfigurationContext();
+        configuration.load(Arrays.asList(overridingProperties));
+        return new ImageTransformer(configuration);
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Jumio Inc.
+ *
+ * Copyright (C) 2018
+ * All rights reserved.
+ */
+package com.jumio.netverify.journal;
+
+import com.jumio.netverify.ConfigurationContext;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.Random;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.nullValue;
+
+public class ContentIndexIT {
+
+    @Rule
+    public final TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void testFingerprintsIgnoreFileNames() throws Exception {
+        Path front = writeImage("a_front.jpg", 200000, 1);
+        Path copy = writeImage("b_front.jpg", 200000, 1);
+        Path other = writeImage("c_front.jpg", 200000, 2);
+
+        assertThat(ContentFingerprint.prefilterKey(front, null, null),
+                is(ContentFingerprint.prefilterKey(copy, null, null)));
+        assertThat(ContentFingerprint.contentHash(front, null, null),
+                is(ContentFingerprint.contentHash(copy, null, null)));
+        assertThat(ContentFingerprint.prefilterKey(front, null, null),
+                not(ContentFingerprint.prefilterKey(other, null, null)));
+        assertThat(ContentFingerprint.contentHash(front, null, null),
+                not(ContentFingerprint.contentHash(null, front, null)));
+    }
+
+    @Test
+    public void testContentHashCoversWholeImage() throws Exception {
+        Path front = writeImage("a_front.jpg", 300000, 1);
+        Path changed = writeImage("b_front.jpg", 300000, 1);
+        byte[] bytes = Files.readAllBytes(changed);
+        bytes[150000]++;
+        Files.write(changed, bytes);
+
+        assertThat(ContentFingerprint.prefilterKey(front, null, null),
+                is(ContentFingerprint.prefilterKey(changed, null, null)));
+        assertThat(ContentFingerprint.contentHash(front, null, null),
+                not(ContentFingerprint.contentHash(changed, null, null)));
+    }
+
+    @Test
+    public void testRecordsSurviveReopening() throws Exception {
+        File indexFile = new File(tempFolder.getRoot(), "content.idx");
+        try (ContentIndex index = ContentIndex.open(buildConfiguration(indexFile))) {
+            index.record(42L, "hash-a", "jumio-ref-a", "first");
+            index.record(-7L, "hash-b", "jumio-ref-b", "second");
+            index.record(1L, "hash-c", null, "third");
+        }
+
+        try (ContentIndex index = ContentIndex.open(buildConfiguration(indexFile))) {
+            assertThat(index.mightContain(42L), is(true));
+            assertThat(index.mightContain(1L), is(false));
+            assertThat(index.lookup(42L, "hash-a"), is("jumio-ref-a"));
+            assertThat(index.lookup(-7L, "hash-b"), is("jumio-ref-b"));
+            assertThat(index.lookup(42L, "hash-b"), nullValue());
+            assertThat(index.lookup(3L, "hash-a"), nullValue());
+        }
+        assertThat(Files.readAllLines(indexFile.toPath()).size(), is(2));
+    }
+
+    @Test
+    public void testRecordsSharingPrefilterKey() throws Exception {
+        File indexFile = new File(tempFolder.getRoot(), "content.idx");
+        try (ContentIndex index = ContentIndex.open(buildConfiguration(indexFile))) {
+            index.record(42L, "hash-a", "jumio-ref-a", "first");
+            index.record(42L, "hash-b", "jumio-ref-b", "second");
+            index.record(42L, "hash-a", "jumio-ref-c", "third");
+
+            assertThat(index.lookup(42L, "hash-b"), is("jumio-ref-b"));
+        }
+
+        try (ContentIndex index = ContentIndex.open(buildConfiguration(indexFile))) {
+            index.record(42L, "hash-c", "jumio-ref-c", "fourth");
+
+            assertThat(index.lookup(42L, "hash-a"), is("jumio-ref-a"));
+            assertThat(index.lookup(42L, "hash-b"), is("jumio-ref-b"));
+            assertThat(index.lookup(42L, "hash-c"), is("jumio-ref-c"));
+            assertThat(index.lookup(42L, "hash-d"), nullValue());
+        }
+        assertThat(Files.readAllLines(indexFile.toPath()).size(), is(3));
+    }
+
+    @Test
+    public void testTornRecordIsDropped() throws Exception {
+        File indexFile = new File(tempFolder.getRoot(), "content.idx");
+        try (ContentIndex index = ContentIndex.open(buildConfiguration(indexFile))) {
+            index.record(42L, "hash-a", "jumio-ref-a", "first");
+        }
+        Files.write(indexFile.toPath(), "ffffffffffff".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        try (ContentIndex index = ContentIndex.open(buildConfiguration(indexFile))) {
+            index.record(-7L, "hash-b", "jumio-ref-b", "second");
+        }
+        Files.write(indexFile.toPath(), "zz\thash-c\tjumio-ref-c\tthird\n".getBytes(StandardCharsets.UTF_8),
+                StandardOpenOption.APPEND);
+
+        try (ContentIndex index = ContentIndex.open(buildConfiguration(indexFile))) {
+            assertThat(index.lookup(42L, "hash-a"), is("jumio-ref-a"));
+            assertThat(index.lookup(-7L, "hash-b"), is("jumio-ref-b"));
+        }
+        assertThat(Files.readAllLines(indexFile.toPath()).size(), is(3));
+    }
+
+    @Test
+    public void testDisabledIndex() throws Exception {
+        try (ContentIndex index = ContentIndex.open(buildConfiguration(null))) {
+            index.record(42L, "hash-a", "jumio-ref-a", "first");
+
+            assertThat(index.isEnabled(), is(false));
+            assertThat(index.lookup(42L, "hash-a"), nullValue());
+        }
+    }
+
+    private Path writeImage(String name, int size, long seed) throws Exception {
+        byte[] bytes = new byte[size];
+        new Random(seed).nextBytes(bytes);
+        Path image = tempFolder.newFile(name).toPath();
+        Files.write(image, bytes);
+        return image;
+    }
+
+    private ConfigurationContext buildConfiguration(File indexFile) throws Exception {
+        ConfigurationContext configuration = new ConfigurationContext();
+        configuration.load(Collections.singletonList(
+                "dedup.indexFile=" + (indexFile == null ? "" : indexFile.getAbsolutePath())));
+        return configuration;
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Jumio Inc.
+ *
+ * Copyright (C) 2018
+ * All rights reserved.
+ */
+package com.jumio.netverify.journal;
+
+import com.jumio.netverify.ConfigurationContext;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public class SubmissionJournalIT {
+
+    @Rule
+    public final TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private File journalFile;
+
+    @Before
+    public void setUp() throws Exception {
+        journalFile = new File(tempFolder.getRoot(), "journal.log");
+    }
+
+    @Test
+    public void testRecordsAreAppended() throws Exception {
+        try (SubmissionJournal journal = SubmissionJournal.open(buildConfiguration(false))) {
+            journal.recordSending("foo");
+            journal.recordSubmitted("foo", "jumio-ref");
+        }
+        try (SubmissionJournal journal = SubmissionJournal.open(buildConfiguration(false))) {
+            journal.recordSending("bar");
+        }
+
+        List<String> lines = Files.readAllLines(journalFile.toPath());
+        assertThat(lines.size(), is(3));
+        assertThat(lines.get(1).startsWith("SUBMITTED\t"), is(true));
+        assertThat(lines.get(1).endsWith("\tjumio-ref\tfoo"), is(true));
+    }
+
+    @Test
+    public void testResume() throws Exception {
+        try (SubmissionJournal journal = SubmissionJournal.open(buildConfiguration(false))) {
+            journal.recordSending("submitted");
+            journal.recordSending("failed");
+            journal.recordSending("interrupted");
+            journal.recordSubmitted("submitted", "jumio-ref");
+            journal.recordFailed("failed");
+        }
+
+        try (SubmissionJournal journal = SubmissionJournal.open(buildConfiguration(true))) {
+            assertThat(journal.lookup("submitted"), is(SubmissionJournal.State.SUBMITTED));
+            assertThat(journal.lookup("failed"), is(SubmissionJournal.State.UNKNOWN));
+            assertThat(journal.lookup("interrupted"), is(SubmissionJournal.State.SENDING));
+            assertThat(journal.lookup("new"), is(SubmissionJournal.State.UNKNOWN));
+        }
+    }
+
+    @Test
+    public void testTornRecordIsDropped() throws Exception {
+        try (SubmissionJournal journal = SubmissionJournal.open(buildConfiguration(false))) {
+            journal.recordSubmitted("foo", "jumio-ref");
+        }
+        Files.write(journalFile.toPath(), "SUBMITTED\t1\tjumio-ref\tba".getBytes(StandardCharsets.UTF_8),
+                StandardOpenOption.APPEND);
+
+        try (SubmissionJournal journal = SubmissionJournal.open(buildConfiguration(false))) {
+            journal.recordSending("bar");
+        }
+
+        try (SubmissionJournal journal = SubmissionJournal.open(buildConfiguration(true))) {
+            assertThat(journal.lookup("foo"), is(SubmissionJournal.State.SUBMITTED));
+            assertThat(journal.lookup("ba"), is(SubmissionJournal.State.UNKNOWN));
+            assertThat(journal.lookup("bar"), is(SubmissionJournal.State.SENDING));
+        }
+        List<String> lines = Files.readAllLines(journalFile.toPath());
+        assertThat(lines.size(), is(2));
+        assertThat(lines.get(1).startsWith("SENDING\t"), is(true));
+    }
+
+    @Test
+    public void testRecordWithUnknownStateIsSkipped() throws Exception {
+        Files.write(journalFile.toPath(), Arrays.asList("SUBMI\t1\t-\tfoo", "SUBMITTED\t1\tjumio-ref\tbar"),
+                StandardCharsets.UTF_8);
+
+        try (SubmissionJournal journal = SubmissionJournal.open(buildConfiguration(true))) {
+            assertThat(journal.lookup("foo"), is(SubmissionJournal.State.UNKNOWN));
+            assertThat(journal.lookup("bar"), is(SubmissionJournal.State.SUBMITTED));
+        }
+    }
+
+    @Test
+    public void testWithoutResumePreviousRecordsAreIgnored() throws Exception {
+        try (SubmissionJournal journal = SubmissionJournal.open(buildConfiguration(false))) {
+            journal.recordSubmitted("submitted", "jumio-ref");
+        }
+
+        try (SubmissionJournal journal = SubmissionJournal.open(buildConfiguration(false))) {
+            assertThat(journal.lookup("submitted"), is(SubmissionJournal.State.UNKNOWN));
+        }
+    }
+
+    @Test
+    public void testDisabledJournal() throws Exception {
+        ConfigurationContext configuration = new ConfigurationContext();
+        configuration.load(Collections.singletonList("journal.resume=true"));
+
+        try (SubmissionJournal journal = SubmissionJournal.open(configuration)) {
+            journal.recordSubmitted("foo", "jumio-ref");
+            assertThat(journal.lookup("foo"), is(SubmissionJournal.State.UNKNOWN));
+        }
+        assertThat(tempFolder.getRoot().list(), is(new String[0]));
+    }
+
+    @Test
+    public void testUniqueIdWithSeparator() throws Exception {
+        try (SubmissionJournal journal = SubmissionJournal.open(buildConfiguration(false))) {
+            journal.recordSubmitted("foo\tbar", null);
+        }
+
+        try (SubmissionJournal journal = SubmissionJournal.open(buildConfiguration(true))) {
+            assertThat(journal.lookup("foo\tbar"), is(SubmissionJournal.State.SUBMITTED));
+        }
+        assertThat(Files.readAllLines(journalFile.toPath()).get(0).split("\t", 3)[2], is("-\tfoo\tbar"));
+    }
+
+    private ConfigurationContext buildConfiguration(boolean resume) throws Exception {
+        ConfigurationContext configuration = new ConfigurationContext();
+        configuration.load(Arrays.asList("journal.file=" + journalFile.getCanonicalPath(), "journal.resume=" + resume,
+                "journal.syncEvery=2"));
+        return configuration;
+    }
+}
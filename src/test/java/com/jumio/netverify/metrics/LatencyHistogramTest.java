@@ -0,0 +1,78 @@
+/*
+ * Jumio Inc.
+ *
+ * Copyright (C) 2018
+ * All rights reserved.
+ */
+package com.jumio.netverify.metrics;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.allOf;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void testBucketsCoverAllValues() {
+        long[] values = {0, 1, 15, 16, 17, 31, 32, 1000, 123456789, Long.MAX_VALUE};
+        for (long value : values) {
+            int index = LatencyHistogram.bucketIndex(value);
+            assertThat(LatencyHistogram.bucketUpperBound(index), greaterThanOrEqualTo(value));
+            if (index > 0) {
+                assertThat(LatencyHistogram.bucketUpperBound(index - 1), lessThanOrEqualTo(value - 1));
+            }
+        }
+    }
+
+    @Test
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int millis = 1; millis <= 1000; millis++) {
+            histogram.record(TimeUnit.MILLISECONDS.toNanos(millis));
+        }
+
+        assertThat(histogram.getCount(), is(1000L));
+        assertThat(histogram.getMaxNanos(), is(TimeUnit.MILLISECONDS.toNanos(1000)));
+        assertWithinBucket(histogram.getPercentileNanos(0.5), TimeUnit.MILLISECONDS.toNanos(500));
+        assertWithinBucket(histogram.getPercentileNanos(0.9), TimeUnit.MILLISECONDS.toNanos(900));
+        assertWithinBucket(histogram.getPercentileNanos(0.99), TimeUnit.MILLISECONDS.toNanos(990));
+        assertThat(histogram.getPercentileNanos(1), is(TimeUnit.MILLISECONDS.toNanos(1000)));
+    }
+
+    @Test
+    public void testEmptyHistogram() {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        assertThat(histogram.getPercentileNanos(0.99), is(0L));
+        assertThat(histogram.summary(), is("count=0 mean=0.0ms p50=0.0ms p90=0.0ms p99=0.0ms p999=0.0ms max=0.0ms"));
+    }
+
+    @Test
+    public void testConcurrentRecording() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        for (int thread = 0; thread < 4; thread++) {
+            executor.execute(() -> {
+                for (int i = 0; i < 10000; i++) {
+                    histogram.record(i);
+                }
+            });
+        }
+        executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+
+        assertThat(histogram.getCount(), is(40000L));
+        assertThat(histogram.getTotalNanos(), is(4L * 9999 * 10000 / 2));
+    }
+
+    private static void assertWithinBucket(long actual, long expected) {
+        assertThat(actual, allOf(greaterThanOrEqualTo(expected), lessThanOrEqualTo(expected + expected / 16)));
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Jumio Inc.
+ *
+ * Copyright (C) 2018
+ * All rights reserved.
+ */
+package com.jumio.netverify.metrics;
+
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+
+public class MetricsRegistryTest {
+
+    @Test
+    public void testMetricsAreRegisteredOnce() {
+        MetricsRegistry metrics = new MetricsRegistry();
+
+        assertThat(metrics.counter("requests"), sameInstance(metrics.counter("requests")));
+        assertThat(metrics.histogram("latency"), sameInstance(metrics.histogram("latency")));
+    }
+
+    @Test
+    public void testSummary() {
+        MetricsRegistry metrics = new MetricsRegistry();
+        metrics.counter("requests.sent").add(3);
+        metrics.histogram("latency.request").record(2000000);
+        metrics.recordStatusCode(200);
+        metrics.recordStatusCode(200);
+        metrics.recordStatusCode(503);
+        metrics.recordStatusCode(999);
+        metrics.gauge("stage.send.queueDepth", () -> 4);
+        metrics.gauge("stage.send.utilization", () -> 0.875);
+
+        String summary = metrics.summary();
+
+        assertThat(metrics.getStatusCodeCount(200), is(2L));
+        assertThat(summary, containsString("requests.sent: 3 ("));
+        assertThat(summary, containsString("latency.request: count=1 mean=2.0ms"));
+        assertThat(summary, containsString("HTTP status codes: 200=2, 503=1"));
+        assertThat(summary, not(containsString("999=1")));
+        assertThat(summary, containsString(String.format("stage.send.queueDepth: 4%n")));
+        assertThat(summary, containsString("stage.send.utilization: 0.88"));
+    }
+}
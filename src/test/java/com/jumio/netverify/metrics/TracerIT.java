@@ -0,0 +1,78 @@
+/*
+ * Jumio Inc.
+ *
+ * Copyright (C) 2018
+ * All rights reserved.
+ */
+package com.jumio.netverify.metrics;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+
+public class TracerIT {
+
+    @Rule
+    public final TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void testDisabled() throws Exception {
+        Tracer tracer = new Tracer();
+        tracer.span("request", "foo", System.nanoTime());
+        Path traceFile = tempFolder.getRoot().toPath().resolve("trace.json");
+
+        tracer.export(traceFile);
+
+        assertThat(tracer.isEnabled(), is(false));
+        assertThat(tracer.getRecorded(), is(0L));
+        assertThat(Files.exists(traceFile), is(false));
+    }
+
+    @Test
+    public void testExportKeepsLatestSpans() throws Exception {
+        Tracer tracer = new Tracer();
+        tracer.enable(3);
+        for (int i = 0; i < 6; i++) {
+            long startNanos = System.nanoTime();
+            tracer.span("phase" + i, i % 2 == 0 ? "id" + i : null, startNanos);
+        }
+        Path traceFile = tempFolder.getRoot().toPath().resolve("trace.json");
+
+        tracer.export(traceFile);
+
+        JsonObject trace = new JsonParser().parse(new String(Files.readAllBytes(traceFile), StandardCharsets.UTF_8))
+                .getAsJsonObject();
+        JsonArray events = trace.getAsJsonArray("traceEvents");
+        List<String> spanNames = new ArrayList<>();
+        for (JsonElement element : events) {
+            JsonObject event = element.getAsJsonObject();
+            long threadId = event.get("tid").getAsLong();
+            assertThat(threadId, is(Thread.currentThread().getId()));
+            if ("M".equals(event.get("ph").getAsString())) {
+                assertThat(event.getAsJsonObject("args").get("name").getAsString(),
+                        is(Thread.currentThread().getName()));
+                continue;
+            }
+            assertThat(event.get("ph").getAsString(), is("X"));
+            assertThat(event.get("dur").getAsDouble(), greaterThanOrEqualTo(0.0));
+            spanNames.add(event.get("name").getAsString());
+        }
+        assertThat(tracer.getRecorded(), is(6L));
+        assertThat(spanNames, contains("phase2", "phase3", "phase4", "phase5"));
+        assertThat(events.get(1).getAsJsonObject().getAsJsonObject("args").get("id").getAsString(), is("id2"));
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Jumio Inc.
+ *
+ * Copyright (C) 2018
+ * All rights reserved.
+ */
+package com.jumio.netverify.rest;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public class ByteBudgetTest {
+
+    @Test
+    public void testAcquireBlocksWhileBudgetIsUsedUp() throws Exception {
+        ByteBudget byteBudget = new ByteBudget(100);
+        byteBudget.acquire(60);
+        CountDownLatch acquired = new CountDownLatch(1);
+        Thread acquirer = new Thread(() -> {
+            try {
+                byteBudget.acquire(50);
+                acquired.countDown();
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        acquirer.start();
+
+        assertThat(acquired.await(200, TimeUnit.MILLISECONDS), is(false));
+
+        byteBudget.release(60);
+        assertThat(acquired.await(5, TimeUnit.SECONDS), is(true));
+        assertThat(byteBudget.getBytesInFlight(), is(50L));
+    }
+
+    @Test
+    public void testOversizedPermitIsAdmittedAlone() throws Exception {
+        ByteBudget byteBudget = new ByteBudget(100);
+
+        byteBudget.acquire(500);
+
+        assertThat(byteBudget.getBytesInFlight(), is(500L));
+        byteBudget.release(500);
+        assertThat(byteBudget.getBytesInFlight(), is(0L));
+    }
+
+    @Test
+    public void testDisabledBudget() throws Exception {
+        ByteBudget byteBudget = new ByteBudget(0);
+
+        byteBudget.acquire(Long.MAX_VALUE);
+        byteBudget.acquire(Long.MAX_VALUE);
+
+        assertThat(byteBudget.getBytesInFlight(), is(0L));
+    }
+}
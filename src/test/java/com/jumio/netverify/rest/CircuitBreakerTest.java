@@ -0,0 +1,101 @@
+/*
+ * Jumio Inc.
+ *
+ * Copyright (C) 2018
+ * All rights reserved.
+ */
+package com.jumio.netverify.rest;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public class CircuitBreakerTest {
+
+    private final AtomicLong clock = new AtomicLong();
+
+    @Test
+    public void testOpensAfterConsecutiveFailures() {
+        CircuitBreaker circuitBreaker = new CircuitBreaker(3, 1000, clock::get);
+        circuitBreaker.onFailure();
+        circuitBreaker.onFailure();
+        circuitBreaker.onSuccess();
+        circuitBreaker.onFailure();
+        circuitBreaker.onFailure();
+        assertThat(circuitBreaker.isClosed(), is(true));
+
+        circuitBreaker.onFailure();
+        assertThat(circuitBreaker.isClosed(), is(false));
+    }
+
+    @Test
+    public void testProbeClosesCircuit() throws Exception {
+        CircuitBreaker circuitBreaker = new CircuitBreaker(1, 1000, clock::get);
+        circuitBreaker.onFailure();
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(1000));
+
+        circuitBreaker.awaitPermission();
+        circuitBreaker.onSuccess();
+
+        assertThat(circuitBreaker.isClosed(), is(true));
+    }
+
+    @Test
+    public void testFailedProbeReopensCircuit() throws Exception {
+        CircuitBreaker circuitBreaker = new CircuitBreaker(5, 1000, clock::get);
+        for (int i = 0; i < 5; i++) {
+            circuitBreaker.onFailure();
+        }
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(1000));
+
+        circuitBreaker.awaitPermission();
+        circuitBreaker.onFailure();
+
+        assertThat(circuitBreaker.isClosed(), is(false));
+    }
+
+    @Test
+    public void testAbandonedProbeLetsNextCallerProbe() throws Exception {
+        CircuitBreaker circuitBreaker = new CircuitBreaker(1, 1000, clock::get);
+        circuitBreaker.onFailure();
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(1000));
+        assertThat(circuitBreaker.awaitPermission(), is(true));
+
+        circuitBreaker.onProbeAbandoned();
+
+        assertThat(circuitBreaker.isClosed(), is(false));
+        assertThat(circuitBreaker.awaitPermission(), is(true));
+    }
+
+    @Test
+    public void testStaleProbeIsGivenUp() throws Exception {
+        CircuitBreaker circuitBreaker = new CircuitBreaker(1, 100);
+        circuitBreaker.onFailure();
+        assertThat(circuitBreaker.awaitPermission(), is(true));
+
+        assertThat(circuitBreaker.awaitPermission(), is(true));
+    }
+
+    @Test
+    public void testOpenCircuitPausesCallers() throws Exception {
+        CircuitBreaker circuitBreaker = new CircuitBreaker(1, 60000);
+        circuitBreaker.onFailure();
+        CountDownLatch permitted = new CountDownLatch(1);
+        Thread thread = new Thread(() -> {
+            try {
+                circuitBreaker.awaitPermission();
+                permitted.countDown();
+            } catch (InterruptedException ignored) {
+            }
+        });
+        thread.start();
+
+        assertThat(permitted.await(100, TimeUnit.MILLISECONDS), is(false));
+        circuitBreaker.onSuccess();
+        assertThat(permitted.await(5, TimeUnit.SECONDS), is(true));
+    }
+}
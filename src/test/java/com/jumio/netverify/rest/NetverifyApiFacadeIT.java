@@ -11,22 +11,50 @@ import com.jumio.netverify.Utils;
 import com.jumio.netverify.domain.ImageTriplet;
 import com.jumio.netverify.domain.ImageTripletRepository;
 import com.jumio.netverify.domain.PresenceStrategy;
+import com.jumio.netverify.journal.ContentIndex;
+import com.jumio.netverify.journal.SubmissionJournal;
+import com.jumio.netverify.metrics.MetricsRegistry;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.UUID;
+import javax.imageio.ImageIO;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
 import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.util.MimeTypeUtils;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
 import org.springframework.web.client.RestClientException;
 import org.springframework.web.client.RestTemplate;
 
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyZeroInteractions;
@@ -81,6 +109,39 @@ public class NetverifyApiFacadeIT {
         verify(repository, times(1)).moveAll(eq(triplet), eq(configuration.getImagesSuccessFolder()));
     }
 
+    @Test
+    public void testUploadSessionCompletesUploadsWhileOpen() throws Exception {
+        String path = tempFolder.newFile().getCanonicalPath();
+        ResponseEntity responseEntity = mock(ResponseEntity.class);
+        when(restTemplate.postForEntity(anyString(), any(HttpEntity.class), any(Class.class))).thenReturn(
+                responseEntity);
+        when(responseEntity.getBody()).thenReturn(new PerformNetverifyResponse());
+        NetverifyApiFacade facade = new NetverifyApiFacade(configuration, repository, restTemplate);
+
+        try (NetverifyApiFacade.UploadSession session = facade.openSession()) {
+            for (int i = 0; i < 2; i++) {
+                ImageTriplet triplet = mock(ImageTriplet.class);
+                when(triplet.getUniqueId()).thenReturn(UUID.randomUUID().toString());
+                when(triplet.getIdFrontImagePath()).thenReturn(path);
+                when(triplet.conformsTo(any(PresenceStrategy.Validator.class))).thenReturn(true);
+
+                session.submit(triplet);
+
+                verify(repository, timeout(5000)).moveAll(eq(triplet), eq(configuration.getImagesSuccessFolder()));
+            }
+        }
+        verify(restTemplate, times(2)).postForEntity(anyString(), any(HttpEntity.class), any(Class.class));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testUploadSessionRejectsSubmitAfterClose() {
+        NetverifyApiFacade facade = new NetverifyApiFacade(configuration, repository, restTemplate);
+        NetverifyApiFacade.UploadSession session = facade.openSession();
+        session.close();
+
+        session.submit(mock(ImageTriplet.class));
+    }
+
     @Test
     public void testSendApiRequestsWithValidationError() throws Exception {
         ImageTriplet triplet = mock(ImageTriplet.class);
@@ -113,13 +174,273 @@ public class NetverifyApiFacadeIT {
         verify(repository, times(1)).moveAll(eq(triplet), eq(configuration.getImagesFailureFolder()));
     }
 
-    private ConfigurationContext buildConfiguration() throws Exception {
+    @Test
+    public void testSendApiRequestsConcurrentlyMovesImagesInOrder() throws Exception {
+        String path = tempFolder.newFile().getCanonicalPath();
+        List<ImageTriplet> triplets = new ArrayList<>();
+        for (int i = 0; i < 16; i++) {
+            ImageTriplet triplet = mock(ImageTriplet.class);
+            when(triplet.getUniqueId()).thenReturn(UUID.randomUUID().toString());
+            when(triplet.getIdFrontImagePath()).thenReturn(path);
+            when(triplet.conformsTo(any(PresenceStrategy.Validator.class))).thenReturn(true);
+            triplets.add(triplet);
+        }
+        ResponseEntity responseEntity = mock(ResponseEntity.class);
+        when(responseEntity.getBody()).thenReturn(new PerformNetverifyResponse());
+        when(restTemplate.postForEntity(anyString(), any(HttpEntity.class), any(Class.class))).thenReturn(
+                responseEntity);
+        configuration = buildConfiguration("upload.concurrency=4");
+
+        NetverifyApiFacade facade = new NetverifyApiFacade(configuration, repository, restTemplate);
+        facade.sendApiRequests(triplets);
+
+        verify(restTemplate, times(triplets.size())).postForEntity(anyString(), any(HttpEntity.class),
+                any(Class.class));
+        InOrder inOrder = inOrder(repository);
+        for (ImageTriplet triplet : triplets) {
+            inOrder.verify(repository).moveAll(eq(triplet), eq(configuration.getImagesSuccessFolder()));
+        }
+    }
+
+    @Test
+    public void testSendApiRequestsSkipsJournaledSubmissions() throws Exception {
+        ImageTriplet submitted = mock(ImageTriplet.class);
+        ImageTriplet interrupted = mock(ImageTriplet.class);
+        when(submitted.getUniqueId()).thenReturn("submitted");
+        when(submitted.conformsTo(any(PresenceStrategy.Validator.class))).thenReturn(true);
+        when(interrupted.getUniqueId()).thenReturn("interrupted");
+        when(interrupted.conformsTo(any(PresenceStrategy.Validator.class))).thenReturn(true);
+        SubmissionJournal journal = mock(SubmissionJournal.class);
+        when(journal.lookup("submitted")).thenReturn(SubmissionJournal.State.SUBMITTED);
+        when(journal.lookup("interrupted")).thenReturn(SubmissionJournal.State.SENDING);
+
+        NetverifyApiFacade facade = new NetverifyApiFacade(configuration, repository, restTemplate, journal);
+        facade.sendApiRequests(Arrays.asList(submitted, interrupted));
+
+        verifyZeroInteractions(restTemplate);
+        verify(repository, times(1)).moveAll(eq(submitted), eq(configuration.getImagesSuccessFolder()));
+        verify(repository, never()).moveAll(eq(interrupted), anyString());
+    }
+
+    @Test
+    public void testSendApiRequestsRecordsSubmissions() throws Exception {
+        String path = tempFolder.newFile().getCanonicalPath();
+        ImageTriplet triplet = mock(ImageTriplet.class);
+        ResponseEntity responseEntity = mock(ResponseEntity.class);
+        PerformNetverifyResponse response = new PerformNetverifyResponse();
+        response.setJumioIdScanReference("jumio-ref");
+        when(triplet.getUniqueId()).thenReturn("foo");
+        when(triplet.getIdFrontImagePath()).thenReturn(path);
+        when(triplet.conformsTo(any(PresenceStrategy.Validator.class))).thenReturn(true);
+        when(restTemplate.postForEntity(anyString(), any(HttpEntity.class), any(Class.class))).thenReturn(
+                responseEntity);
+        when(responseEntity.getBody()).thenReturn(response);
+        SubmissionJournal journal = mock(SubmissionJournal.class);
+        when(journal.lookup("foo")).thenReturn(SubmissionJournal.State.UNKNOWN);
+
+        NetverifyApiFacade facade = new NetverifyApiFacade(configuration, repository, restTemplate, journal);
+        facade.sendApiRequests(Collections.singletonList(triplet));
+
+        InOrder inOrder = inOrder(journal, restTemplate);
+        inOrder.verify(journal).recordSending("foo");
+        inOrder.verify(restTemplate).postForEntity(anyString(), any(HttpEntity.class), any(Class.class));
+        inOrder.verify(journal).recordSubmitted("foo", "jumio-ref");
+    }
+
+    @Test
+    public void testSendApiRequestsRetriesTransientFailures() throws Exception {
+        String path = tempFolder.newFile().getCanonicalPath();
+        ImageTriplet triplet = mock(ImageTriplet.class);
+        ResponseEntity responseEntity = mock(ResponseEntity.class);
+        when(triplet.getUniqueId()).thenReturn(UUID.randomUUID().toString());
+        when(triplet.getIdFrontImagePath()).thenReturn(path);
+        when(triplet.conformsTo(any(PresenceStrategy.Validator.class))).thenReturn(true);
+        when(restTemplate.postForEntity(anyString(), any(HttpEntity.class), any(Class.class)))
+                .thenThrow(new HttpServerErrorException(HttpStatus.SERVICE_UNAVAILABLE))
+                .thenReturn(responseEntity);
+        when(responseEntity.getBody()).thenReturn(new PerformNetverifyResponse());
+        configuration = buildConfiguration("api.retry.initialBackoff=1");
+
+        MetricsRegistry metrics = new MetricsRegistry();
+        NetverifyApiFacade facade = new NetverifyApiFacade(configuration, repository, restTemplate,
+                SubmissionJournal.disabled(), metrics);
+        facade.sendApiRequests(Collections.singletonList(triplet));
+
+        verify(restTemplate, times(2)).postForEntity(anyString(), any(HttpEntity.class), any(Class.class));
+        verify(repository, times(1)).moveAll(eq(triplet), eq(configuration.getImagesSuccessFolder()));
+        assertThat(metrics.counter("requests.sent").sum(), is(2L));
+        assertThat(metrics.counter("requests.retried").sum(), is(1L));
+        assertThat(metrics.counter("uploads.succeeded").sum(), is(1L));
+        assertThat(metrics.getStatusCodeCount(503), is(1L));
+        assertThat(metrics.histogram("latency.request").getCount(), is(2L));
+    }
+
+    @Test
+    public void testSendApiRequestsDoesNotRetryPermanentFailures() throws Exception {
+        String path = tempFolder.newFile().getCanonicalPath();
+        ImageTriplet triplet = mock(ImageTriplet.class);
+        when(triplet.getUniqueId()).thenReturn(UUID.randomUUID().toString());
+        when(triplet.getIdFrontImagePath()).thenReturn(path);
+        when(triplet.conformsTo(any(PresenceStrategy.Validator.class))).thenReturn(true);
+        when(restTemplate.postForEntity(anyString(), any(HttpEntity.class), any(Class.class)))
+                .thenThrow(new HttpClientErrorException(HttpStatus.BAD_REQUEST));
+        configuration = buildConfiguration("api.retry.initialBackoff=1");
+
+        NetverifyApiFacade facade = new NetverifyApiFacade(configuration, repository, restTemplate);
+        facade.sendApiRequests(Collections.singletonList(triplet));
+
+        verify(restTemplate, times(1)).postForEntity(anyString(), any(HttpEntity.class), any(Class.class));
+        verify(repository, times(1)).moveAll(eq(triplet), eq(configuration.getImagesFailureFolder()));
+    }
+
+    @Test
+    public void testSendApiRequestsWithTransformedImage() throws Exception {
+        File image = tempFolder.newFile("large_front.png");
+        ImageIO.write(new BufferedImage(3000, 2000, BufferedImage.TYPE_INT_ARGB), "png", image);
+        ImageTriplet triplet = mock(ImageTriplet.class);
+        ResponseEntity responseEntity = mock(ResponseEntity.class);
+        when(triplet.getUniqueId()).thenReturn(UUID.randomUUID().toString());
+        when(triplet.getIdFrontImagePath()).thenReturn(image.getCanonicalPath());
+        when(triplet.conformsTo(any(PresenceStrategy.Validator.class))).thenReturn(true);
+        when(restTemplate.postForEntity(anyString(), any(HttpEntity.class), any(Class.class)))
+                .thenReturn(responseEntity);
+        when(responseEntity.getBody()).thenReturn(new PerformNetverifyResponse());
+        configuration = buildConfiguration("images.transform.enabled=true", "images.transform.maxDimension=1000");
+
+        NetverifyApiFacade facade = new NetverifyApiFacade(configuration, repository, restTemplate);
+        facade.sendApiRequests(Collections.singletonList(triplet));
+
+        ArgumentCaptor<HttpEntity> httpRequest = ArgumentCaptor.forClass(HttpEntity.class);
+        verify(restTemplate, times(1)).postForEntity(anyString(), httpRequest.capture(), any(Class.class));
+        PerformNetverifyRequest request = (PerformNetverifyRequest) httpRequest.getValue().getBody();
+        assertThat(request.getFrontsideImageMimeType(), is(MimeTypeUtils.IMAGE_JPEG_VALUE));
+        assertThat(request.getFrontsideImageFile(), not(image.toPath()));
+        assertThat(Files.exists(request.getFrontsideImageFile()), is(false));
+        verify(repository, times(1)).moveAll(eq(triplet), eq(configuration.getImagesSuccessFolder()));
+    }
+
+    @Test
+    public void testSendApiRequestsWithApplicantData() throws Exception {
+        ImageTriplet triplet = mock(ImageTriplet.class);
+        ResponseEntity responseEntity = mock(ResponseEntity.class);
+        Map<String, String> applicantData = new HashMap<>();
+        applicantData.put("firstName", "Jane");
+        applicantData.put("dob", "1980-02-29");
+        applicantData.put("idType", "PASSPORT");
+        when(triplet.getUniqueId()).thenReturn(UUID.randomUUID().toString());
+        when(triplet.getIdFrontImagePath()).thenReturn(tempFolder.newFile().getCanonicalPath());
+        when(triplet.getApplicantData()).thenReturn(applicantData);
+        when(triplet.conformsTo(any(PresenceStrategy.Validator.class))).thenReturn(true);
+        when(restTemplate.postForEntity(anyString(), any(HttpEntity.class), any(Class.class)))
+                .thenReturn(responseEntity);
+        when(responseEntity.getBody()).thenReturn(new PerformNetverifyResponse());
+
+        NetverifyApiFacade facade = new NetverifyApiFacade(configuration, repository, restTemplate);
+        facade.sendApiRequests(Collections.singletonList(triplet));
+
+        ArgumentCaptor<HttpEntity> httpRequest = ArgumentCaptor.forClass(HttpEntity.class);
+        verify(restTemplate, times(1)).postForEntity(anyString(), httpRequest.capture(), any(Class.class));
+        PerformNetverifyRequest request = (PerformNetverifyRequest) httpRequest.getValue().getBody();
+        assertThat(request.getFirstName(), is("Jane"));
+        assertThat(request.getDob(), is(LocalDate.of(1980, 2, 29).atStartOfDay()));
+        assertThat(request.getIdType(), is(PerformNetverifyRequest.IdType.PASSPORT));
+    }
+
+    @Test
+    public void testSendApiRequestsWithInvalidApplicantData() throws Exception {
+        ImageTriplet triplet = mock(ImageTriplet.class);
+        when(triplet.getUniqueId()).thenReturn(UUID.randomUUID().toString());
+        when(triplet.getIdFrontImagePath()).thenReturn(tempFolder.newFile().getCanonicalPath());
+        when(triplet.getApplicantData()).thenReturn(Collections.singletonMap("dob", "29.02.1980"));
+        when(triplet.conformsTo(any(PresenceStrategy.Validator.class))).thenReturn(true);
+
+        NetverifyApiFacade facade = new NetverifyApiFacade(configuration, repository, restTemplate);
+        facade.sendApiRequests(Collections.singletonList(triplet));
+
+        verifyZeroInteractions(restTemplate);
+        verify(repository, times(1)).moveAll(eq(triplet), eq(configuration.getImagesFailureFolder()));
+    }
+
+    @Test
+    public void testTransformedImageIsDeletedAfterFailedPrepare() throws Exception {
+        File image = tempFolder.newFile("large_front.png");
+        ImageIO.write(new BufferedImage(3000, 2000, BufferedImage.TYPE_INT_ARGB), "png", image);
+        ImageTriplet triplet = mock(ImageTriplet.class);
+        when(triplet.getUniqueId()).thenReturn(UUID.randomUUID().toString());
+        when(triplet.getIdFrontImagePath()).thenReturn(image.getCanonicalPath());
+        when(triplet.getApplicantData()).thenReturn(Collections.singletonMap("dob", "29.02.1980"));
+        when(triplet.conformsTo(any(PresenceStrategy.Validator.class))).thenReturn(true);
+        configuration = buildConfiguration("images.transform.enabled=true", "images.transform.maxDimension=1000");
+        List<Path> temporaryImages = listTemporaryImages();
+
+        NetverifyApiFacade facade = new NetverifyApiFacade(configuration, repository, restTemplate);
+        facade.sendApiRequests(Collections.singletonList(triplet));
+
+        verifyZeroInteractions(restTemplate);
+        verify(repository, times(1)).moveAll(eq(triplet), eq(configuration.getImagesFailureFolder()));
+        assertThat(listTemporaryImages(), is(temporaryImages));
+    }
+
+    @Test
+    public void testSendApiRequestsSkipsIdenticalImages() throws Exception {
+        File first = tempFolder.newFile("first_front.jpg");
+        File second = tempFolder.newFile("second_front.jpg");
+        Files.write(first.toPath(), new byte[]{1, 2, 3});
+        Files.write(second.toPath(), new byte[]{1, 2, 3});
+        ImageTriplet firstTriplet = mock(ImageTriplet.class);
+        ImageTriplet secondTriplet = mock(ImageTriplet.class);
+        when(firstTriplet.getUniqueId()).thenReturn("first");
+        when(firstTriplet.getIdFrontImagePath()).thenReturn(first.getCanonicalPath());
+        when(firstTriplet.conformsTo(any(PresenceStrategy.Validator.class))).thenReturn(true);
+        when(secondTriplet.getUniqueId()).thenReturn("second");
+        when(secondTriplet.getIdFrontImagePath()).thenReturn(second.getCanonicalPath());
+        when(secondTriplet.conformsTo(any(PresenceStrategy.Validator.class))).thenReturn(true);
+        ResponseEntity responseEntity = mock(ResponseEntity.class);
+        PerformNetverifyResponse response = new PerformNetverifyResponse();
+        response.setJumioIdScanReference("jumio-ref");
+        when(responseEntity.getBody()).thenReturn(response);
+        when(restTemplate.postForEntity(anyString(), any(HttpEntity.class), any(Class.class)))
+                .thenReturn(responseEntity);
+        File journalFile = new File(tempFolder.getRoot(), "journal.log");
+        configuration = buildConfiguration("dedup.indexFile=" + new File(tempFolder.getRoot(), "content.idx"),
+                "journal.file=" + journalFile);
+
+        try (SubmissionJournal journal = SubmissionJournal.open(configuration);
+             ContentIndex contentIndex = ContentIndex.open(configuration)) {
+            NetverifyApiFacade facade = new NetverifyApiFacade(configuration, repository, restTemplate, journal,
+                    contentIndex, new MetricsRegistry());
+            facade.sendApiRequests(Collections.singletonList(firstTriplet));
+            facade.sendApiRequests(Collections.singletonList(secondTriplet));
+        }
+
+        verify(restTemplate, times(1)).postForEntity(anyString(), any(HttpEntity.class), any(Class.class));
+        verify(repository, times(1)).moveAll(eq(secondTriplet), eq(configuration.getImagesSuccessFolder()));
+        List<String> records = Files.readAllLines(journalFile.toPath());
+        assertThat(records.get(records.size() - 1).endsWith("\tjumio-ref\tsecond"), is(true));
+    }
+
+    /**
+     * Lists the shrunk images the {@link com.jumio.netverify.image.ImageTransformer} left in the temporary directory.
+     */
+    private static List<Path> listTemporaryImages() throws Exception {
+        List<Path> images = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(Paths.get(System.getProperty("java.io.tmpdir")),
+                "clinv-*.jpg")) {
+            stream.forEach(images::add);
+        }
+        Collections.sort(images);
+        return images;
+    }
+
+    private ConfigurationContext buildConfiguration(String... overridingProperties) throws Exception {
         Properties cliProperties = new Properties();
         cliProperties.setProperty("api.serverUrl", "http://localhost");
         cliProperties.setProperty("api.token", "foo");
         cliProperties.setProperty("api.secret", "bar");
+        List<String> properties = Utils.propertiesToList(cliProperties);
+        properties.addAll(Arrays.asList(overridingProperties));
         ConfigurationContext configuration = new ConfigurationContext();
-        configuration.load(Utils.propertiesToList(cliProperties));
+        configuration.load(properties);
         return configuration;
     }
 }
\ No newline at end of file
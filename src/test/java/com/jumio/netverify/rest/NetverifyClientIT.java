@@ -0,0 +1,160 @@
+/*
+ * Jumio Inc.
+ *
+ * Copyright (C) 2018
+ * All rights reserved.
+ */
+package com.jumio.netverify.rest;
+
+import com.jumio.netverify.ConfigurationContext;
+import com.jumio.netverify.domain.ImageTriplet;
+import com.jumio.netverify.metrics.MetricsRegistry;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.ResourceAccessException;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.junit.Assert.fail;
+
+/**
+ * Submits requests through the {@link NetverifyClient} to the {@link NetverifyStubServer}.
+ */
+public class NetverifyClientIT {
+
+    private static final byte[] JPEG_IMAGE = {(byte) 0xff, (byte) 0xd8, (byte) 0xff, (byte) 0xe0, 1, 2, 3};
+
+    @Rule
+    public final TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private NetverifyStubServer stub;
+
+    private MetricsRegistry metrics;
+
+    private NetverifyClient client;
+
+    @Before
+    public void setUp() throws Exception {
+        stub = new NetverifyStubServer();
+        ConfigurationContext configuration = new ConfigurationContext();
+        configuration.load(Arrays.asList("api.serverUrl=" + stub.getUrl(), "api.token=foo", "api.secret=bar",
+                "api.retry.maxAttempts=1", "images.presenceStrategy=ID_AND_FACE"));
+        metrics = new MetricsRegistry();
+        client = new NetverifyClient(configuration, metrics);
+    }
+
+    @After
+    public void tearDown() {
+        client.close();
+        stub.close();
+    }
+
+    @Test
+    public void testSubmit() throws Exception {
+        ImageTriplet imageTriplet = ImageTriplet.of("foo", image("foo_front.jpg").toString(), null,
+                image("foo_face.png").toString(), Collections.singletonMap("firstName", "Jane"));
+
+        PerformNetverifyResponse response = client.submit(imageTriplet).get();
+
+        assertThat(response.getJumioIdScanReference(), is(notNullValue()));
+        assertThat(stub.getAccepted(), is(1L));
+        assertThat(metrics.counter("uploads.succeeded").sum(), is(1L));
+    }
+
+    @Test
+    public void testSubmitBytes() throws Exception {
+        PerformNetverifyResponse response = client.submit("foo", JPEG_IMAGE, null, JPEG_IMAGE).get();
+
+        assertThat(response.getJumioIdScanReference(), is(notNullValue()));
+        assertThat(stub.getAccepted(), is(1L));
+        assertThat(stub.getInvalid(), is(0L));
+    }
+
+    @Test
+    public void testSubmitInvalidImages() throws Exception {
+        assertFailure(client.submit("foo", new byte[]{1, 2, 3}, null, null), IllegalArgumentException.class);
+        assertFailure(client.submit(ImageTriplet.of("foo", image("foo_front.jpg").toString(), null, null, null)),
+                IllegalArgumentException.class);
+        assertThat(stub.getRequests(), is(0L));
+    }
+
+    @Test
+    public void testSubmitAllWithThrottles() throws Exception {
+        stub.withFailures(0, 1);
+        List<ImageTriplet> imageTriplets = new ArrayList<>();
+        for (String uniqueId : Arrays.asList("foo", "bar")) {
+            imageTriplets.add(ImageTriplet.of(uniqueId, image(uniqueId + "_front.jpg").toString(), null,
+                    image(uniqueId + "_face.jpg").toString(), null));
+        }
+
+        List<CompletableFuture<PerformNetverifyResponse>> results = client.submitAll(imageTriplets);
+
+        assertThat(results.size(), is(2));
+        for (CompletableFuture<PerformNetverifyResponse> result : results) {
+            Throwable failure = assertFailure(result, HttpClientErrorException.class);
+            assertThat(((HttpClientErrorException) failure).getStatusCode(), is(HttpStatus.TOO_MANY_REQUESTS));
+        }
+        assertThat(metrics.counter("uploads.failed").sum(), is(2L));
+    }
+
+    @Test
+    public void testFailedProbeDoesNotBlockCircuit() throws Exception {
+        client.close();
+        ConfigurationContext configuration = new ConfigurationContext();
+        configuration.load(Arrays.asList("api.serverUrl=" + stub.getUrl(), "api.token=foo", "api.secret=bar",
+                "api.retry.maxAttempts=1", "api.circuitBreaker.failureThreshold=1", "api.circuitBreaker.openTime=100"));
+        client = new NetverifyClient(configuration, metrics);
+        stub.withFailures(1, 0);
+        assertFailure(client.submit("foo", JPEG_IMAGE, null, null), HttpServerErrorException.class);
+        stub.withFailures(0, 0);
+
+        CompletableFuture<PerformNetverifyResponse> probe = client.submit(ImageTriplet.of("bar",
+                tempFolder.getRoot().toPath().resolve("bar_front.jpg").toString(), null, null, null));
+        CompletableFuture<PerformNetverifyResponse> result = client.submit("baz", JPEG_IMAGE, null, null);
+
+        assertFailure(probe, ResourceAccessException.class);
+        assertThat(result.get(10, TimeUnit.SECONDS).getJumioIdScanReference(), is(notNullValue()));
+        assertThat(stub.getAccepted(), is(1L));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testSubmitAfterClose() {
+        client.close();
+
+        client.submit("foo", JPEG_IMAGE, null, null);
+    }
+
+    private Path image(String fileName) throws Exception {
+        return Files.write(tempFolder.getRoot().toPath().resolve(fileName), JPEG_IMAGE);
+    }
+
+    private static Throwable assertFailure(CompletableFuture<?> result, Class<? extends Throwable> expectedFailure)
+            throws InterruptedException, TimeoutException {
+        try {
+            result.get(10, TimeUnit.SECONDS);
+            fail("Request did not fail");
+            return null;
+        } catch (ExecutionException ee) {
+            assertThat(ee.getCause(), is(instanceOf(expectedFailure)));
+            return ee.getCause();
+        }
+    }
+}
@@ -0,0 +1,286 @@
+/*
+ * Jumio Inc.
+ *
+ * Copyright (C) 2018
+ * All rights reserved.
+ */
+package com.jumio.netverify.rest;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.GZIPInputStream;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.util.StreamUtils;
+import org.springframework.util.StringUtils;
+
+/**
+ * Local stand-in for the perform Netverify endpoint, listening on {@code http://localhost:<port>/performNetverify}.
+ * <p>
+ * Every request body is validated against the fields of {@link PerformNetverifyRequest}: unknown fields, a missing
+ * merchant scan reference or front image, invalid Base64 and unsupported MIME types are answered with HTTP 400. Gzip
+ * compressed bodies are accepted. Valid requests are answered after a latency drawn from the configured distribution,
+ * unless an HTTP 500 or 429 is injected at the configured rates.
+ */
+public final class NetverifyStubServer implements Closeable {
+
+    private static final String PATH = "/performNetverify";
+
+    private static final Set<String> MIME_TYPES = new HashSet<>(Arrays.asList("image/jpeg", "image/png"));
+
+    private static final Set<String> REQUEST_FIELDS = requestFields();
+
+    private final Gson gson = new Gson();
+
+    private final HttpServer server;
+
+    private final ExecutorService executor;
+
+    private final LongAdder requests = new LongAdder();
+
+    private final LongAdder accepted = new LongAdder();
+
+    private final LongAdder invalid = new LongAdder();
+
+    private final LongAdder injectedErrors = new LongAdder();
+
+    private final LongAdder injectedThrottles = new LongAdder();
+
+    private volatile LatencyDistribution latencyDistribution = LatencyDistribution.CONSTANT;
+
+    private volatile double meanLatencyMillis;
+
+    private volatile double errorRate;
+
+    private volatile double throttleRate;
+
+    private volatile String lastInvalidReason;
+
+    /**
+     * Starts the server on a free port.
+     */
+    public NetverifyStubServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        executor = Executors.newCachedThreadPool(new CustomizableThreadFactory("stub-"));
+        server.setExecutor(executor);
+        server.createContext(PATH, this::handle);
+        server.start();
+    }
+
+    public String getUrl() {
+        return "http://localhost:" + server.getAddress().getPort() + PATH;
+    }
+
+    /**
+     * @param latencyDistribution The shape of the latency distribution.
+     * @param meanLatencyMillis The mean latency added to each response.
+     */
+    public NetverifyStubServer withLatency(LatencyDistribution latencyDistribution, double meanLatencyMillis) {
+        this.latencyDistribution = latencyDistribution;
+        this.meanLatencyMillis = meanLatencyMillis;
+        return this;
+    }
+
+    /**
+     * @param errorRate The share of valid requests answered with HTTP 500.
+     * @param throttleRate The share of valid requests answered with HTTP 429.
+     */
+    public NetverifyStubServer withFailures(double errorRate, double throttleRate) {
+        this.errorRate = errorRate;
+        this.throttleRate = throttleRate;
+        return this;
+    }
+
+    public long getRequests() {
+        return requests.sum();
+    }
+
+    public long getAccepted() {
+        return accepted.sum();
+    }
+
+    public long getInvalid() {
+        return invalid.sum();
+    }
+
+    public long getInjectedErrors() {
+        return injectedErrors.sum();
+    }
+
+    public long getInjectedThrottles() {
+        return injectedThrottles.sum();
+    }
+
+    public String getLastInvalidReason() {
+        return lastInvalidReason;
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        requests.increment();
+        boolean compressed = "gzip".equals(exchange.getRequestHeaders().getFirst("Content-Encoding"));
+        String invalidReason;
+        try (InputStream body = compressed ? new GZIPInputStream(exchange.getRequestBody()) :
+                exchange.getRequestBody()) {
+            invalidReason = validate(body);
+            StreamUtils.drain(body);
+        }
+        if (invalidReason != null) {
+            invalid.increment();
+            lastInvalidReason = invalidReason;
+            respond(exchange, 400, gson.toJson(Collections.singletonMap("message", invalidReason)));
+            return;
+        }
+        double failure = ThreadLocalRandom.current().nextDouble();
+        if (failure < errorRate) {
+            injectedErrors.increment();
+            respond(exchange, 500, "{}");
+            return;
+        }
+        if (failure < errorRate + throttleRate) {
+            injectedThrottles.increment();
+            respond(exchange, 429, "{}");
+            return;
+        }
+        try {
+            TimeUnit.MICROSECONDS.sleep((long) (1000 * latencyDistribution.sample(meanLatencyMillis)));
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        accepted.increment();
+        respond(exchange, 200, "{\"jumioIdScanReference\":\"" + UUID.randomUUID() + "\",\"timestamp\":\"" +
+                System.currentTimeMillis() + "\"}");
+    }
+
+    /**
+     * @return The reason the request is invalid or {@code null} if it is valid.
+     */
+    private String validate(InputStream body) {
+        JsonObject request;
+        try {
+            request = gson.fromJson(new InputStreamReader(body, StandardCharsets.UTF_8), JsonObject.class);
+        } catch (JsonParseException jpe) {
+            return "Malformed JSON";
+        }
+        if (request == null) {
+            return "Empty body";
+        }
+        for (Map.Entry<String, JsonElement> member : request.entrySet()) {
+            if (!REQUEST_FIELDS.contains(member.getKey())) {
+                return "Unknown field " + member.getKey();
+            }
+        }
+        if (!StringUtils.hasText(stringValue(request, "merchantIdScanReference"))) {
+            return "Missing merchantIdScanReference";
+        }
+        if (stringValue(request, "frontsideImage") == null) {
+            return "Missing frontsideImage";
+        }
+        for (String image : new String[]{"frontsideImage", "backsideImage", "faceImage"}) {
+            String imageData = stringValue(request, image);
+            if (imageData == null) {
+                continue;
+            }
+            try {
+                if (Base64.getDecoder().decode(imageData).length == 0) {
+                    return "Empty " + image;
+                }
+            } catch (IllegalArgumentException iae) {
+                return "Invalid Base64 in " + image;
+            }
+            if (!MIME_TYPES.contains(stringValue(request, image + "MimeType"))) {
+                return "Unsupported MIME type of " + image;
+            }
+        }
+        return null;
+    }
+
+    private static String stringValue(JsonObject json, String name) {
+        JsonElement element = json.get(name);
+        return element == null || element.isJsonNull() ? null : element.getAsString();
+    }
+
+    private static void respond(HttpExchange exchange, int status, String json) throws IOException {
+        byte[] response = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, response.length);
+        try (OutputStream body = exchange.getResponseBody()) {
+            body.write(response);
+        }
+    }
+
+    private static Set<String> requestFields() {
+        Set<String> fields = new HashSet<>();
+        for (Field field : PerformNetverifyRequest.class.getDeclaredFields()) {
+            if (!Modifier.isStatic(field.getModifiers()) && !Modifier.isTransient(field.getModifiers())) {
+                fields.add(field.getName());
+            }
+        }
+        return fields;
+    }
+
+    public enum LatencyDistribution {
+
+        CONSTANT {
+            @Override
+            double sample(double mean) {
+                return mean;
+            }
+        },
+        UNIFORM {
+            @Override
+            double sample(double mean) {
+                return ThreadLocalRandom.current().nextDouble() * 2 * mean;
+            }
+        },
+        EXPONENTIAL {
+            @Override
+            double sample(double mean) {
+                return -mean * Math.log(1 - ThreadLocalRandom.current().nextDouble());
+            }
+        },
+        /**
+         * Long-tailed like most real server latencies: the median is at 80 % of the mean, the p99 at almost four
+         * times the mean.
+         */
+        LOG_NORMAL {
+            @Override
+            double sample(double mean) {
+                double sigma = 0.67;
+                return mean * Math.exp(sigma * ThreadLocalRandom.current().nextGaussian() - sigma * sigma / 2);
+            }
+        };
+
+        abstract double sample(double mean);
+    }
+}
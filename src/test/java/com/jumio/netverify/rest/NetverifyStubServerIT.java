@@ -0,0 +1,125 @@
+/*
+ * Jumio Inc.
+ *
+ * Copyright (C) 2018
+ * All rights reserved.
+ */
+package com.jumio.netverify.rest;
+
+import com.jumio.netverify.ConfigurationContext;
+import com.jumio.netverify.Utils;
+import com.jumio.netverify.domain.ImageTripletRepository;
+import com.jumio.netverify.journal.SubmissionJournal;
+import com.jumio.netverify.metrics.MetricsRegistry;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.Properties;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.RestTemplate;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.fail;
+
+/**
+ * Runs the real upload path against the {@link NetverifyStubServer}.
+ */
+public class NetverifyStubServerIT {
+
+    @Rule
+    public final TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private NetverifyStubServer stub;
+
+    @Before
+    public void setUp() throws Exception {
+        stub = new NetverifyStubServer();
+    }
+
+    @After
+    public void tearDown() {
+        stub.close();
+    }
+
+    @Test
+    public void testUploadsAreAccepted() throws Exception {
+        stub.withLatency(NetverifyStubServer.LatencyDistribution.EXPONENTIAL, 5);
+        ConfigurationContext configuration = buildConfiguration();
+
+        MetricsRegistry metrics = sendAll(configuration);
+
+        assertThat(stub.getAccepted(), is(1L));
+        assertThat(stub.getInvalid(), is(0L));
+        assertThat(metrics.counter("uploads.succeeded").sum(), is(1L));
+        assertThat(Files.list(Paths.get(configuration.getImagesSuccessFolder())).count(), is(3L));
+    }
+
+    @Test
+    public void testInjectedThrottlesFailUploads() throws Exception {
+        stub.withFailures(0, 1);
+        ConfigurationContext configuration = buildConfiguration();
+
+        MetricsRegistry metrics = sendAll(configuration);
+
+        assertThat(stub.getInjectedThrottles(), is(1L));
+        assertThat(metrics.getStatusCodeCount(429), is(1L));
+        assertThat(Files.list(Paths.get(configuration.getImagesFailureFolder())).count(), is(3L));
+    }
+
+    @Test
+    public void testInvalidRequestIsRejected() throws Exception {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+
+        try {
+            new RestTemplate().postForEntity(stub.getUrl(),
+                    new HttpEntity<>("{\"merchantIdScanReference\":\"foo\",\"frontImage\":\"\"}", headers),
+                    String.class);
+            fail("Invalid request was accepted");
+        } catch (HttpClientErrorException e) {
+            assertThat(e.getStatusCode(), is(HttpStatus.BAD_REQUEST));
+            assertThat(stub.getLastInvalidReason(), is("Unknown field frontImage"));
+        }
+    }
+
+    private ConfigurationContext buildConfiguration() throws Exception {
+        ConfigurationContext configuration = new ConfigurationContext();
+        configuration.load(Collections.emptyList());
+        Properties properties = Utils.setImageFolderPaths(tempFolder.getRoot().getCanonicalPath(), configuration);
+        properties.setProperty("api.serverUrl", stub.getUrl());
+        properties.setProperty("api.token", "foo");
+        properties.setProperty("api.secret", "bar");
+        properties.setProperty("api.retry.maxAttempts", "1");
+        properties.setProperty("images.presenceStrategy", "ALL");
+        configuration.load(Utils.propertiesToList(properties));
+        Utils.createAndFillImagesFolder(configuration);
+        try (DirectoryStream<Path> images = Files.newDirectoryStream(Paths.get(configuration.getImagesFolder()))) {
+            for (Path image : images) {
+                Files.write(image, new byte[]{1, 2, 3});
+            }
+        }
+        return configuration;
+    }
+
+    private MetricsRegistry sendAll(ConfigurationContext configuration) throws Exception {
+        MetricsRegistry metrics = new MetricsRegistry();
+        ImageTripletRepository repository = new ImageTripletRepository(configuration);
+        repository.createDirectories();
+        NetverifyApiFacade facade = new NetverifyApiFacade(configuration, repository,
+                RestTemplateBuilder.buildRestTemplate(configuration, metrics), SubmissionJournal.disabled(), metrics);
+        facade.sendApiRequests(repository.findAll());
+        return metrics;
+    }
+}
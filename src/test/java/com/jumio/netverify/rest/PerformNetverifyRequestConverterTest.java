@@ -0,0 +1,133 @@
+/*
+ * Jumio Inc.
+ *
+ * Copyright (C) 2018
+ * All rights reserved.
+ */
+package com.jumio.netverify.rest;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.jumio.netverify.metrics.MetricsRegistry;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Base64;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.mock.http.MockHttpOutputMessage;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+public class PerformNetverifyRequestConverterTest {
+
+    @Rule
+    public final TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private final Gson gson = RestTemplateBuilder.buildGson();
+
+    private final PerformNetverifyRequestConverter converter = new PerformNetverifyRequestConverter(gson);
+
+    @Test
+    public void testWriteEncodesImageFiles() throws Exception {
+        byte[] frontImage = randomBytes(100_001);
+        byte[] faceImage = randomBytes(2);
+        PerformNetverifyRequest request = new PerformNetverifyRequest();
+        request.setMerchantIdScanReference("foo");
+        request.setFrontsideImageFile(writeFile(frontImage).toPath());
+        request.setFaceImageFile(writeFile(faceImage).toPath());
+
+        MockHttpOutputMessage outputMessage = new MockHttpOutputMessage();
+        converter.write(request, MediaType.APPLICATION_JSON, outputMessage);
+
+        byte[] body = outputMessage.getBodyAsBytes();
+        JsonObject json = gson.fromJson(outputMessage.getBodyAsString(), JsonObject.class);
+        assertThat(outputMessage.getHeaders().getContentLength(), is((long) body.length));
+        assertThat(json.get("merchantIdScanReference").getAsString(), is("foo"));
+        assertThat(Base64.getDecoder().decode(json.get("frontsideImage").getAsString()), is(frontImage));
+        assertThat(Base64.getDecoder().decode(json.get("faceImage").getAsString()), is(faceImage));
+        assertThat(json.get("backsideImage"), is(nullValue()));
+    }
+
+    @Test
+    public void testWritePrefersFilesOverBase64Strings() throws Exception {
+        byte[] frontImage = randomBytes(3);
+        PerformNetverifyRequest request = new PerformNetverifyRequest();
+        request.setFrontsideImage("replaced");
+        request.setBacksideImage("kept");
+        request.setFrontsideImageFile(writeFile(frontImage).toPath());
+
+        MockHttpOutputMessage outputMessage = new MockHttpOutputMessage();
+        converter.write(request, MediaType.APPLICATION_JSON, outputMessage);
+
+        JsonObject json = gson.fromJson(outputMessage.getBodyAsString(), JsonObject.class);
+        assertThat(Base64.getDecoder().decode(json.get("frontsideImage").getAsString()), is(frontImage));
+        assertThat(json.get("backsideImage").getAsString(), is("kept"));
+    }
+
+    @Test
+    public void testWriteWithoutFieldsOrFiles() throws Exception {
+        PerformNetverifyRequest request = new PerformNetverifyRequest();
+        request.setFrontsideImageMimeType(null);
+        request.setBacksideImageMimeType(null);
+        request.setFaceImageMimeType(null);
+
+        MockHttpOutputMessage outputMessage = new MockHttpOutputMessage();
+        converter.write(request, MediaType.APPLICATION_JSON, outputMessage);
+
+        assertThat(outputMessage.getBodyAsString(), is("{}"));
+        assertThat(outputMessage.getHeaders().getContentLength(), is(2L));
+    }
+
+    @Test
+    public void testWriteCompressed() throws Exception {
+        byte[] frontImage = randomBytes(10_000);
+        PerformNetverifyRequest request = new PerformNetverifyRequest();
+        request.setMerchantIdScanReference("foo");
+        request.setFrontsideImageFile(writeFile(frontImage).toPath());
+        MetricsRegistry metrics = new MetricsRegistry();
+        PerformNetverifyRequestConverter converter = new PerformNetverifyRequestConverter(gson, true, metrics);
+
+        MockHttpOutputMessage outputMessage = new MockHttpOutputMessage();
+        converter.write(request, MediaType.APPLICATION_JSON, outputMessage);
+
+        JsonObject json = gson.fromJson(new InputStreamReader(new GZIPInputStream(
+                new ByteArrayInputStream(outputMessage.getBodyAsBytes())), StandardCharsets.UTF_8), JsonObject.class);
+        assertThat(outputMessage.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING), is("gzip"));
+        assertThat(outputMessage.getHeaders().getContentLength(), is(-1L));
+        assertThat(Base64.getDecoder().decode(json.get("frontsideImage").getAsString()), is(frontImage));
+        assertThat(metrics.counter("bytes.body.compressed").sum(), is((long) outputMessage.getBodyAsBytes().length));
+
+        assertThat(converter.fallBackToIdentity(), is(true));
+        outputMessage = new MockHttpOutputMessage();
+        converter.write(request, MediaType.APPLICATION_JSON, outputMessage);
+        assertThat(outputMessage.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING), is(nullValue()));
+    }
+
+    @Test
+    public void testCannotRead() {
+        assertThat(converter.canRead(PerformNetverifyRequest.class, MediaType.APPLICATION_JSON), is(false));
+        assertThat(converter.canWrite(PerformNetverifyRequest.class, MediaType.APPLICATION_JSON), is(true));
+    }
+
+    private byte[] randomBytes(int size) {
+        byte[] bytes = new byte[size];
+        new Random(size).nextBytes(bytes);
+        return bytes;
+    }
+
+    private File writeFile(byte[] content) throws Exception {
+        File file = tempFolder.newFile();
+        Files.write(file.toPath(), content);
+        return file;
+    }
+}
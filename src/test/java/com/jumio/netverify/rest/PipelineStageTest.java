@@ -0,0 +1,80 @@
+/*
+ * Jumio Inc.
+ *
+ * Copyright (C) 2018
+ * All rights reserved.
+ */
+package com.jumio.netverify.rest;
+
+import com.jumio.netverify.metrics.MetricsRegistry;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+
+public class PipelineStageTest {
+
+    private final MetricsRegistry metrics = new MetricsRegistry();
+
+    @Test
+    public void testFullQueueBlocksSubmitter() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch submitted = new CountDownLatch(1);
+        try (PipelineStage stage = new PipelineStage("test", 1, 1, metrics)) {
+            stage.execute(() -> awaitQuietly(release));
+            stage.execute(() -> { });
+            Thread submitter = new Thread(() -> {
+                stage.execute(() -> { });
+                submitted.countDown();
+            });
+            submitter.start();
+
+            assertThat(submitted.await(200, TimeUnit.MILLISECONDS), is(false));
+            assertThat(metrics.getGaugeValue("stage.test.queueDepth"), is(1.0));
+
+            release.countDown();
+            assertThat(submitted.await(5, TimeUnit.SECONDS), is(true));
+        }
+    }
+
+    @Test
+    public void testUtilization() throws Exception {
+        CountDownLatch done = new CountDownLatch(1);
+        try (PipelineStage stage = new PipelineStage("test", 1, 1, metrics)) {
+            stage.execute(() -> sleepQuietly(50));
+            stage.execute(done::countDown);
+            done.await();
+
+            assertThat(stage.getUtilization(), greaterThan(0.0));
+            assertThat(metrics.getGaugeValue("stage.test.utilization"), greaterThan(0.0));
+        }
+    }
+
+    @Test(expected = RejectedExecutionException.class)
+    public void testClosedStageRejectsTasks() {
+        PipelineStage stage = new PipelineStage("test", 1, 1, metrics);
+        stage.close();
+
+        stage.execute(() -> { });
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void sleepQuietly(long millis) {
+        try {
+            TimeUnit.MILLISECONDS.sleep(millis);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Jumio Inc.
+ *
+ * Copyright (C) 2018
+ * All rights reserved.
+ */
+package com.jumio.netverify.rest;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Test;
+import org.springframework.http.HttpStatus;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+
+public class RateGovernorTest {
+
+    private static final long LATENCY = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final AtomicLong clock = new AtomicLong();
+
+    @Test
+    public void testOverloadHalvesConcurrencyOncePerRoundTrip() throws Exception {
+        RateGovernor governor = new RateGovernor(0, 16, true, clock::get);
+        sendHealthyRequest(governor);
+
+        governor.acquire();
+        governor.acquire();
+        clock.addAndGet(LATENCY);
+        governor.release(RateGovernor.Signal.OVERLOADED, LATENCY);
+        governor.release(RateGovernor.Signal.OVERLOADED, LATENCY);
+
+        assertThat(governor.getConcurrencyLimit(), is(8));
+    }
+
+    @Test
+    public void testHealthyResponsesIncreaseConcurrency() throws Exception {
+        RateGovernor governor = new RateGovernor(0, 4, true, clock::get);
+        sendHealthyRequest(governor);
+        governor.acquire();
+        clock.addAndGet(LATENCY);
+        governor.release(RateGovernor.Signal.OVERLOADED, LATENCY);
+        assertThat(governor.getConcurrencyLimit(), is(2));
+
+        for (int i = 0; i < 8; i++) {
+            sendHealthyRequest(governor);
+        }
+
+        assertThat(governor.getConcurrencyLimit(), is(4));
+    }
+
+    @Test
+    public void testRisingLatencyDecreasesConcurrency() throws Exception {
+        RateGovernor governor = new RateGovernor(0, 10, true, clock::get);
+        sendHealthyRequest(governor);
+        for (int i = 0; i < 10; i++) {
+            governor.acquire();
+            clock.addAndGet(10 * LATENCY);
+            governor.release(RateGovernor.Signal.HEALTHY, 10 * LATENCY);
+        }
+
+        assertThat(governor.getConcurrencyLimit() < 10, is(true));
+    }
+
+    @Test
+    public void testNonAdaptiveGovernorKeepsConcurrency() throws Exception {
+        RateGovernor governor = new RateGovernor(0, 4, false, clock::get);
+        governor.acquire();
+        clock.addAndGet(LATENCY);
+        governor.release(RateGovernor.Signal.OVERLOADED, LATENCY);
+
+        assertThat(governor.getConcurrencyLimit(), is(4));
+    }
+
+    @Test
+    public void testAcquireBlocksAtConcurrencyLimit() throws Exception {
+        RateGovernor governor = new RateGovernor(0, 1, true);
+        governor.acquire();
+        CountDownLatch acquired = new CountDownLatch(1);
+        Thread thread = new Thread(() -> {
+            try {
+                governor.acquire();
+                acquired.countDown();
+            } catch (InterruptedException ignored) {
+            }
+        });
+        thread.start();
+
+        assertThat(acquired.await(100, TimeUnit.MILLISECONDS), is(false));
+        governor.release(RateGovernor.Signal.HEALTHY, LATENCY);
+        assertThat(acquired.await(5, TimeUnit.SECONDS), is(true));
+    }
+
+    @Test
+    public void testTokenBucketLimitsRate() throws Exception {
+        RateGovernor governor = new RateGovernor(50, 1, false);
+        long startNanos = System.nanoTime();
+        for (int i = 0; i < 11; i++) {
+            governor.acquire();
+            governor.release(RateGovernor.Signal.HEALTHY, 0);
+        }
+
+        assertThat(System.nanoTime() - startNanos, greaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(180)));
+    }
+
+    @Test
+    public void testClassify() {
+        assertThat(RateGovernor.classify(HttpStatus.OK), is(RateGovernor.Signal.HEALTHY));
+        assertThat(RateGovernor.classify(HttpStatus.TOO_MANY_REQUESTS), is(RateGovernor.Signal.OVERLOADED));
+        assertThat(RateGovernor.classify(HttpStatus.SERVICE_UNAVAILABLE), is(RateGovernor.Signal.OVERLOADED));
+        assertThat(RateGovernor.classify(HttpStatus.BAD_REQUEST), is(RateGovernor.Signal.NEUTRAL));
+    }
+
+    private void sendHealthyRequest(RateGovernor governor) throws InterruptedException {
+        governor.acquire();
+        clock.addAndGet(LATENCY);
+        governor.release(RateGovernor.Signal.HEALTHY, LATENCY);
+    }
+}
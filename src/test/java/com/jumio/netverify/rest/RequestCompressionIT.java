@@ -0,0 +1,168 @@
+/*
+ * Jumio Inc.
+ *
+ * Copyright (C) 2018
+ * All rights reserved.
+ */
+package com.jumio.netverify.rest;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.jumio.netverify.ConfigurationContext;
+import com.jumio.netverify.Utils;
+import com.jumio.netverify.domain.ImageTriplet;
+import com.jumio.netverify.domain.ImageTripletRepository;
+import com.jumio.netverify.domain.PresenceStrategy;
+import com.jumio.netverify.journal.SubmissionJournal;
+import com.jumio.netverify.metrics.MetricsRegistry;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.util.StreamUtils;
+import org.springframework.web.client.RestTemplate;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Sends requests to a local stand-in server that decompresses and validates the request bodies.
+ */
+public class RequestCompressionIT {
+
+    @Rule
+    public final TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private final Gson gson = RestTemplateBuilder.buildGson();
+
+    private final AtomicInteger compressedRequests = new AtomicInteger();
+
+    private final AtomicInteger acceptedRequests = new AtomicInteger();
+
+    private HttpServer server;
+
+    private volatile boolean acceptCompressed = true;
+
+    private byte[] frontImage;
+
+    @Before
+    public void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/perform", this::handle);
+        server.start();
+        // Base64 encoded text compresses even if the image bytes don't
+        frontImage = new byte[300_000];
+        new Random(42).nextBytes(frontImage);
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void testCompressedRequest() throws Exception {
+        MetricsRegistry metrics = new MetricsRegistry();
+
+        send(metrics);
+
+        assertThat(compressedRequests.get(), is(1));
+        assertThat(acceptedRequests.get(), is(1));
+        assertThat(metrics.counter("uploads.succeeded").sum(), is(1L));
+        assertThat(metrics.getGaugeValue("compression.ratio"), lessThan(0.9));
+        assertThat(metrics.histogram("cpu.compression").getCount(), is(1L));
+    }
+
+    @Test
+    public void testFallBackToUncompressedRequests() throws Exception {
+        acceptCompressed = false;
+        MetricsRegistry metrics = new MetricsRegistry();
+
+        send(metrics);
+
+        assertThat(compressedRequests.get(), is(1));
+        assertThat(acceptedRequests.get(), is(1));
+        assertThat(metrics.counter("uploads.succeeded").sum(), is(1L));
+        assertThat(metrics.counter("requests.retried").sum(), is(0L));
+        assertThat(metrics.counter("requests.sent").sum(), greaterThan(1L));
+    }
+
+    private void send(MetricsRegistry metrics) throws Exception {
+        Properties cliProperties = new Properties();
+        cliProperties.setProperty("api.serverUrl", "http://localhost:" + server.getAddress().getPort() + "/perform");
+        cliProperties.setProperty("api.token", "foo");
+        cliProperties.setProperty("api.secret", "bar");
+        cliProperties.setProperty("api.compressRequests", "true");
+        ConfigurationContext configuration = new ConfigurationContext();
+        configuration.load(Utils.propertiesToList(cliProperties));
+        File frontImageFile = tempFolder.newFile("foo_front.jpg");
+        Files.write(frontImageFile.toPath(), frontImage);
+        ImageTriplet triplet = mock(ImageTriplet.class);
+        when(triplet.getUniqueId()).thenReturn("foo");
+        when(triplet.getIdFrontImagePath()).thenReturn(frontImageFile.getCanonicalPath());
+        when(triplet.conformsTo(any(PresenceStrategy.Validator.class))).thenReturn(true);
+
+        RestTemplate restTemplate = RestTemplateBuilder.buildRestTemplate(configuration, metrics);
+        NetverifyApiFacade facade = new NetverifyApiFacade(configuration, mock(ImageTripletRepository.class),
+                restTemplate, SubmissionJournal.disabled(), metrics);
+        facade.sendApiRequests(Collections.singletonList(triplet));
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        boolean compressed = "gzip".equals(exchange.getRequestHeaders().getFirst("Content-Encoding"));
+        if (compressed) {
+            compressedRequests.incrementAndGet();
+        }
+        if (compressed && !acceptCompressed) {
+            try (InputStream body = exchange.getRequestBody()) {
+                StreamUtils.drain(body);
+            }
+            respond(exchange, 415, "{}");
+            return;
+        }
+        try (InputStream body = compressed ? new GZIPInputStream(exchange.getRequestBody()) :
+                exchange.getRequestBody()) {
+            JsonObject request = gson.fromJson(new InputStreamReader(body, StandardCharsets.UTF_8), JsonObject.class);
+            byte[] image = Base64.getDecoder().decode(request.get("frontsideImage").getAsString());
+            if (!"foo".equals(request.get("merchantIdScanReference").getAsString())
+                    || !Arrays.equals(image, frontImage)) {
+                respond(exchange, 400, "{}");
+                return;
+            }
+        }
+        acceptedRequests.incrementAndGet();
+        respond(exchange, 200, "{\"jumioIdScanReference\":\"ref\"}");
+    }
+
+    private static void respond(HttpExchange exchange, int status, String json) throws IOException {
+        byte[] response = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, response.length);
+        try (OutputStream body = exchange.getResponseBody()) {
+            body.write(response);
+        }
+    }
+}
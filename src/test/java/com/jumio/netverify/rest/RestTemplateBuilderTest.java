@@ -8,12 +8,22 @@ package com.jumio.netverify.rest;
 
 import com.jumio.netverify.ConfigurationContext;
 import com.jumio.netverify.Utils;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.Collections;
 import java.util.Properties;
 import org.junit.Test;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.mock.http.MockHttpOutputMessage;
 import org.springframework.web.client.RestTemplate;
 
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.instanceOf;
 import static org.hamcrest.Matchers.is;
 import static org.hamcrest.Matchers.not;
 import static org.hamcrest.Matchers.nullValue;
@@ -30,13 +40,38 @@ public class RestTemplateBuilderTest {
         RestTemplate restTemplate = RestTemplateBuilder.buildRestTemplate(configuration);
 
         assertThat(restTemplate, not(nullValue()));
-        assertThat(restTemplate.getInterceptors().size(), is(2));
+        assertThat(restTemplate.getInterceptors(), is(empty()));
+        assertThat(restTemplate.getRequestFactory(), instanceOf(HttpComponentsClientHttpRequestFactory.class));
+        assertThat(restTemplate.getMessageConverters().get(0), instanceOf(PerformNetverifyRequestConverter.class));
     }
 
     @Test
-    public void testBuildHttpHeaders() {
-        HttpHeaders httpHeaders = RestTemplateBuilder.buildHttpHeaders();
+    @SuppressWarnings("unchecked")
+    public void testDatesAreWrittenAsIsoDates() throws Exception {
+        ConfigurationContext configuration = new ConfigurationContext();
+        configuration.load(Collections.emptyList());
+        RestTemplate restTemplate = RestTemplateBuilder.buildRestTemplate(configuration);
+        PerformNetverifyRequest request = new PerformNetverifyRequest();
+        request.setDob(LocalDate.of(1980, 2, 29).atStartOfDay());
+        MockHttpOutputMessage outputMessage = new MockHttpOutputMessage();
+
+        ((HttpMessageConverter<PerformNetverifyRequest>) restTemplate.getMessageConverters().get(0))
+                .write(request, MediaType.APPLICATION_JSON, outputMessage);
+
+        assertThat(outputMessage.getBodyAsString(StandardCharsets.UTF_8), containsString("\"dob\":\"1980-02-29\""));
+    }
+
+    @Test
+    public void testBuildHttpHeaders() throws Exception {
+        ConfigurationContext configuration = new ConfigurationContext();
+        Properties cliProperties = new Properties();
+        cliProperties.put("api.token", "foo");
+        cliProperties.put("api.secret", "bar");
+        configuration.load(Utils.propertiesToList(cliProperties));
+        HttpHeaders httpHeaders = RestTemplateBuilder.buildHttpHeaders(configuration);
 
         assertThat(httpHeaders, not(nullValue()));
+        assertThat(httpHeaders.getFirst(HttpHeaders.AUTHORIZATION), is("Basic Zm9vOmJhcg=="));
+        assertThat(httpHeaders.getFirst(HttpHeaders.USER_AGENT), not(nullValue()));
     }
 }
\ No newline at end of file
@@ -0,0 +1,93 @@
+/*
+ * Jumio Inc.
+ *
+ * Copyright (C) 2018
+ * All rights reserved.
+ */
+package com.jumio.netverify.rest;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.nio.file.NoSuchFileException;
+import org.junit.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestClientException;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+
+public class RetryPolicyTest {
+
+    @Test
+    public void testTransientFailures() {
+        assertThat(RetryPolicy.isTransient(new HttpClientErrorException(HttpStatus.TOO_MANY_REQUESTS)), is(true));
+        assertThat(RetryPolicy.isTransient(new HttpServerErrorException(HttpStatus.SERVICE_UNAVAILABLE)), is(true));
+        assertThat(RetryPolicy.isTransient(
+                new ResourceAccessException("timeout", new SocketTimeoutException())), is(true));
+    }
+
+    @Test
+    public void testPermanentFailures() {
+        assertThat(RetryPolicy.isTransient(new HttpClientErrorException(HttpStatus.BAD_REQUEST)), is(false));
+        assertThat(RetryPolicy.isTransient(new HttpServerErrorException(HttpStatus.NOT_IMPLEMENTED)), is(false));
+        assertThat(RetryPolicy.isTransient(new RestClientException("conversion")), is(false));
+        assertThat(RetryPolicy.isTransient(new ResourceAccessException("missing image",
+                new IOException(new NoSuchFileException("front.jpg")))), is(false));
+    }
+
+    @Test
+    public void testMaxAttempts() {
+        RetryPolicy retryPolicy = new RetryPolicy(3, 1, 1, 1);
+        retryPolicy.onFirstAttempt();
+        RestClientException exception = new HttpServerErrorException(HttpStatus.BAD_GATEWAY);
+
+        assertThat(retryPolicy.shouldRetry(exception, 1), is(true));
+        assertThat(retryPolicy.shouldRetry(exception, 2), is(true));
+        assertThat(retryPolicy.shouldRetry(exception, 3), is(false));
+    }
+
+    @Test
+    public void testRetryBudget() {
+        RetryPolicy retryPolicy = new RetryPolicy(Integer.MAX_VALUE, 1, 1, 0.5);
+        RestClientException exception = new HttpServerErrorException(HttpStatus.BAD_GATEWAY);
+        for (int i = 0; i < 10; i++) {
+            retryPolicy.onFirstAttempt();
+        }
+
+        int retries = 0;
+        while (retryPolicy.shouldRetry(exception, 1)) {
+            retries++;
+        }
+
+        assertThat(retries, is(15));
+    }
+
+    @Test
+    public void testBackoffIsBoundedAndJittered() {
+        RetryPolicy retryPolicy = new RetryPolicy(10, 100, 1000, 1);
+        RestClientException exception = new HttpServerErrorException(HttpStatus.BAD_GATEWAY);
+
+        for (int i = 0; i < 100; i++) {
+            assertThat(retryPolicy.backoffMillis(exception, 1), lessThanOrEqualTo(100L));
+            assertThat(retryPolicy.backoffMillis(exception, 3), lessThanOrEqualTo(400L));
+            assertThat(retryPolicy.backoffMillis(exception, 40), lessThanOrEqualTo(1000L));
+        }
+    }
+
+    @Test
+    public void testBackoffRespectsRetryAfter() {
+        RetryPolicy retryPolicy = new RetryPolicy(10, 100, 5000, 1);
+        HttpHeaders headers = new HttpHeaders();
+        headers.set("Retry-After", "2");
+        RestClientException exception = new HttpClientErrorException(HttpStatus.TOO_MANY_REQUESTS, "Too Many Requests",
+                headers, new byte[0], null);
+
+        assertThat(retryPolicy.backoffMillis(exception, 1), greaterThanOrEqualTo(2000L));
+    }
+}
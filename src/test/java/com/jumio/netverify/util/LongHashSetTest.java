@@ -0,0 +1,56 @@
+/*
+ * Jumio Inc.
+ *
+ * Copyright (C) 2018
+ * All rights reserved.
+ */
+package com.jumio.netverify.util;
+
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public class LongHashSetTest {
+
+    @Test
+    public void testAddAndContains() {
+        LongHashSet set = new LongHashSet(4);
+        for (long value = -5000; value < 5000; value++) {
+            assertThat(set.add(value * 31), is(true));
+        }
+
+        assertThat(set.size(), is(10000));
+        for (long value = -5000; value < 5000; value++) {
+            assertThat(set.contains(value * 31), is(true));
+            assertThat(set.contains(value * 31 + 1), is(false));
+        }
+    }
+
+    @Test
+    public void testAddDuplicate() {
+        LongHashSet set = new LongHashSet();
+
+        assertThat(set.add(42L), is(true));
+        assertThat(set.add(42L), is(false));
+        assertThat(set.size(), is(1));
+    }
+
+    @Test
+    public void testZero() {
+        LongHashSet set = new LongHashSet();
+
+        assertThat(set.contains(0L), is(false));
+        assertThat(set.add(0L), is(true));
+        assertThat(set.add(0L), is(false));
+        assertThat(set.contains(0L), is(true));
+        assertThat(set.size(), is(1));
+    }
+
+    @Test
+    public void testHashIsStable() {
+        assertThat(Hashing.hash64("a774b3dc-ba93-4b14-b231-abf031848677"),
+                is(Hashing.hash64(new StringBuilder("a774b3dc-ba93-4b14-b231-abf031848677"))));
+        assertThat(Hashing.hash64("foo") == Hashing.hash64("bar"), is(false));
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * Jumio Inc.
+ *
+ * Copyright (C) 2018
+ * All rights reserved.
+ */
+package com.jumio.netverify.util;
+
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public class LongLongHashMapTest {
+
+    @Test
+    public void testPutAndGet() {
+        LongLongHashMap map = new LongLongHashMap(4);
+        for (long key = -5000; key < 5000; key++) {
+            assertThat(map.putIfAbsent(key * 31, key), is(true));
+        }
+
+        assertThat(map.size(), is(10000));
+        for (long key = -5000; key < 5000; key++) {
+            assertThat(map.get(key * 31, Long.MIN_VALUE), is(key));
+            assertThat(map.containsKey(key * 31 + 1), is(false));
+            assertThat(map.get(key * 31 + 1, -1L), is(-1L));
+        }
+    }
+
+    @Test
+    public void testPutIfAbsentKeepsFirstValue() {
+        LongLongHashMap map = new LongLongHashMap();
+
+        assertThat(map.putIfAbsent(42L, 1L), is(true));
+        assertThat(map.putIfAbsent(42L, 2L), is(false));
+        assertThat(map.get(42L, -1L), is(1L));
+        assertThat(map.size(), is(1));
+    }
+
+    @Test
+    public void testZeroKey() {
+        LongLongHashMap map = new LongLongHashMap();
+
+        assertThat(map.containsKey(0L), is(false));
+        assertThat(map.putIfAbsent(0L, 7L), is(true));
+        assertThat(map.get(0L, -1L), is(7L));
+        assertThat(map.size(), is(1));
+    }
+}